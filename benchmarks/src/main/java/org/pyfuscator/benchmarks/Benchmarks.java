@@ -0,0 +1,20 @@
+package org.pyfuscator.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// main class of benchmarks.jar: the usual jmh command line, always with the gc profiler
+// so every result comes with gc.alloc.rate.norm (bytes allocated per operation) next to the throughput
+// e.g. java -jar benchmarks.jar Loader -p size=10000 -rf json -rff loader.json
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
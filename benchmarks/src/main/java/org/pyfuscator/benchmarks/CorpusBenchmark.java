@@ -0,0 +1,225 @@
+package org.pyfuscator.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.pyfuscator.DirectoryObfuscator;
+import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.ObfuscationContext;
+import org.pyfuscator.utils.PythonWorkerPool;
+import org.pyfuscator.utils.RunPython;
+import org.pyfuscator.utils.RunStats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// the whole flow (python parse -> passes -> python unparse, through DirectoryObfuscator like a real run) over a corpus
+// default corpus is the standard library of the python on the path, so every machine has one
+// one warmup run, then --iterations measured ones; reports files/sec (median run), p50/p99 per file latency,
+// how the time splits between java (cpu) and python (the rest), and peak rss of the jvm and the python workers
+// with a baseline file it fails (exit 1) when files/sec drops more than --threshold percent below it
+//
+// java -cp benchmarks/target/benchmarks.jar org.pyfuscator.benchmarks.CorpusBenchmark [--corpus dir] [--baseline file]
+//      [--threshold 10] [--iterations 3] [--jobs n] [--update-baseline]
+public class CorpusBenchmark {
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private Path corpus;
+	private Path baseline = Path.of("benchmarks", "corpus-baseline.json");
+	private double threshold = 10;
+	private int iterations = 3;
+	private int jobs = Runtime.getRuntime().availableProcessors();
+	private boolean updateBaseline;
+	private String python = "python";
+
+	public static void main(String[] args) throws Exception {
+		System.exit(parse(args).run() ? 0 : 1);
+	}
+
+	static CorpusBenchmark parse(String[] args) {
+		CorpusBenchmark benchmark = new CorpusBenchmark();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--corpus" -> benchmark.corpus = Path.of(args[++i]);
+				case "--baseline" -> benchmark.baseline = Path.of(args[++i]);
+				case "--threshold" -> benchmark.threshold = Double.parseDouble(args[++i]);
+				case "--iterations" -> benchmark.iterations = Integer.parseInt(args[++i]);
+				case "--jobs" -> benchmark.jobs = Integer.parseInt(args[++i]);
+				case "--python" -> benchmark.python = args[++i];
+				case "--update-baseline" -> benchmark.updateBaseline = true;
+				default -> throw new IllegalArgumentException("unknown option: " + args[i]);
+			}
+		}
+		return benchmark;
+	}
+
+	// false on a regression
+	boolean run() throws Exception {
+		if (corpus == null) {
+			corpus = Path.of(pythonOutput("-c", "import sysconfig; print(sysconfig.get_paths()['stdlib'])"));
+		}
+		Path output = Files.createTempDirectory("pyfuscator-corpus-");
+		try {
+			Map<String, Object> result = measure(output);
+			print(result);
+			return compare(result);
+		} finally {
+			deleteTree(output);
+		}
+	}
+
+	private Map<String, Object> measure(Path output) throws Exception {
+		ObfuscationConfig config = ObfuscationConfig.createDefault();
+		config.setInputDir(corpus.toString());
+		config.setOutputDir(output.toString());
+		config.setSeed(1);
+		config.setJobs(jobs);
+		config.validate();
+
+		try (PythonWorkerPool pool = new PythonWorkerPool(python, jobs)) {
+			ObfuscationContext context = new ObfuscationContext(config, pool);
+			DirectoryObfuscator directory = new DirectoryObfuscator(context);
+			List<Path> files = directory.collectFiles();
+			System.out.printf("corpus: %s (%d files), %d jobs, %d iterations%n", corpus, files.size(), jobs, iterations);
+
+			runQuietly(directory, files); // warms up the jit and the workers
+			List<Double> filesPerSecond = new ArrayList<>();
+			List<RunStats.FileStats> measured = new ArrayList<>();
+			for (int i = 0; i < iterations; i++) {
+				context.getStats().reset();
+				long start = System.nanoTime();
+				runQuietly(directory, files);
+				long elapsed = System.nanoTime() - start;
+				List<RunStats.FileStats> stats = context.getStats().getFiles();
+				long succeeded = stats.stream().filter(file -> !file.failed()).count();
+				filesPerSecond.add(succeeded / (elapsed / 1e9));
+				measured.addAll(stats);
+			}
+
+			List<RunStats.FileStats> succeeded = measured.stream().filter(file -> !file.failed()).toList();
+			long[] latencies = succeeded.stream().mapToLong(RunStats.FileStats::wallNanos).sorted().toArray();
+			long javaNanos = succeeded.stream().mapToLong(RunStats.FileStats::javaCpuNanos).sum();
+			long pythonNanos = succeeded.stream().mapToLong(RunStats.FileStats::pythonNanos).sum();
+
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("corpus", corpus.toString());
+			result.put("files", files.size());
+			result.put("failedFiles", (measured.size() - succeeded.size()) / Math.max(1, iterations));
+			result.put("jobs", jobs);
+			result.put("java", System.getProperty("java.version"));
+			result.put("python", pythonOutput("--version"));
+			result.put("filesPerSecond", round(median(filesPerSecond)));
+			result.put("p50Millis", round(percentile(latencies, 50) / 1e6));
+			result.put("p99Millis", round(percentile(latencies, 99) / 1e6));
+			result.put("javaPercent", round(100.0 * javaNanos / Math.max(1, javaNanos + pythonNanos)));
+			result.put("pythonPercent", round(100.0 * pythonNanos / Math.max(1, javaNanos + pythonNanos)));
+			result.put("jvmPeakRssMb", round(peakRssKb(ProcessHandle.current().pid()) / 1024.0));
+			result.put("pythonPeakRssMb", round(ProcessHandle.current().descendants()
+					.mapToLong(process -> peakRssKb(process.pid())).max().orElse(0) / 1024.0)); // the biggest worker
+			return result;
+		}
+	}
+
+	// DirectoryObfuscator reports every file that fails (and the stdlib has a few we can't do yet), keep that out of the numbers
+	private static void runQuietly(DirectoryObfuscator directory, List<Path> files) {
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+		System.setOut(nowhere);
+		System.setErr(nowhere);
+		try {
+			directory.run(files);
+		} catch (Exception e) {
+			// failed files are counted from the stats
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+	}
+
+	// false when files/sec is more than threshold percent below the baseline's
+	boolean compare(Map<String, Object> result) throws IOException {
+		if (updateBaseline) {
+			MAPPER.writeValue(baseline.toFile(), result);
+			System.out.println("baseline written to " + baseline);
+			return true;
+		}
+		if (!Files.exists(baseline)) {
+			System.out.println("no baseline at " + baseline + ", run with --update-baseline to store this one");
+			return true;
+		}
+
+		Map<?, ?> previous = MAPPER.readValue(baseline.toFile(), Map.class);
+		for (String key : List.of("corpus", "files", "jobs", "python")) {
+			if (!String.valueOf(previous.get(key)).equals(String.valueOf(result.get(key)))) {
+				System.out.printf("warning: %s differs from the baseline (%s vs %s), the numbers may not be comparable%n",
+						key, previous.get(key), result.get(key));
+			}
+		}
+		double before = ((Number) previous.get("filesPerSecond")).doubleValue();
+		double now = (double) result.get("filesPerSecond");
+		double change = 100.0 * (now - before) / before;
+		System.out.printf("files/sec: %.1f vs baseline %.1f (%+.1f%%)%n", now, before, change);
+		if (change < -threshold) {
+			System.out.printf("REGRESSION: throughput dropped more than %.1f%%%n", threshold);
+			return false;
+		}
+		return true;
+	}
+
+	private static void print(Map<String, Object> result) {
+		System.out.printf("files/sec: %s (%s of %s files failed)%n", result.get("filesPerSecond"), result.get("failedFiles"), result.get("files"));
+		System.out.printf("latency per file: p50 %s ms, p99 %s ms%n", result.get("p50Millis"), result.get("p99Millis"));
+		System.out.printf("time split: java %s%%, python %s%%%n", result.get("javaPercent"), result.get("pythonPercent"));
+		System.out.printf("peak rss: jvm %s MB, largest python worker %s MB%n", result.get("jvmPeakRssMb"), result.get("pythonPeakRssMb"));
+	}
+
+	// VmHWM from /proc, so linux only (0 elsewhere)
+	private static long peakRssKb(long pid) {
+		try (Stream<String> lines = Files.lines(Path.of("/proc", String.valueOf(pid), "status"))) {
+			return lines.filter(line -> line.startsWith("VmHWM:"))
+					.mapToLong(line -> Long.parseLong(line.replaceAll("[^0-9]", "")))
+					.findFirst().orElse(0);
+		} catch (IOException | RuntimeException e) {
+			return 0;
+		}
+	}
+
+	private String pythonOutput(String... args) throws Exception {
+		RunPython.Result result = new RunPython(python).run(args);
+		if (result.exitCode() != 0) {
+			throw new IOException("python " + String.join(" ", args) + " failed: " + result.stderr());
+		}
+		return result.stdout().trim();
+	}
+
+	private static double median(List<Double> values) {
+		List<Double> sorted = values.stream().sorted().toList();
+		return sorted.get(sorted.size() / 2);
+	}
+
+	private static double percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) return 0;
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 10) / 10.0;
+	}
+
+	private static void deleteTree(Path root) throws IOException {
+		try (Stream<Path> walk = Files.walk(root)) {
+			walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package org.pyfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pyfuscator.ast.ASTFormat;
+import org.pyfuscator.ast.JsonASTLoader;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.SymbolTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// JsonASTLoader.load: python's output (json or binary) to a Node tree
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoaderBenchmark {
+	@Param({"WIDE", "DEEP", "SCOPES"})
+	public SyntheticAst.Shape shape;
+
+	@Param({"1000", "10000"})
+	public int size;
+
+	@Param({"BINARY", "JSON"})
+	public ASTFormat format;
+
+	private byte[] data;
+	private JsonASTLoader loader;
+
+	@Setup
+	public void setUp() {
+		data = SyntheticAst.encoded(shape, size, format);
+		loader = new JsonASTLoader(new SymbolTable()); // one table for all iterations, like the files of one run
+	}
+
+	@Benchmark
+	public Node load() throws IOException {
+		return loader.load(new ByteArrayInputStream(data));
+	}
+}
@@ -0,0 +1,43 @@
+package org.pyfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pyfuscator.utils.NameGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+// NameGenerator.generate: a fresh generator per invocation handing out `names` names, like one file of that many symbols
+// so setting up the permutation keys is part of the number, reported per name
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameGeneratorBenchmark {
+	private static final int NAMES = 1000;
+
+	@Param({"3", "8"})
+	public int length;
+
+	private long seed;
+
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public void generate(Blackhole blackhole) {
+		NameGenerator generator = new NameGenerator(seed++, "v", length);
+		for (int i = 0; i < NAMES; i++) {
+			blackhole.consume(generator.generate());
+		}
+	}
+}
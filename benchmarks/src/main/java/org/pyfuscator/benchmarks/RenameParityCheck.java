@@ -0,0 +1,124 @@
+package org.pyfuscator.benchmarks;
+
+import org.pyfuscator.DirectoryObfuscator;
+import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.ObfuscationContext;
+import org.pyfuscator.utils.PythonWorkerPool;
+import org.pyfuscator.utils.RunPython;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// --parallel-rename hands out other names than the sequential pass, so the two outputs can't be diffed;
+// instead both are run next to the original and have to print the same
+// the module is the kind the parallel pass got wrong: names an import binds at module level (the try/except ImportError
+// guard, in both orders) used from the top-level defs and classes the forks rename
+//
+// java -cp benchmarks/target/benchmarks.jar org.pyfuscator.benchmarks.RenameParityCheck [--python python3]
+public class RenameParityCheck {
+	private static final String MODULE = """
+			import os.path
+			try:
+			    import pickle as serializer
+			except ImportError:
+			    serializer = None
+
+			encoder = None
+			try:
+			    import json as encoder
+			except ImportError:
+			    pass
+
+			limit = 3
+
+			def dump(obj):
+			    data = serializer.dumps(obj)
+			    return len(data) > 0 and os.path.sep is not None
+
+			def encode(items):
+			    total = [item * limit for item in items]
+			    return encoder.dumps(total)
+
+			class Store:
+			    def __init__(self):
+			        self.items = []
+
+			    def add(self, item):
+			        self.items.append(item)
+			        return encode(self.items)
+
+			store = Store()
+			store.add(1)
+			print(dump({'a': 1}), store.add(2), encode([limit]))
+			""";
+
+	private String python = "python";
+
+	public static void main(String[] args) throws Exception {
+		RenameParityCheck check = new RenameParityCheck();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--python" -> check.python = args[++i];
+				default -> throw new IllegalArgumentException("unknown option: " + args[i]);
+			}
+		}
+		System.exit(check.run() ? 0 : 1);
+	}
+
+	// false when an output doesn't behave like the original
+	private boolean run() throws Exception {
+		Path root = Files.createTempDirectory("pyfuscator-parity-");
+		try {
+			Path input = root.resolve("input");
+			Files.createDirectories(input);
+			Files.writeString(input.resolve("module.py"), MODULE);
+			String expected = execute(input.resolve("module.py"));
+			boolean same = true;
+			for (boolean parallel : new boolean[]{false, true}) {
+				Path output = root.resolve(parallel ? "parallel" : "sequential");
+				obfuscate(input, output, parallel);
+				String actual = execute(output.resolve("module.py"));
+				boolean matches = expected.equals(actual);
+				System.out.printf("%s rename: %s%n", parallel ? "parallel" : "sequential", matches ? "ok" : "DIFFERS");
+				if (!matches) {
+					System.out.printf("expected:%n%s%ngot:%n%s%n", expected, actual);
+				}
+				same &= matches;
+			}
+			return same;
+		} finally {
+			deleteTree(root);
+		}
+	}
+
+	private void obfuscate(Path input, Path output, boolean parallel) throws Exception {
+		ObfuscationConfig config = ObfuscationConfig.createDefault();
+		config.setInputDir(input.toString());
+		config.setOutputDir(output.toString());
+		config.setSeed(1);
+		config.setJobs(1);
+		config.setRenameFunctions(true);
+		config.setRenameClasses(true);
+		config.setParallelRename(parallel);
+		config.validate();
+		try (PythonWorkerPool pool = new PythonWorkerPool(python, 1)) {
+			new DirectoryObfuscator(new ObfuscationContext(config, pool)).run();
+		}
+	}
+
+	// stdout and stderr, so a NameError shows up as a difference
+	private String execute(Path file) throws Exception {
+		RunPython.Result result = new RunPython(python).run(file.toString());
+		return result.stdout() + result.stderr();
+	}
+
+	private static void deleteTree(Path root) throws IOException {
+		try (Stream<Path> walk = Files.walk(root)) {
+			walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+}
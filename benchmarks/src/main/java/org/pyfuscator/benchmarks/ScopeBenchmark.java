@@ -0,0 +1,77 @@
+package org.pyfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+import org.pyfuscator.scope.ScopeAnalysis;
+import org.pyfuscator.scope.Symbol;
+import org.pyfuscator.scope.SymbolTable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// ScopeAnalysis: analyze is the collecting walk plus resolving every entry of the table,
+// resolve is what the rename pass then pays per Name node, one lookup in the scope the node is evaluated in
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScopeBenchmark {
+	@Param({"1000", "10000"})
+	public int size;
+
+	private SymbolTable symbols;
+	private Node tree;
+	private ScopeAnalysis analysis;
+	private int[] scopes;
+	private Symbol[] names;
+
+	@Setup
+	public void setUp() {
+		symbols = new SymbolTable();
+		tree = SyntheticAst.tree(SyntheticAst.Shape.SCOPES, size, symbols);
+		analysis = new ScopeAnalysis(symbols).analyze(tree);
+		// every Name of the tree with the scope it is evaluated in, the way the rename pass walks
+		List<Integer> nodeScopes = new ArrayList<>();
+		List<Symbol> nodeNames = new ArrayList<>();
+		Deque<Integer> context = new ArrayDeque<>();
+		tree.walk(node -> {
+			int scope = analysis.scopeFor(node, context.isEmpty() ? ScopeAnalysis.MODULE : context.peek());
+			context.push(scope);
+			if (node.is(NodeType.NAME) && node.getField("id") instanceof Symbol id) {
+				nodeScopes.add(scope);
+				nodeNames.add(id);
+			}
+		}, node -> context.pop());
+		scopes = nodeScopes.stream().mapToInt(Integer::intValue).toArray();
+		names = nodeNames.toArray(new Symbol[0]);
+	}
+
+	@Benchmark
+	public void analyze(Blackhole blackhole) {
+		blackhole.consume(new ScopeAnalysis(symbols).analyze(tree));
+	}
+
+	@Benchmark
+	public void resolve(Blackhole blackhole) {
+		for (int i = 0; i < names.length; i++) {
+			blackhole.consume(analysis.resolve(scopes[i], names[i]));
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package org.pyfuscator.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.pyfuscator.ast.ASTFormat;
+import org.pyfuscator.ast.JsonASTLoader;
+import org.pyfuscator.ast.JsonASTWriter;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.SymbolTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// made up modules in the json parser.py writes, so the benchmarks don't need python or a corpus on disk
+// size is roughly the number of statements, the shape decides how they are arranged:
+//   WIDE   - a flat module of assignments and calls (most of the stdlib looks like this)
+//   DEEP   - statements nested DEEP_NESTING ifs deep, for the stacks in the loader and the walk
+//   SCOPES - functions with a nested function, classes with methods, so lots of scopes and bindings
+public final class SyntheticAst {
+	// deep enough to hurt, shallow enough for jackson's default nesting limit when writing json
+	static final int DEEP_NESTING = 60;
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	public enum Shape {
+		WIDE, DEEP, SCOPES
+	}
+
+	private final JsonGenerator out;
+	private int names; // counter for the v0, v1, ... identifiers
+
+	private SyntheticAst(JsonGenerator out) {
+		this.out = out;
+	}
+
+	// the module as parser.py json
+	public static byte[] json(Shape shape, int size) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (JsonGenerator generator = FACTORY.createGenerator(bytes)) {
+			new SyntheticAst(generator).module(shape, size);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	// the same module in the given hand off format (what the loader reads in a real run)
+	public static byte[] encoded(Shape shape, int size, ASTFormat format) {
+		byte[] json = json(shape, size);
+		if (format == ASTFormat.JSON) return json;
+		return write(load(json, new SymbolTable()), format);
+	}
+
+	public static Node tree(Shape shape, int size, SymbolTable symbols) {
+		return load(json(shape, size), symbols);
+	}
+
+	static Node load(byte[] data, SymbolTable symbols) {
+		try {
+			return new JsonASTLoader(symbols).load(new ByteArrayInputStream(data));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static byte[] write(Node tree, ASTFormat format) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			new JsonASTWriter(format, false).write(tree, bytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void module(Shape shape, int size) throws IOException {
+		startNode("Module");
+		out.writeArrayFieldStart("body");
+		switch (shape) {
+			case WIDE -> {
+				for (int i = 0; i < size; i++) {
+					simpleStatement(i);
+				}
+			}
+			case DEEP -> {
+				for (int written = 0; written < size; written += DEEP_NESTING) {
+					nestedIfs(Math.min(DEEP_NESTING, size - written));
+				}
+			}
+			case SCOPES -> {
+				// a function is ~6 statements, a class with two methods ~8
+				for (int written = 0; written < size; written += 14) {
+					function("f" + written, "a", true);
+					classDef("C" + written);
+				}
+			}
+		}
+		out.writeEndArray();
+		out.writeArrayFieldStart("type_ignores");
+		out.writeEndArray();
+		endNode();
+	}
+
+	// alternates vN = vM + i and print(vN)
+	private void simpleStatement(int i) throws IOException {
+		if (i % 2 == 0) {
+			assign(newName(), () -> binOp(() -> name(lastName(1), "Load"), () -> constant(i)));
+		} else {
+			call("print", () -> name(lastName(0), "Load"));
+		}
+	}
+
+	private void nestedIfs(int depth) throws IOException {
+		if (depth == 0) {
+			simpleStatement(0);
+			return;
+		}
+		startNode("If");
+		out.writeFieldName("test");
+		compare();
+		out.writeArrayFieldStart("body");
+		nestedIfs(depth - 1);
+		out.writeEndArray();
+		out.writeArrayFieldStart("orelse");
+		out.writeEndArray();
+		endNode();
+	}
+
+	private void function(String functionName, String firstArg, boolean withInner) throws IOException {
+		startNode("FunctionDef");
+		out.writeStringField("name", functionName);
+		out.writeFieldName("args");
+		arguments(firstArg, "b");
+		out.writeArrayFieldStart("body");
+		assign("x", () -> binOp(() -> name(firstArg, "Load"), () -> name("b", "Load")));
+		assign("y", () -> binOp(() -> name("x", "Load"), () -> constant(2)));
+		if (withInner) {
+			function("inner", "a", false);
+		}
+		call("print", () -> name("y", "Load"));
+		startNode("Return");
+		out.writeFieldName("value");
+		name("y", "Load");
+		endNode();
+		out.writeEndArray();
+		out.writeArrayFieldStart("decorator_list");
+		out.writeEndArray();
+		out.writeNullField("returns");
+		out.writeNullField("type_comment");
+		out.writeArrayFieldStart("type_params");
+		out.writeEndArray();
+		endNode();
+	}
+
+	private void classDef(String className) throws IOException {
+		startNode("ClassDef");
+		out.writeStringField("name", className);
+		out.writeArrayFieldStart("bases");
+		out.writeEndArray();
+		out.writeArrayFieldStart("keywords");
+		out.writeEndArray();
+		out.writeArrayFieldStart("body");
+		function("get", "self", false);
+		function("put", "self", false);
+		out.writeEndArray();
+		out.writeArrayFieldStart("decorator_list");
+		out.writeEndArray();
+		out.writeArrayFieldStart("type_params");
+		out.writeEndArray();
+		endNode();
+	}
+
+	private void arguments(String... argNames) throws IOException {
+		startNode("arguments");
+		out.writeArrayFieldStart("posonlyargs");
+		out.writeEndArray();
+		out.writeArrayFieldStart("args");
+		for (String argName : argNames) {
+			startNode("arg");
+			out.writeStringField("arg", argName);
+			out.writeNullField("annotation");
+			out.writeNullField("type_comment");
+			endNode();
+		}
+		out.writeEndArray();
+		out.writeNullField("vararg");
+		out.writeArrayFieldStart("kwonlyargs");
+		out.writeEndArray();
+		out.writeArrayFieldStart("kw_defaults");
+		out.writeEndArray();
+		out.writeNullField("kwarg");
+		out.writeArrayFieldStart("defaults");
+		out.writeEndArray();
+		endNode();
+	}
+
+	private void assign(String target, Writer value) throws IOException {
+		startNode("Assign");
+		out.writeArrayFieldStart("targets");
+		name(target, "Store");
+		out.writeEndArray();
+		out.writeFieldName("value");
+		value.write();
+		out.writeNullField("type_comment");
+		endNode();
+	}
+
+	private void call(String function, Writer argument) throws IOException {
+		startNode("Expr");
+		out.writeFieldName("value");
+		startNode("Call");
+		out.writeFieldName("func");
+		name(function, "Load");
+		out.writeArrayFieldStart("args");
+		argument.write();
+		out.writeEndArray();
+		out.writeArrayFieldStart("keywords");
+		out.writeEndArray();
+		endNode();
+		endNode();
+	}
+
+	private void binOp(Writer left, Writer right) throws IOException {
+		startNode("BinOp");
+		out.writeFieldName("left");
+		left.write();
+		out.writeFieldName("op");
+		startNode("Add");
+		endNode();
+		out.writeFieldName("right");
+		right.write();
+		endNode();
+	}
+
+	private void compare() throws IOException {
+		startNode("Compare");
+		out.writeFieldName("left");
+		name("flag", "Load");
+		out.writeArrayFieldStart("ops");
+		startNode("Gt");
+		endNode();
+		out.writeEndArray();
+		out.writeArrayFieldStart("comparators");
+		constant(0);
+		out.writeEndArray();
+		endNode();
+	}
+
+	private void name(String id, String ctx) throws IOException {
+		startNode("Name");
+		out.writeStringField("id", id);
+		out.writeFieldName("ctx");
+		startNode(ctx);
+		endNode();
+		endNode();
+	}
+
+	private void constant(int value) throws IOException {
+		startNode("Constant");
+		out.writeNumberField("value", value);
+		out.writeNullField("kind");
+		endNode();
+	}
+
+	private void startNode(String type) throws IOException {
+		out.writeStartObject();
+		out.writeStringField("type", type);
+		out.writeObjectFieldStart("fields");
+	}
+
+	private void endNode() throws IOException {
+		out.writeEndObject();
+		out.writeEndObject();
+	}
+
+	private String newName() {
+		return "v" + names++;
+	}
+
+	private String lastName(int back) {
+		return "v" + Math.max(0, names - 1 - back);
+	}
+
+	@FunctionalInterface
+	private interface Writer {
+		void write() throws IOException;
+	}
+}
@@ -0,0 +1,62 @@
+package org.pyfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pyfuscator.ast.ASTVisitor;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.SymbolTable;
+
+import java.util.concurrent.TimeUnit;
+
+// Node.walk: the traversal every pass is built on, with callbacks that do next to nothing
+// visit is the same walk through ASTVisitor's type switch, the difference is what the dispatch costs per node
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalkBenchmark {
+	@Param({"WIDE", "DEEP", "SCOPES"})
+	public SyntheticAst.Shape shape;
+
+	@Param({"1000", "10000"})
+	public int size;
+
+	private Node tree;
+
+	@Setup
+	public void setUp() {
+		tree = SyntheticAst.tree(shape, size, new SymbolTable());
+	}
+
+	@Benchmark
+	public void walk(Blackhole blackhole) {
+		tree.walk(blackhole::consume, blackhole::consume);
+	}
+
+	@Benchmark
+	public void visit(Blackhole blackhole) {
+		new ASTVisitor() {
+			@Override
+			public void visitName(Node node) {
+				blackhole.consume(node);
+			}
+
+			@Override
+			public void leaveFunctionDef(Node node) {
+				blackhole.consume(node);
+			}
+		}.walk(tree);
+	}
+}
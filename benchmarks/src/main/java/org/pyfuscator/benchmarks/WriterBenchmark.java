@@ -0,0 +1,54 @@
+package org.pyfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pyfuscator.ast.ASTFormat;
+import org.pyfuscator.ast.JsonASTWriter;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.SymbolTable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// JsonASTWriter.write: the transformed tree back out to python, into a null stream so only the writer is measured
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriterBenchmark {
+	@Param({"WIDE", "DEEP", "SCOPES"})
+	public SyntheticAst.Shape shape;
+
+	@Param({"1000", "10000"})
+	public int size;
+
+	@Param({"BINARY", "JSON"})
+	public ASTFormat format;
+
+	private Node tree;
+	private JsonASTWriter writer;
+	private final OutputStream sink = OutputStream.nullOutputStream();
+
+	@Setup
+	public void setUp() {
+		tree = SyntheticAst.tree(shape, size, new SymbolTable());
+		writer = new JsonASTWriter(format, false);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		writer.write(tree, sink);
+	}
+}
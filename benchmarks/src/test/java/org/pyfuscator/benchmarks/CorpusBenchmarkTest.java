@@ -0,0 +1,95 @@
+package org.pyfuscator.benchmarks;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.utils.RunPython;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class CorpusBenchmarkTest {
+	private Path dir;
+
+	@BeforeEach
+	void createDir() throws Exception {
+		dir = Files.createTempDirectory("pyfuscator-corpus-test-");
+	}
+
+	@AfterEach
+	void deleteDir() throws Exception {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private static Map<String, Object> result(double filesPerSecond) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("corpus", "corpus");
+		result.put("files", 3);
+		result.put("jobs", 1);
+		result.put("python", "Python 3");
+		result.put("filesPerSecond", filesPerSecond);
+		return result;
+	}
+
+	private CorpusBenchmark benchmark(String... options) {
+		String[] args = new String[options.length + 2];
+		args[0] = "--baseline";
+		args[1] = dir.resolve("baseline.json").toString();
+		System.arraycopy(options, 0, args, 2, options.length);
+		return CorpusBenchmark.parse(args);
+	}
+
+	@Test
+	void passesWithoutABaseline() throws Exception {
+		assertTrue(benchmark().compare(result(1)));
+	}
+
+	@Test
+	void failsOnlyPastTheThreshold() throws Exception {
+		assertTrue(benchmark("--update-baseline").compare(result(100)));
+		assertTrue(Files.exists(dir.resolve("baseline.json")));
+
+		assertTrue(benchmark().compare(result(100)));
+		assertTrue(benchmark().compare(result(250)));
+		assertTrue(benchmark().compare(result(91)));
+		assertFalse(benchmark().compare(result(89)));
+		assertTrue(benchmark("--threshold", "20").compare(result(89)));
+	}
+
+	@Test
+	void measuresASmallCorpus() throws Exception {
+		boolean python;
+		try {
+			python = new RunPython("python").run("--version").exitCode() == 0;
+		} catch (Exception e) {
+			python = false;
+		}
+		assumeTrue(python, "no python on the path");
+
+		Path corpus = Files.createDirectories(dir.resolve("corpus"));
+		Files.writeString(corpus.resolve("a.py"), "def f(x):\n    return x * 2\nprint(f(21))\n");
+		Files.writeString(corpus.resolve("b.py"), "import a\nvalues = [a.f(i) for i in range(3)]\n");
+		Files.writeString(corpus.resolve("c.py"), "class C:\n    def m(self, y):\n        return y\n");
+		String[] options = {"--corpus", corpus.toString(), "--iterations", "1", "--jobs", "1"};
+
+		String[] update = new String[options.length + 1];
+		System.arraycopy(options, 0, update, 0, options.length);
+		update[options.length] = "--update-baseline";
+		assertTrue(benchmark(update).run());
+		assertTrue(Files.size(dir.resolve("baseline.json")) > 0);
+
+		// a baseline nothing can keep up with is a regression
+		Files.writeString(dir.resolve("baseline.json"), "{\"filesPerSecond\": 1.0E12}");
+		assertFalse(benchmark(options).run());
+	}
+}
@@ -0,0 +1,66 @@
+package org.pyfuscator.benchmarks;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.ast.ASTFormat;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.SymbolTable;
+import org.pyfuscator.utils.PythonWorkerPool;
+import org.pyfuscator.utils.RunPython;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// the benchmarks only measure something real if the made up modules are modules python would write and accept
+class SyntheticAstTest {
+
+	private static int count(Node tree) {
+		int[] nodes = {0};
+		tree.walk(node -> nodes[0]++, node -> {
+		});
+		return nodes[0];
+	}
+
+	@Test
+	void everyShapeSurvivesBothFormats() {
+		for (SyntheticAst.Shape shape : SyntheticAst.Shape.values()) {
+			Node tree = SyntheticAst.tree(shape, 200, new SymbolTable());
+			for (ASTFormat format : ASTFormat.values()) {
+				Node again = SyntheticAst.load(SyntheticAst.encoded(shape, 200, format), new SymbolTable());
+				assertEquals(count(tree), count(again), shape + " " + format);
+			}
+		}
+	}
+
+	@Test
+	void everyShapeIsValidPython() throws Exception {
+		boolean python;
+		try {
+			python = new RunPython("python").run("--version").exitCode() == 0;
+		} catch (Exception e) {
+			python = false;
+		}
+		assumeTrue(python, "no python on the path");
+
+		Path dir = Files.createTempDirectory("pyfuscator-synthetic-");
+		try (PythonWorkerPool pool = new PythonWorkerPool("python", 1)) {
+			for (SyntheticAst.Shape shape : SyntheticAst.Shape.values()) {
+				Path source = dir.resolve(shape.name().toLowerCase() + ".py");
+				Node tree = SyntheticAst.tree(shape, 200, new SymbolTable());
+				RunPython.unparse(pool, source.toString(), out -> out.write(SyntheticAst.write(tree, ASTFormat.BINARY)));
+				RunPython.Result compiled = new RunPython("python").run("-m", "py_compile", source.toString());
+				assertEquals(0, compiled.exitCode(), shape + ": " + compiled.stderr());
+				assertTrue(Files.size(source) > 0, shape.name());
+			}
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+}
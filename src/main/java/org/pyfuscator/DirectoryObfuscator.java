@@ -0,0 +1,207 @@
+package org.pyfuscator;
+
+import org.pyfuscator.ast.JsonASTLoader;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.ProjectIndex;
+import org.pyfuscator.transform.TransformationPipeline;
+import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.ObfuscationContext;
+import org.pyfuscator.utils.RunPython;
+import org.pyfuscator.utils.StageStats;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// obfuscates every matching file under --input-dir and mirrors the tree into --output-dir
+// files are independent so they run on a fixed size thread pool (--jobs), or through the staged pipeline with --pipeline
+// with --project every file is indexed first (on the same number of threads), see ProjectIndex
+public class DirectoryObfuscator {
+	private static final String DEFAULT_INCLUDE = "**.py";
+
+	private final ObfuscationContext context;
+	private final ObfuscationConfig config;
+	private final Path inputRoot;
+	private final Path outputRoot;
+	private final List<PathMatcher> includes;
+	private final List<PathMatcher> excludes;
+
+	public DirectoryObfuscator(ObfuscationContext context) {
+		this.context = context;
+		this.config = context.getConfig();
+		this.inputRoot = Paths.get(config.getInputDir()).toAbsolutePath().normalize();
+		this.outputRoot = Paths.get(config.getOutputDir()).toAbsolutePath().normalize();
+		this.includes = matchers(config.getIncludes().isEmpty() ? List.of(DEFAULT_INCLUDE) : config.getIncludes());
+		this.excludes = matchers(config.getExcludes());
+	}
+
+	public void run() throws Exception {
+		List<Path> files = collectFiles();
+		if (files.isEmpty()) {
+			System.out.println("No matching files in " + inputRoot);
+			return;
+		}
+		run(files);
+	}
+
+	// obfuscates just these files (collectFiles, or what --watch saw change)
+	public void run(List<Path> files) throws Exception {
+
+		long start = System.nanoTime();
+		if (config.isProject()) {
+			// a change to one file can change what the others import, so the whole project is indexed and done again
+			// (with a cache that is all hits as long as the index comes out the same)
+			files = collectFiles();
+			context.setProject(indexProject(files));
+		}
+		List<TransformationPipeline.FileJob> jobs = new ArrayList<>();
+		for (Path file : files) {
+			jobs.add(new TransformationPipeline.FileJob(file, outputPathFor(file), moduleNameFor(file)));
+		}
+		List<TransformationPipeline.FileJob> done = config.isPipeline()
+				? new TransformationPipeline(context).run(jobs)
+				: runOnExecutor(jobs);
+
+		// one broken file shouldn't stop the rest, so report failures at the end
+		int failed = 0;
+		long bytesProcessed = 0;
+		for (TransformationPipeline.FileJob job : done) {
+			if (job.getError() != null) {
+				System.err.println("failed: " + inputRoot.relativize(job.getInput()) + ": " + job.getError().getMessage());
+				failed++;
+			} else {
+				bytesProcessed += Files.size(job.getInput());
+			}
+		}
+
+		printSummary(files.size() - failed, bytesProcessed, System.nanoTime() - start);
+		if (context.getCache() != null) {
+			System.out.printf("cache: %d hits, %d misses%n", context.getCache().getHits(), context.getCache().getMisses());
+		}
+		if (failed > 0) {
+			throw new RuntimeException(failed + " of " + files.size() + " files failed");
+		}
+	}
+
+	// every file runs start to finish on one of --jobs threads
+	private List<TransformationPipeline.FileJob> runOnExecutor(List<TransformationPipeline.FileJob> jobs) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(config.getJobs());
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (TransformationPipeline.FileJob job : jobs) {
+				results.add(executor.submit(() -> {
+					Main.obfuscateFile(context, job.getModule(), job.getInput().toFile(), job.getOutput().toFile());
+					return null;
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					jobs.get(i).fail(e.getCause());
+				}
+			}
+			return jobs;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// parses every file and collects what ProjectIndex needs from it, the trees are dropped right after
+	// a file that doesn't parse is left out here, it fails (and gets reported) again when its turn comes
+	private ProjectIndex indexProject(List<Path> files) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(config.getJobs());
+		try {
+			List<Future<ProjectIndex.ModuleInfo>> results = new ArrayList<>();
+			for (Path file : files) {
+				results.add(executor.submit(() -> indexFile(file)));
+			}
+			List<ProjectIndex.ModuleInfo> modules = new ArrayList<>();
+			for (Future<ProjectIndex.ModuleInfo> result : results) {
+				try {
+					modules.add(result.get());
+				} catch (ExecutionException e) {
+					// see above
+				}
+			}
+			return ProjectIndex.build(modules, context.getSymbols(), config);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private ProjectIndex.ModuleInfo indexFile(Path file) throws Exception {
+		String input = file.toAbsolutePath().toString();
+		return context.getStageStats().time(StageStats.INDEX, input, null, () -> {
+			JsonASTLoader loader = new JsonASTLoader(context.getSymbols());
+			Node root = RunPython.parse(context.getPool(), input, config.getAstFormat(), loader::load);
+			return ProjectIndex.collect(moduleNameFor(file), root, loader.getIdentifiers(), context.getSymbols(), config);
+		});
+	}
+
+	public Path outputPathFor(Path inputFile) {
+		return outputRoot.resolve(inputRoot.relativize(inputFile));
+	}
+
+	// the key of a file in the name map, the relative path with / on every platform
+	public String moduleNameFor(Path inputFile) {
+		return inputRoot.relativize(inputFile).toString().replace(File.separatorChar, '/');
+	}
+
+	// walks the input tree and keeps regular files that match an include and no exclude
+	public List<Path> collectFiles() throws IOException {
+		try (Stream<Path> walk = Files.walk(inputRoot)) {
+			return walk.filter(Files::isRegularFile)
+					.filter(this::accepts)
+					.sorted()
+					.toList();
+		}
+	}
+
+	// whether a path under the input dir is one of ours (it doesn't have to exist, --watch asks about deleted files too)
+	public boolean accepts(Path path) {
+		if (!path.startsWith(inputRoot) || path.startsWith(outputRoot)) return false; // output dir may live inside the input dir
+		Path relative = inputRoot.relativize(path);
+		return matchesAny(includes, relative) && !matchesAny(excludes, relative);
+	}
+
+	public Path getInputRoot() {
+		return inputRoot;
+	}
+
+	public Path getOutputRoot() {
+		return outputRoot;
+	}
+
+	private static List<PathMatcher> matchers(List<String> globs) {
+		List<PathMatcher> matchers = new ArrayList<>();
+		for (String glob : globs) {
+			matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		}
+		return matchers;
+	}
+
+	private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+		for (PathMatcher matcher : matchers) {
+			if (matcher.matches(path)) return true;
+		}
+		return false;
+	}
+
+	private static void printSummary(int files, long bytes, long elapsedNanos) {
+		double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+		System.out.printf("Done! %d files (%d bytes) in %.2fs: %.1f files/sec, %.1f KB/sec%n",
+				files, bytes, seconds, files / seconds, bytes / 1024.0 / seconds);
+	}
+}
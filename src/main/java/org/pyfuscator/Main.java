@@ -1,16 +1,22 @@
 package org.pyfuscator;
 
+import org.pyfuscator.ast.ASTFormat;
 import org.pyfuscator.ast.JsonASTLoader;
 import org.pyfuscator.ast.JsonASTWriter;
 import org.pyfuscator.ast.Node;
-import org.pyfuscator.scope.ScopeManager;
+import org.pyfuscator.scope.NameMap;
+import org.pyfuscator.scope.ProjectIndex;
 import org.pyfuscator.transform.ASTTransformer;
-import org.pyfuscator.transform.passes.VariableRenamePass;
-import org.pyfuscator.utils.NameGenerator;
 import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.ObfuscationContext;
+import org.pyfuscator.utils.PythonWorkerPool;
+import org.pyfuscator.utils.ResultCache;
 import org.pyfuscator.utils.RunPython;
+import org.pyfuscator.utils.RunStats;
+import org.pyfuscator.utils.StageStats;
 
 import java.io.File;
+import java.nio.file.Files;
 
 public class Main {
 	public static void main(String[] args) {
@@ -47,6 +53,34 @@ public class Main {
 					config.setOutputFile(args[++i]);
 					break;
 
+				case "--input-dir":
+					config.setInputDir(args[++i]);
+					break;
+
+				case "--output-dir":
+					config.setOutputDir(args[++i]);
+					break;
+
+				case "--include":
+					config.addInclude(args[++i]);
+					break;
+
+				case "--exclude":
+					config.addExclude(args[++i]);
+					break;
+
+				case "--jobs":
+					config.setJobs(Integer.parseInt(args[++i]));
+					break;
+
+				case "--pipeline":
+					config.setPipeline(true);
+					break;
+
+				case "--queue-depth":
+					config.setQueueDepth(Integer.parseInt(args[++i]));
+					break;
+
 				case "--var-length":
 					config.setVarLength(Integer.parseInt(args[++i]));
 					break;
@@ -79,6 +113,10 @@ public class Main {
 					config.setKeepTemp(true);
 					break;
 
+				case "--ast-format":
+					config.setAstFormat(ASTFormat.fromString(args[++i]));
+					break;
+
 				case "--verbose":
 					config.setVerbose(true);
 					break;
@@ -107,6 +145,50 @@ public class Main {
                     config.setRemoveDocs(true);
                     break;
 
+				case "--cache-dir":
+					config.setCacheDir(args[++i]);
+					break;
+
+				case "--cache-max-mb":
+					config.setCacheMaxMb(Long.parseLong(args[++i]));
+					break;
+
+				case "--name-map":
+					config.setNameMapFile(args[++i]);
+					break;
+
+				case "--watch":
+					config.setWatch(true);
+					break;
+
+				case "--stats":
+					config.setStats(true);
+					break;
+
+				case "--stats-json":
+					config.setStatsJsonFile(args[++i]);
+					break;
+
+				case "--parallel-rename":
+					config.setParallelRename(true);
+					break;
+
+				case "--short-names":
+					config.setShortNames(true);
+					break;
+
+				case "--project":
+					config.setProject(true);
+					break;
+
+				case "--workers":
+					config.setWorkerCount(Integer.parseInt(args[++i]));
+					break;
+
+				case "--no-workers":
+					config.setUseWorkers(false);
+					break;
+
 				case "--help":
 				case "-h":
 					printUsage();
@@ -122,50 +204,130 @@ public class Main {
 	}
 
 	private static void obfuscate(ObfuscationConfig config) throws Exception {
-		// initialize stuff
-		RunPython python = new RunPython("python");
-		ScopeManager scopeManager = new ScopeManager();
-		NameGenerator nameGenerator = new NameGenerator(config);
+		// the worker pool keeps python warm, --no-workers falls back to one interpreter per script run
+		if (!config.isUseWorkers()) {
+			obfuscate(config, null);
+			return;
+		}
+		try (PythonWorkerPool pool = new PythonWorkerPool("python", config.resolveWorkerCount())) {
+			obfuscate(config, pool);
+		}
+	}
 
-		File inputFile = new File(config.getInputFile());
-		String absoluteInputPath = inputFile.getAbsolutePath();
-		File outputFile = new File(config.getOutputFile());
-		String absoluteOutputPath = outputFile.getAbsolutePath();
+	private static void obfuscate(ObfuscationConfig config, PythonWorkerPool pool) throws Exception {
+		// one identifier table, cache and name map for the whole run, every file shares them
+		ObfuscationContext context = new ObfuscationContext(config, pool);
+		if (config.isWatch()) {
+			try {
+				obfuscate(context);
+			} catch (Exception e) {
+				System.err.println("obfuscation failed: " + e.getMessage()); // the next save may fix it, keep going
+			}
+			context.saveNameMap();
+			new Watcher(context).run(); // saves the name map after every rebuild
+			return;
+		}
+		try {
+			obfuscate(context);
+		} finally {
+			context.saveNameMap(); // also after failures, the files that did make it keep their names
+		}
+	}
 
-		String parserPath = RunPython.getAbsoluteParserPath();
-		String tempJsonPath = absoluteInputPath + "-temp.json";
+	private static void obfuscate(ObfuscationContext context) throws Exception {
+		ObfuscationConfig config = context.getConfig();
+		try {
+			if (config.isDirectoryMode()) {
+				new DirectoryObfuscator(context).run();
+				return;
+			}
 
-		// run the parser and check for errors
-		RunPython.Result parseResult = python.run(parserPath, absoluteInputPath, tempJsonPath);
-		if (parseResult.exitCode() != 0) {
-			throw new RuntimeException("parser failed: " + parseResult.stderr());
+			File inputFile = new File(config.getInputFile());
+			File outputFile = new File(config.getOutputFile());
+			obfuscateFile(context, inputFile.getName(), inputFile, outputFile);
+			System.out.println("Done! Output saved to: " + outputFile.getAbsolutePath());
+		} finally {
+			context.reportStats(); // the files that failed are left out, the rest still tells where the time went
+		}
+	}
+
+	// runs one file through parser -> passes -> compiler
+	// every call gets its own scope manager, name generator and passes so files can be processed concurrently
+	// only what's in the context is shared, and all of that is thread safe
+	// module names the file in the name map (its path relative to the input dir)
+	static void obfuscateFile(ObfuscationContext context, String module, File inputFile, File outputFile) throws Exception {
+		long start = System.nanoTime();
+		long cpuStart = RunStats.threadCpuNanos(); // everything below runs on this thread, python's side is the waiting
+		boolean failed = true;
+		try {
+			transformFile(context, module, inputFile, outputFile);
+			failed = false;
+		} finally {
+			context.getStats().record(module, System.nanoTime() - start, RunStats.threadCpuNanos() - cpuStart, failed);
 		}
+	}
 
-		JsonASTLoader loader = new JsonASTLoader();
-		Node rootNode = loader.loadFromFile(new File(tempJsonPath));
+	private static void transformFile(ObfuscationContext context, String module, File inputFile, File outputFile) throws Exception {
+		ObfuscationConfig config = context.getConfig();
+		PythonWorkerPool pool = context.getPool();
+		ResultCache cache = context.getCache();
+		String absoluteInputPath = inputFile.getAbsolutePath();
+		String absoluteOutputPath = outputFile.getAbsolutePath();
 
-		ASTTransformer transformer = new ASTTransformer();
-		transformer.addPass(new VariableRenamePass(scopeManager, nameGenerator, config));
-		Node transformedNode = transformer.transform(rootNode);
+		// an unchanged file under the same config gets last run's output without touching python
+		NameMap.ModuleNames names = context.moduleNames(module);
+		ProjectIndex.Module project = context.project(module);
+		String cacheKey = context.cacheKey(inputFile.toPath(), names, project);
+		if (cacheKey != null && context.mayUseCache(names) && cache.copyTo(cacheKey, outputFile.toPath())) {
+			return;
+		}
+		JsonASTLoader loader = new JsonASTLoader(context.getSymbols());
+		// readable json temp files when they are kept for debugging, the faster format otherwise
+		JsonASTWriter writer = config.isKeepTemp() ? new JsonASTWriter(true) : new JsonASTWriter(config.getAstFormat(), false);
 
+		// the json only goes through temp files with --keep-temp, otherwise it is piped to and from python
+		String tempJsonPath = absoluteInputPath + "-temp.json";
 		String transformedJsonPath = absoluteOutputPath + "-temp.json";
-		JsonASTWriter writer = new JsonASTWriter();
-		writer.writeToFile(transformedNode, transformedJsonPath);
-
-		String compilerPath = RunPython.getAbsoluteCompilerPath();
-		RunPython.Result compileResult = python.run(compilerPath, transformedJsonPath, absoluteOutputPath);
-		// same thing but for compiler
-		if (compileResult.exitCode() != 0) {
-			throw new RuntimeException("compiler failed: " + compileResult.stderr());
-		}
 
-		// clean up temp files
-		if (!config.isKeepTemp()) {
-			new File(tempJsonPath).delete();
-			new File(transformedJsonPath).delete();
+		// run the parser and check for errors
+		StageStats stats = context.getStageStats();
+		Node rootNode;
+		if (config.isKeepTemp()) {
+			stats.time(StageStats.PARSE, absoluteInputPath, null, () -> {
+				RunPython.parse(pool, absoluteInputPath, tempJsonPath);
+				return null;
+			});
+			rootNode = stats.time(StageStats.LOAD, absoluteInputPath, null, () -> loader.loadFromFile(new File(tempJsonPath)));
+		} else {
+			rootNode = stats.parse(absoluteInputPath, loader::load, reader -> RunPython.parse(pool, absoluteInputPath, config.getAstFormat(), reader));
+		}
+		stats.countTree(rootNode);
+
+		ASTTransformer transformer = ASTTransformer.forConfig(config, context.getSymbols(), names, loader.getIdentifiers(), project);
+		Node transformedNode = transformer.transform(rootNode, stats, absoluteInputPath);
+
+		// only now that the file made it this far, a file that fails shouldn't leave an empty directory in --output-dir
+		Files.createDirectories(outputFile.getAbsoluteFile().toPath().getParent());
+		if (config.isKeepTemp()) {
+			stats.time(StageStats.WRITE, absoluteInputPath, transformedNode, () -> {
+				writer.writeToFile(transformedNode, transformedJsonPath);
+				return null;
+			});
+			stats.time(StageStats.UNPARSE, absoluteInputPath, transformedNode, () -> {
+				RunPython.unparse(pool, transformedJsonPath, absoluteOutputPath);
+				return null;
+			});
+		} else {
+			stats.unparse(absoluteInputPath, transformedNode, out -> writer.write(transformedNode, out), streamWriter -> {
+				RunPython.unparse(pool, absoluteOutputPath, streamWriter);
+				return null;
+			});
 		}
 
-		System.out.println("Done! Output saved to: " + absoluteOutputPath);
+		context.commit(names);
+		if (cacheKey != null) {
+			cache.put(cacheKey, outputFile.toPath());
+		}
 	}
 
 	//usage information
@@ -175,6 +337,8 @@ public class Main {
 		System.out.println("required:");
 		System.out.println("  --input <file>          input Python file");
 		System.out.println("  --output <file>         output file");
+		System.out.println("  (or) --input-dir <dir>  obfuscate every matching file under dir");
+		System.out.println("       --output-dir <dir> where to mirror the obfuscated tree");
 		System.out.println();
 		System.out.println("options:");
 		System.out.println("  --var-length <n>        variable name length (default: 8)");
@@ -183,11 +347,30 @@ public class Main {
 		System.out.println("  --preserve-builtins     don't rename builtins (default)");
 		System.out.println("  --no-preserve-builtins  rename builtins");
 		System.out.println("  --preserve-imports      don't rename imports (default)");
-		System.out.println("  --keep-temp             keep temp files");
+		System.out.println("  --keep-temp             write the intermediate json ASTs to temp files and keep them");
+		System.out.println("  --ast-format <fmt>      binary (default) or json, how the AST is handed between python and java");
 		//System.out.println("  --verbose               verbose output");
 		System.out.println("  --rename-functions      rename functions");
 		System.out.println("  --rename-classes        rename classes");
         System.out.println("  --remove-docs           remove docstrings");
+		System.out.println("  --fold-constants        replace constant expressions (60 * 60, (1,) + (2,), 2 < 3) with their value");
+		System.out.println("  --remove-dead-code      drop unreachable statements, if False:/while 0: branches and unused private functions");
+		System.out.println("  --short-names           shortest names for the most used symbols (ignores --var-prefix/--var-length)");
+		System.out.println("  --workers <n>           python worker pool size (default: 1, or --jobs for directories)");
+		System.out.println("  --no-workers            start a new python process for every parse/unparse");
+		System.out.println("  --include <glob>        files to take from --input-dir (default: **.py), repeatable");
+		System.out.println("  --exclude <glob>        files to skip in --input-dir, repeatable");
+		System.out.println("  --jobs <n>              files processed at once in directory mode (default: cpu count)");
+		System.out.println("  --pipeline              overlap parse/transform/unparse of different files in directory mode");
+		System.out.println("  --queue-depth <n>       files buffered between pipeline stages (default: 4)");
+		System.out.println("  --cache-dir <dir>       reuse outputs of unchanged files (same input, options and --seed)");
+		System.out.println("  --cache-max-mb <n>      cache size before the least recently used entries go (default: 512)");
+		System.out.println("  --name-map <file>       keep the names of earlier runs in this file, new symbols get new names");
+		System.out.println("  --watch                 keep running and re-obfuscate files as they change");
+		System.out.println("  --stats                 print time and allocated bytes per stage, and node/scope/rename counts");
+		System.out.println("  --stats-json <file>     write the same numbers as json");
+		System.out.println("  --project               one rename table for all of --input-dir, imports between its files keep working");
+		System.out.println("  --parallel-rename       rename the top-level functions/classes of a file in parallel (other names than without)");
 		System.out.println("  --help, -h              show help");
 	}
 }
@@ -0,0 +1,163 @@
+package org.pyfuscator;
+
+import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.ObfuscationContext;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// --watch: after the first run, keep the jvm and the python workers up and redo only the files that change
+// editors save in bursts (temp file, rename, touch), so events are collected until it's quiet for DEBOUNCE_MILLIS
+// the latency printed is from the first event of a burst to the rebuilt output, debounce included
+public class Watcher {
+	private static final long DEBOUNCE_MILLIS = 200;
+
+	private final ObfuscationContext context;
+	private final DirectoryObfuscator directory; // null in single file mode
+	private final Path inputFile; // only single file mode
+	private final Path outputFile;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+	public Watcher(ObfuscationContext context) throws IOException {
+		ObfuscationConfig config = context.getConfig();
+		this.context = context;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		if (config.isDirectoryMode()) {
+			this.directory = new DirectoryObfuscator(context);
+			this.inputFile = null;
+			this.outputFile = null;
+			registerTree(directory.getInputRoot());
+		} else {
+			this.directory = null;
+			this.inputFile = Paths.get(config.getInputFile()).toAbsolutePath().normalize();
+			this.outputFile = Paths.get(config.getOutputFile()).toAbsolutePath().normalize();
+			register(inputFile.getParent());
+		}
+	}
+
+	// runs until the process is killed
+	public void run() throws Exception {
+		System.out.println("watching " + (directory != null ? directory.getInputRoot() : inputFile) + " for changes (ctrl-c to stop)");
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				long firstEvent = System.nanoTime();
+				Changes changes = new Changes();
+				collect(key, changes);
+				while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					collect(key, changes);
+				}
+				rebuild(changes, firstEvent);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed under us, nothing left to watch
+		} finally {
+			watchService.close();
+		}
+	}
+
+	private void collect(WatchKey key, Changes changes) throws IOException {
+		Path dir = watchedDirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				changes.overflow = true; // events got lost, only a full run is safe
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				changes.modified.remove(path);
+				changes.deleted.add(path);
+			} else if (Files.isDirectory(path)) {
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && directory != null) {
+					registerTree(path); // files copied in along with a new dir don't get events of their own
+					try (Stream<Path> walk = Files.walk(path)) {
+						walk.filter(Files::isRegularFile).forEach(changes.modified::add);
+					}
+				}
+			} else {
+				changes.deleted.remove(path);
+				changes.modified.add(path);
+			}
+		}
+		if (!key.reset()) {
+			watchedDirs.remove(key); // the dir itself is gone
+		}
+	}
+
+	private void rebuild(Changes changes, long firstEvent) throws Exception {
+		List<Path> files = new ArrayList<>();
+		int deleted = 0;
+		if (directory == null) {
+			if (!changes.modified.contains(inputFile) && !changes.overflow) return;
+			if (!Files.isRegularFile(inputFile)) return; // mid save, the next event brings it back
+			files.add(inputFile);
+		} else if (changes.overflow) {
+			files.addAll(directory.collectFiles());
+		} else {
+			for (Path path : changes.modified) {
+				if (directory.accepts(path) && Files.isRegularFile(path)) files.add(path);
+			}
+			for (Path path : changes.deleted) {
+				if (directory.accepts(path) && Files.deleteIfExists(directory.outputPathFor(path))) deleted++;
+			}
+		}
+		if (files.isEmpty() && deleted == 0) return;
+
+		context.newSymbolTable();
+		try {
+			if (directory != null) {
+				if (!files.isEmpty()) directory.run(files);
+			} else {
+				Main.obfuscateFile(context, inputFile.getFileName().toString(), inputFile.toFile(), outputFile.toFile());
+			}
+		} catch (Exception e) {
+			// broken files are reported per file above, keep watching so the next save can fix them
+			System.err.println("rebuild failed: " + e.getMessage());
+		}
+		context.saveNameMap();
+		context.reportStats();
+
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstEvent);
+		System.out.printf("%d changed, %d removed: %d ms after the first change%n", files.size(), deleted, millis);
+	}
+
+	private void registerTree(Path root) throws IOException {
+		try (Stream<Path> walk = Files.walk(root)) {
+			for (Path dir : (Iterable<Path>) walk.filter(Files::isDirectory)::iterator) {
+				if (!dir.startsWith(directory.getOutputRoot())) { // our own writes would trigger rebuilds forever
+					register(dir);
+				}
+			}
+		}
+	}
+
+	private void register(Path dir) throws IOException {
+		WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		watchedDirs.put(key, dir);
+	}
+
+	// one debounced burst of events
+	private static class Changes {
+		private final Set<Path> modified = new TreeSet<>();
+		private final Set<Path> deleted = new TreeSet<>();
+		private boolean overflow;
+	}
+}
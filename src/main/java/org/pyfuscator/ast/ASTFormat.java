@@ -0,0 +1,20 @@
+package org.pyfuscator.ast;
+
+// how the AST travels between python and the jvm
+// binary is the fast one, json is the fallback and what --keep-temp writes so it can be read
+public enum ASTFormat {
+	JSON,
+	BINARY;
+
+	public static ASTFormat fromString(String name) {
+		for (ASTFormat format : values()) {
+			if (format.name().equalsIgnoreCase(name)) return format;
+		}
+		throw new IllegalArgumentException("unknown AST format: " + name + " (expected json or binary)");
+	}
+
+	// what parser.py takes as its format argument
+	public String scriptName() {
+		return name().toLowerCase();
+	}
+}
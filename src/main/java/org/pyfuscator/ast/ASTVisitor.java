@@ -1,20 +1,424 @@
 package org.pyfuscator.ast;
 
+// base for code that reacts to certain node types: enter() and exit() look at the NodeType once (a switch on its ordinal)
+// and call the matching visitX/leaveX, which do nothing until overridden
+// the types passes care about (defs, scopes, bindings, statements, operators, constants) have callbacks of their own,
+// the rest (contexts, operator tokens, patterns, ...) go to visitOther/leaveOther
+// walk() runs it over a tree by itself, a FusablePass hands enter/exit to TraversalHooks to share the walk with other passes
 public class ASTVisitor {
-	// default visit method
-	public void visit(Node node) {
+	public void walk(Node root) {
+		root.walk(this::enter, this::exit);
 	}
 
-	// basic recursive method to visit children
-	public void visitChildren(Node node) {
-		for (Node child : node.getChildren()) {
-			visit(child);
+	// on the way down, before the children
+	public final void enter(Node node) {
+		switch (node.getNodeType()) {
+			case MODULE -> visitModule(node);
+			case FUNCTION_DEF -> visitFunctionDef(node);
+			case ASYNC_FUNCTION_DEF -> visitAsyncFunctionDef(node);
+			case CLASS_DEF -> visitClassDef(node);
+			case RETURN -> visitReturn(node);
+			case DELETE -> visitDelete(node);
+			case ASSIGN -> visitAssign(node);
+			case AUG_ASSIGN -> visitAugAssign(node);
+			case ANN_ASSIGN -> visitAnnAssign(node);
+			case FOR -> visitFor(node);
+			case ASYNC_FOR -> visitAsyncFor(node);
+			case WHILE -> visitWhile(node);
+			case IF -> visitIf(node);
+			case WITH -> visitWith(node);
+			case ASYNC_WITH -> visitAsyncWith(node);
+			case RAISE -> visitRaise(node);
+			case TRY -> visitTry(node);
+			case TRY_STAR -> visitTryStar(node);
+			case IMPORT -> visitImport(node);
+			case IMPORT_FROM -> visitImportFrom(node);
+			case GLOBAL -> visitGlobal(node);
+			case NONLOCAL -> visitNonlocal(node);
+			case EXPR -> visitExpr(node);
+			case BOOL_OP -> visitBoolOp(node);
+			case NAMED_EXPR -> visitNamedExpr(node);
+			case BIN_OP -> visitBinOp(node);
+			case UNARY_OP -> visitUnaryOp(node);
+			case LAMBDA -> visitLambda(node);
+			case IF_EXP -> visitIfExp(node);
+			case LIST_COMP -> visitListComp(node);
+			case SET_COMP -> visitSetComp(node);
+			case DICT_COMP -> visitDictComp(node);
+			case GENERATOR_EXP -> visitGeneratorExp(node);
+			case COMPARE -> visitCompare(node);
+			case CALL -> visitCall(node);
+			case JOINED_STR -> visitJoinedStr(node);
+			case CONSTANT -> visitConstant(node);
+			case ATTRIBUTE -> visitAttribute(node);
+			case SUBSCRIPT -> visitSubscript(node);
+			case NAME -> visitName(node);
+			case EXCEPT_HANDLER -> visitExceptHandler(node);
+			case MATCH_STAR -> visitMatchStar(node);
+			case MATCH_MAPPING -> visitMatchMapping(node);
+			case MATCH_AS -> visitMatchAs(node);
+			case COMPREHENSION -> visitComprehension(node);
+			case ARGUMENTS -> visitArguments(node);
+			case ARG -> visitArg(node);
+			case KEYWORD -> visitKeyword(node);
+			case ALIAS -> visitAlias(node);
+			default -> visitOther(node);
 		}
 	}
 
-	public void preVisit(Node node) {
+	// on the way up, after the children
+	public final void exit(Node node) {
+		switch (node.getNodeType()) {
+			case MODULE -> leaveModule(node);
+			case FUNCTION_DEF -> leaveFunctionDef(node);
+			case ASYNC_FUNCTION_DEF -> leaveAsyncFunctionDef(node);
+			case CLASS_DEF -> leaveClassDef(node);
+			case RETURN -> leaveReturn(node);
+			case DELETE -> leaveDelete(node);
+			case ASSIGN -> leaveAssign(node);
+			case AUG_ASSIGN -> leaveAugAssign(node);
+			case ANN_ASSIGN -> leaveAnnAssign(node);
+			case FOR -> leaveFor(node);
+			case ASYNC_FOR -> leaveAsyncFor(node);
+			case WHILE -> leaveWhile(node);
+			case IF -> leaveIf(node);
+			case WITH -> leaveWith(node);
+			case ASYNC_WITH -> leaveAsyncWith(node);
+			case RAISE -> leaveRaise(node);
+			case TRY -> leaveTry(node);
+			case TRY_STAR -> leaveTryStar(node);
+			case IMPORT -> leaveImport(node);
+			case IMPORT_FROM -> leaveImportFrom(node);
+			case GLOBAL -> leaveGlobal(node);
+			case NONLOCAL -> leaveNonlocal(node);
+			case EXPR -> leaveExpr(node);
+			case BOOL_OP -> leaveBoolOp(node);
+			case NAMED_EXPR -> leaveNamedExpr(node);
+			case BIN_OP -> leaveBinOp(node);
+			case UNARY_OP -> leaveUnaryOp(node);
+			case LAMBDA -> leaveLambda(node);
+			case IF_EXP -> leaveIfExp(node);
+			case LIST_COMP -> leaveListComp(node);
+			case SET_COMP -> leaveSetComp(node);
+			case DICT_COMP -> leaveDictComp(node);
+			case GENERATOR_EXP -> leaveGeneratorExp(node);
+			case COMPARE -> leaveCompare(node);
+			case CALL -> leaveCall(node);
+			case JOINED_STR -> leaveJoinedStr(node);
+			case CONSTANT -> leaveConstant(node);
+			case ATTRIBUTE -> leaveAttribute(node);
+			case SUBSCRIPT -> leaveSubscript(node);
+			case NAME -> leaveName(node);
+			case EXCEPT_HANDLER -> leaveExceptHandler(node);
+			case MATCH_STAR -> leaveMatchStar(node);
+			case MATCH_MAPPING -> leaveMatchMapping(node);
+			case MATCH_AS -> leaveMatchAs(node);
+			case COMPREHENSION -> leaveComprehension(node);
+			case ARGUMENTS -> leaveArguments(node);
+			case ARG -> leaveArg(node);
+			case KEYWORD -> leaveKeyword(node);
+			case ALIAS -> leaveAlias(node);
+			default -> leaveOther(node);
+		}
+	}
+
+	public void visitModule(Node node) {
+	}
+
+	public void leaveModule(Node node) {
+	}
+
+	public void visitFunctionDef(Node node) {
+	}
+
+	public void leaveFunctionDef(Node node) {
+	}
+
+	public void visitAsyncFunctionDef(Node node) {
+	}
+
+	public void leaveAsyncFunctionDef(Node node) {
+	}
+
+	public void visitClassDef(Node node) {
+	}
+
+	public void leaveClassDef(Node node) {
+	}
+
+	public void visitReturn(Node node) {
+	}
+
+	public void leaveReturn(Node node) {
+	}
+
+	public void visitDelete(Node node) {
+	}
+
+	public void leaveDelete(Node node) {
+	}
+
+	public void visitAssign(Node node) {
+	}
+
+	public void leaveAssign(Node node) {
+	}
+
+	public void visitAugAssign(Node node) {
+	}
+
+	public void leaveAugAssign(Node node) {
+	}
+
+	public void visitAnnAssign(Node node) {
+	}
+
+	public void leaveAnnAssign(Node node) {
+	}
+
+	public void visitFor(Node node) {
+	}
+
+	public void leaveFor(Node node) {
+	}
+
+	public void visitAsyncFor(Node node) {
+	}
+
+	public void leaveAsyncFor(Node node) {
+	}
+
+	public void visitWhile(Node node) {
+	}
+
+	public void leaveWhile(Node node) {
+	}
+
+	public void visitIf(Node node) {
+	}
+
+	public void leaveIf(Node node) {
+	}
+
+	public void visitWith(Node node) {
+	}
+
+	public void leaveWith(Node node) {
+	}
+
+	public void visitAsyncWith(Node node) {
+	}
+
+	public void leaveAsyncWith(Node node) {
+	}
+
+	public void visitRaise(Node node) {
+	}
+
+	public void leaveRaise(Node node) {
+	}
+
+	public void visitTry(Node node) {
+	}
+
+	public void leaveTry(Node node) {
+	}
+
+	public void visitTryStar(Node node) {
+	}
+
+	public void leaveTryStar(Node node) {
+	}
+
+	public void visitImport(Node node) {
+	}
+
+	public void leaveImport(Node node) {
+	}
+
+	public void visitImportFrom(Node node) {
+	}
+
+	public void leaveImportFrom(Node node) {
+	}
+
+	public void visitGlobal(Node node) {
+	}
+
+	public void leaveGlobal(Node node) {
+	}
+
+	public void visitNonlocal(Node node) {
+	}
+
+	public void leaveNonlocal(Node node) {
+	}
+
+	public void visitExpr(Node node) {
+	}
+
+	public void leaveExpr(Node node) {
+	}
+
+	public void visitBoolOp(Node node) {
+	}
+
+	public void leaveBoolOp(Node node) {
+	}
+
+	public void visitNamedExpr(Node node) {
+	}
+
+	public void leaveNamedExpr(Node node) {
+	}
+
+	public void visitBinOp(Node node) {
+	}
+
+	public void leaveBinOp(Node node) {
+	}
+
+	public void visitUnaryOp(Node node) {
+	}
+
+	public void leaveUnaryOp(Node node) {
+	}
+
+	public void visitLambda(Node node) {
+	}
+
+	public void leaveLambda(Node node) {
+	}
+
+	public void visitIfExp(Node node) {
+	}
+
+	public void leaveIfExp(Node node) {
+	}
+
+	public void visitListComp(Node node) {
+	}
+
+	public void leaveListComp(Node node) {
+	}
+
+	public void visitSetComp(Node node) {
+	}
+
+	public void leaveSetComp(Node node) {
+	}
+
+	public void visitDictComp(Node node) {
+	}
+
+	public void leaveDictComp(Node node) {
+	}
+
+	public void visitGeneratorExp(Node node) {
+	}
+
+	public void leaveGeneratorExp(Node node) {
+	}
+
+	public void visitCompare(Node node) {
+	}
+
+	public void leaveCompare(Node node) {
+	}
+
+	public void visitCall(Node node) {
+	}
+
+	public void leaveCall(Node node) {
+	}
+
+	public void visitJoinedStr(Node node) {
+	}
+
+	public void leaveJoinedStr(Node node) {
+	}
+
+	public void visitConstant(Node node) {
+	}
+
+	public void leaveConstant(Node node) {
+	}
+
+	public void visitAttribute(Node node) {
+	}
+
+	public void leaveAttribute(Node node) {
+	}
+
+	public void visitSubscript(Node node) {
+	}
+
+	public void leaveSubscript(Node node) {
+	}
+
+	public void visitName(Node node) {
+	}
+
+	public void leaveName(Node node) {
+	}
+
+	public void visitExceptHandler(Node node) {
+	}
+
+	public void leaveExceptHandler(Node node) {
+	}
+
+	public void visitMatchStar(Node node) {
+	}
+
+	public void leaveMatchStar(Node node) {
+	}
+
+	public void visitMatchMapping(Node node) {
+	}
+
+	public void leaveMatchMapping(Node node) {
+	}
+
+	public void visitMatchAs(Node node) {
+	}
+
+	public void leaveMatchAs(Node node) {
+	}
+
+	public void visitComprehension(Node node) {
+	}
+
+	public void leaveComprehension(Node node) {
+	}
+
+	public void visitArguments(Node node) {
+	}
+
+	public void leaveArguments(Node node) {
+	}
+
+	public void visitArg(Node node) {
+	}
+
+	public void leaveArg(Node node) {
+	}
+
+	public void visitKeyword(Node node) {
+	}
+
+	public void leaveKeyword(Node node) {
+	}
+
+	public void visitAlias(Node node) {
+	}
+
+	public void leaveAlias(Node node) {
+	}
+
+	public void visitOther(Node node) {
 	}
 
-	public void postVisit(Node node) {
+	public void leaveOther(Node node) {
 	}
 }
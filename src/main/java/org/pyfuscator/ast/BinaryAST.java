@@ -0,0 +1,245 @@
+package org.pyfuscator.ast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+// the binary AST format parser.py/compiler.py speak besides json (see BinaryASTEncoder in parser.py for the layout)
+// it carries exactly the json value model, BinaryASTParser and BinaryASTGenerator translate it to and from jackson tokens
+// as they go, so the loader/writer keep doing all the node bookkeeping the same way for both formats
+// this holds what both sides share: the tags, the buffered byte io and the string tables
+final class BinaryAST {
+	static final byte[] MAGIC = {'P', 'Y', 'F', 'B'};
+	static final int VERSION = 1;
+
+	static final int TAG_END = 0;
+	static final int TAG_NULL = 1;
+	static final int TAG_FALSE = 2;
+	static final int TAG_TRUE = 3;
+	static final int TAG_INT = 4;
+	static final int TAG_BIGINT = 5;
+	static final int TAG_FLOAT = 6;
+	static final int TAG_STRING = 7;
+	static final int TAG_LIST = 8;
+	static final int TAG_NODE = 9;
+	static final int TAG_OBJECT = 10;
+
+	private BinaryAST() {
+	}
+
+	// python strings can hold lone surrogates, both sides encode them as 3 byte sequences ("surrogatepass")
+	// java's own utf-8 coder would turn those into '?' so the rare string with one goes the slow way
+	static byte[] encodeUtf8(String text) {
+		boolean hasSurrogate = false;
+		for (int i = 0; i < text.length(); i++) {
+			if (Character.isSurrogate(text.charAt(i))) {
+				hasSurrogate = true;
+				break;
+			}
+		}
+		if (!hasSurrogate) return text.getBytes(StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() * 3);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			int codePoint = c;
+			if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				codePoint = Character.toCodePoint(c, text.charAt(++i));
+			}
+			if (codePoint < 0x80) {
+				bytes.write(codePoint);
+			} else if (codePoint < 0x800) {
+				bytes.write(0xC0 | (codePoint >> 6));
+				bytes.write(0x80 | (codePoint & 0x3F));
+			} else if (codePoint < 0x10000) {
+				bytes.write(0xE0 | (codePoint >> 12));
+				bytes.write(0x80 | ((codePoint >> 6) & 0x3F));
+				bytes.write(0x80 | (codePoint & 0x3F));
+			} else {
+				bytes.write(0xF0 | (codePoint >> 18));
+				bytes.write(0x80 | ((codePoint >> 12) & 0x3F));
+				bytes.write(0x80 | ((codePoint >> 6) & 0x3F));
+				bytes.write(0x80 | (codePoint & 0x3F));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	static String decodeUtf8(byte[] data, int offset, int length) {
+		boolean hasSurrogate = false;
+		for (int i = offset; i < offset + length - 1; i++) {
+			if (data[i] == (byte) 0xED && (data[i + 1] & 0xFF) >= 0xA0) { // ED A0..BF = U+D800..U+DFFF
+				hasSurrogate = true;
+				break;
+			}
+		}
+		if (!hasSurrogate) return new String(data, offset, length, StandardCharsets.UTF_8);
+
+		StringBuilder text = new StringBuilder(length);
+		int i = offset;
+		int end = offset + length;
+		while (i < end) {
+			int b = data[i] & 0xFF;
+			if (b < 0x80) {
+				text.append((char) b);
+				i += 1;
+			} else if (b < 0xE0) {
+				text.append((char) (((b & 0x1F) << 6) | (data[i + 1] & 0x3F)));
+				i += 2;
+			} else if (b < 0xF0) {
+				text.append((char) (((b & 0x0F) << 12) | ((data[i + 1] & 0x3F) << 6) | (data[i + 2] & 0x3F)));
+				i += 3;
+			} else {
+				text.appendCodePoint(((b & 0x07) << 18) | ((data[i + 1] & 0x3F) << 12)
+						| ((data[i + 2] & 0x3F) << 6) | (data[i + 3] & 0x3F));
+				i += 4;
+			}
+		}
+		return text.toString();
+	}
+
+	// small buffered reader, the stream handed in is usually a raw pipe
+	static final class Input {
+		private final InputStream in;
+		private final byte[] buffer = new byte[8192];
+		private int position;
+		private int limit;
+
+		Input(InputStream in) {
+			this.in = in;
+		}
+
+		int readByte() throws IOException {
+			if (position == limit) fill();
+			return buffer[position++] & 0xFF;
+		}
+
+		private void fill() throws IOException {
+			int n = in.read(buffer, 0, buffer.length);
+			if (n <= 0) throw new EOFException("unexpected end of binary AST");
+			position = 0;
+			limit = n;
+		}
+
+		int readVarint() throws IOException {
+			long value = readVarlong();
+			if (value > Integer.MAX_VALUE) throw new IOException("binary AST varint out of range");
+			return (int) value;
+		}
+
+		long readVarlong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if (b < 0x80) return value;
+			}
+			throw new IOException("malformed binary AST varint");
+		}
+
+		long readLong() throws IOException {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | readByte();
+			}
+			return value;
+		}
+
+		// ref 0 brings a new table entry, anything else points at an earlier one
+		String readRef(List<String> table, int ref) throws IOException {
+			if (ref > 0) {
+				if (ref > table.size()) throw new IOException("binary AST ref " + ref + " past the table");
+				return table.get(ref - 1);
+			}
+			int length = readVarint();
+			String text;
+			if (limit - position >= length) {
+				text = decodeUtf8(buffer, position, length);
+				position += length;
+			} else {
+				byte[] data = new byte[length];
+				int copied = limit - position;
+				System.arraycopy(buffer, position, data, 0, copied);
+				position = limit;
+				while (copied < length) {
+					int n = in.read(data, copied, length - copied);
+					if (n <= 0) throw new EOFException("unexpected end of binary AST");
+					copied += n;
+				}
+				text = decodeUtf8(data, 0, length);
+			}
+			table.add(text);
+			return text;
+		}
+	}
+
+	static final class Output {
+		private final OutputStream out;
+		private final byte[] buffer = new byte[8192];
+		private int count;
+
+		Output(OutputStream out) {
+			this.out = out;
+		}
+
+		void writeByte(int b) throws IOException {
+			if (count == buffer.length) flushBuffer();
+			buffer[count++] = (byte) b;
+		}
+
+		void writeBytes(byte[] data, int offset, int length) throws IOException {
+			if (length > buffer.length - count) {
+				flushBuffer();
+				if (length > buffer.length) {
+					out.write(data, offset, length);
+					return;
+				}
+			}
+			System.arraycopy(data, offset, buffer, count, length);
+			count += length;
+		}
+
+		void writeVarlong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((int) value);
+		}
+
+		void writeLong(long value) throws IOException {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				writeByte((int) (value >>> shift));
+			}
+		}
+
+		// firstIndex is the ref that means "new entry", 0 for types and strings, 1 for field names (0 ends the entries there)
+		void writeRef(Map<String, Integer> table, String text, int firstIndex) throws IOException {
+			Integer index = table.get(text);
+			if (index != null) {
+				writeVarlong(index + firstIndex + 1);
+				return;
+			}
+			table.put(text, table.size());
+			writeVarlong(firstIndex);
+			byte[] data = encodeUtf8(text);
+			writeVarlong(data.length);
+			writeBytes(data, 0, data.length);
+		}
+
+		private void flushBuffer() throws IOException {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+
+		void flush() throws IOException {
+			flushBuffer();
+			out.flush();
+		}
+	}
+}
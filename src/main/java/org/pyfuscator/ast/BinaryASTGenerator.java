@@ -0,0 +1,320 @@
+package org.pyfuscator.ast;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.base.GeneratorBase;
+import com.fasterxml.jackson.core.io.IOContext;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+// encodes json tokens (as JsonASTWriter produces them) in the binary AST format as they are written
+// {"type": ..., "fields": {...}} objects become nodes, any other object is kept as a plain object
+// which one an object is only shows after its first keys, so those few tokens are held back until it does
+// the stream is left open, close() only flushes what is still buffered
+final class BinaryASTGenerator extends GeneratorBase {
+	// what the innermost open container is
+	private enum Open {
+		LIST,
+		OBJECT,
+		NODE,    // the "fields" object of a node
+		NODE_END // the fields are closed, only the node's own '}' may follow
+	}
+
+	// how much of a node header the object just started has shown so far
+	private enum Header {
+		NONE,
+		START,      // '{'
+		TYPE_KEY,   // '{"type":'
+		TYPE,       // '{"type": "...",'
+		FIELDS_KEY  // '{"type": "...", "fields":'
+	}
+
+	private final BinaryAST.Output output;
+	private final Map<String, Integer> types = new HashMap<>();
+	private final Map<String, Integer> fieldNames = new HashMap<>();
+	private final Map<String, Integer> strings = new HashMap<>();
+	private final Deque<Open> stack = new ArrayDeque<>();
+
+	private Header header = Header.NONE;
+	private String nodeType;
+
+	BinaryASTGenerator(OutputStream out, ObjectCodec codec) throws IOException {
+		super(0, codec, (IOContext) null); // no IOContext, none of jackson's pooled buffers are used
+		this.output = new BinaryAST.Output(out);
+		output.writeBytes(BinaryAST.MAGIC, 0, BinaryAST.MAGIC.length);
+		output.writeByte(BinaryAST.VERSION);
+	}
+
+	@Override
+	public void writeStartObject() throws IOException {
+		_verifyValueWrite("start an object");
+		_writeContext = _writeContext.createChildObjectContext();
+		if (header == Header.FIELDS_KEY) {
+			header = Header.NONE;
+			output.writeByte(BinaryAST.TAG_NODE);
+			output.writeRef(types, nodeType, 0);
+			stack.push(Open.NODE);
+			return;
+		}
+		writeHeldBack();
+		header = Header.START;
+	}
+
+	@Override
+	public void writeEndObject() throws IOException {
+		if (!_writeContext.inObject()) {
+			_reportError("Current context not Object but " + _writeContext.typeDesc());
+		}
+		_writeContext = _writeContext.clearAndGetParent();
+		writeHeldBack();
+		switch (stack.pop()) {
+			case NODE -> {
+				output.writeByte(0); // field ref 0 = end of entries
+				stack.push(Open.NODE_END);
+			}
+			case NODE_END -> {} // the fields closed the node already
+			default -> output.writeByte(0);
+		}
+	}
+
+	@Override
+	public void writeFieldName(String name) throws IOException {
+		if (_writeContext.writeFieldName(name) == JsonWriteContext.STATUS_EXPECT_VALUE) {
+			_reportError("Can not write a field name, expecting a value");
+		}
+		if (header == Header.START && "type".equals(name)) {
+			header = Header.TYPE_KEY;
+			return;
+		}
+		if (header == Header.TYPE && "fields".equals(name)) {
+			header = Header.FIELDS_KEY;
+			return;
+		}
+		writeHeldBack();
+		if (stack.peek() == Open.NODE_END) {
+			throw new JsonGenerationException("unexpected key after the fields of a node", this);
+		}
+		output.writeRef(fieldNames, name, 1);
+	}
+
+	@Override
+	public void writeFieldName(SerializableString name) throws IOException {
+		writeFieldName(name.getValue());
+	}
+
+	@Override
+	public void writeStartArray() throws IOException {
+		_verifyValueWrite("start an array");
+		_writeContext = _writeContext.createChildArrayContext();
+		writeHeldBack();
+		output.writeByte(BinaryAST.TAG_LIST);
+		stack.push(Open.LIST);
+	}
+
+	@Override
+	public void writeEndArray() throws IOException {
+		if (!_writeContext.inArray()) {
+			_reportError("Current context not Array but " + _writeContext.typeDesc());
+		}
+		_writeContext = _writeContext.clearAndGetParent();
+		output.writeByte(BinaryAST.TAG_END);
+		stack.pop();
+	}
+
+	@Override
+	public void writeString(String text) throws IOException {
+		if (text == null) {
+			writeNull();
+			return;
+		}
+		_verifyValueWrite("write a string");
+		if (header == Header.TYPE_KEY) {
+			header = Header.TYPE;
+			nodeType = text;
+			return;
+		}
+		writeHeldBack();
+		output.writeByte(BinaryAST.TAG_STRING);
+		output.writeRef(strings, text, 0);
+	}
+
+	@Override
+	public void writeString(char[] text, int offset, int length) throws IOException {
+		writeString(new String(text, offset, length));
+	}
+
+	@Override
+	public void writeString(SerializableString text) throws IOException {
+		writeString(text.getValue());
+	}
+
+	@Override
+	public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException {
+		writeString(BinaryAST.decodeUtf8(text, offset, length));
+	}
+
+	@Override
+	public void writeUTF8String(byte[] text, int offset, int length) throws IOException {
+		writeString(BinaryAST.decodeUtf8(text, offset, length));
+	}
+
+	@Override
+	public void writeNumber(int value) throws IOException {
+		writeNumber((long) value);
+	}
+
+	@Override
+	public void writeNumber(long value) throws IOException {
+		_verifyValueWrite("write a number");
+		writeHeldBack();
+		output.writeByte(BinaryAST.TAG_INT);
+		output.writeVarlong((value << 1) ^ (value >> 63));
+	}
+
+	@Override
+	public void writeNumber(BigInteger value) throws IOException {
+		if (value == null) {
+			writeNull();
+			return;
+		}
+		if (value.bitLength() < 64) {
+			writeNumber(value.longValue());
+			return;
+		}
+		_verifyValueWrite("write a number");
+		writeHeldBack();
+		output.writeByte(BinaryAST.TAG_BIGINT);
+		output.writeRef(strings, value.toString(), 0);
+	}
+
+	@Override
+	public void writeNumber(double value) throws IOException {
+		_verifyValueWrite("write a number");
+		writeHeldBack();
+		output.writeByte(BinaryAST.TAG_FLOAT);
+		output.writeLong(Double.doubleToRawLongBits(value));
+	}
+
+	@Override
+	public void writeNumber(float value) throws IOException {
+		writeNumber((double) value);
+	}
+
+	@Override
+	public void writeNumber(BigDecimal value) throws IOException {
+		if (value == null) {
+			writeNull();
+			return;
+		}
+		writeNumber(value.doubleValue());
+	}
+
+	@Override
+	public void writeNumber(String encodedValue) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeBoolean(boolean state) throws IOException {
+		_verifyValueWrite("write a boolean value");
+		writeHeldBack();
+		output.writeByte(state ? BinaryAST.TAG_TRUE : BinaryAST.TAG_FALSE);
+	}
+
+	@Override
+	public void writeNull() throws IOException {
+		_verifyValueWrite("write a null");
+		writeHeldBack();
+		output.writeByte(BinaryAST.TAG_NULL);
+	}
+
+	// the object started last turned out not to be a node, so what was held back of it goes out as a plain object
+	private void writeHeldBack() throws IOException {
+		if (header == Header.NONE) return;
+		output.writeByte(BinaryAST.TAG_OBJECT);
+		stack.push(Open.OBJECT);
+		if (header.compareTo(Header.TYPE_KEY) >= 0) {
+			output.writeRef(fieldNames, "type", 1);
+		}
+		if (header.compareTo(Header.TYPE) >= 0) {
+			output.writeByte(BinaryAST.TAG_STRING);
+			output.writeRef(strings, nodeType, 0);
+		}
+		if (header == Header.FIELDS_KEY) {
+			output.writeRef(fieldNames, "fields", 1);
+		}
+		header = Header.NONE;
+	}
+
+	@Override
+	protected void _verifyValueWrite(String typeMsg) throws IOException {
+		if (_writeContext.writeValue() == JsonWriteContext.STATUS_EXPECT_NAME) {
+			_reportError("Can not " + typeMsg + ", expecting field name");
+		}
+	}
+
+	// raw json has no place in a binary AST
+	@Override
+	public void writeRaw(String text) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeRaw(String text, int offset, int len) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeRaw(char[] text, int offset, int len) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeRaw(char c) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public void writeBinary(Base64Variant variant, byte[] data, int offset, int len) throws IOException {
+		_reportUnsupportedOperation();
+	}
+
+	@Override
+	public int writeBinary(Base64Variant variant, InputStream data, int dataLength) throws IOException {
+		_reportUnsupportedOperation();
+		return 0;
+	}
+
+	@Override
+	public Version version() {
+		return Version.unknownVersion();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (isClosed()) return;
+		super.close();
+		output.flush();
+	}
+
+	@Override
+	protected void _releaseBuffers() {
+	}
+}
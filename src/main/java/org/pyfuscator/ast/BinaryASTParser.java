@@ -0,0 +1,369 @@
+package org.pyfuscator.ast;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.base.ParserMinimalBase;
+import com.fasterxml.jackson.core.json.JsonReadContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// reads a binary AST as the json tokens it stands for, one value at a time straight off the stream
+// so loading one holds no more than the json parser does: the open containers and the string tables
+// a node comes out as {"type": ..., "fields": {...}}, the tokens of its header are handed out one per nextToken
+// the stream is left open, nothing past the end of the AST is asked for
+final class BinaryASTParser extends ParserMinimalBase {
+	// what the innermost open container is
+	private enum Open {
+		LIST,
+		OBJECT,
+		NODE // the "fields" object of a node, closing it closes the node too
+	}
+
+	// the tokens between a node's '{' and its fields, and the '}' after them
+	private enum Pending {
+		NONE,
+		TYPE_KEY,
+		TYPE,
+		FIELDS_KEY,
+		FIELDS,
+		NODE_END
+	}
+
+	private final BinaryAST.Input input;
+	private final List<String> types = new ArrayList<>();
+	private final List<String> fieldNames = new ArrayList<>();
+	private final List<String> strings = new ArrayList<>();
+	private final Deque<Open> stack = new ArrayDeque<>();
+
+	private ObjectCodec codec;
+	private JsonReadContext context = JsonReadContext.createRootContext(null);
+	private boolean started;
+	private boolean afterFieldName; // not _currToken, ObjectMapper clears that after reading a value
+	private boolean closed;
+	private Pending pending = Pending.NONE;
+	private String nodeType;
+	private String text;   // of the current string or field name
+	private Number number; // of the current number, the types the json parser would hand out
+
+	BinaryASTParser(InputStream in, ObjectCodec codec) throws IOException {
+		this.input = new BinaryAST.Input(in);
+		this.codec = codec;
+		for (byte b : BinaryAST.MAGIC) {
+			if (input.readByte() != b) throw new IOException("not a binary AST");
+		}
+		int version = input.readByte();
+		if (version != BinaryAST.VERSION) {
+			throw new IOException("unsupported binary AST version " + version);
+		}
+	}
+
+	@Override
+	public JsonToken nextToken() throws IOException {
+		if (closed) return null;
+		text = null;
+		number = null;
+		if (pending != Pending.NONE) {
+			return _currToken = nextOfNode();
+		}
+		if (!started) {
+			started = true;
+			return _currToken = readValue(input.readByte());
+		}
+		if (stack.isEmpty()) {
+			return _currToken = null; // the root is done
+		}
+		if (stack.peek() == Open.LIST) {
+			int tag = input.readByte();
+			if (tag == BinaryAST.TAG_END) {
+				stack.pop();
+				context = context.clearAndGetParent();
+				return _currToken = JsonToken.END_ARRAY;
+			}
+			return _currToken = readValue(tag);
+		}
+		if (afterFieldName) {
+			afterFieldName = false;
+			return _currToken = readValue(input.readByte());
+		}
+
+		int fieldRef = input.readVarint();
+		if (fieldRef == 0) {
+			context = context.clearAndGetParent();
+			if (stack.pop() == Open.NODE) {
+				pending = Pending.NODE_END; // that was "fields", the node's own '}' comes next
+			}
+			return _currToken = JsonToken.END_OBJECT;
+		}
+		text = input.readRef(fieldNames, fieldRef - 1);
+		context.setCurrentName(text);
+		afterFieldName = true;
+		return _currToken = JsonToken.FIELD_NAME;
+	}
+
+	// the header tokens of a node (and its closing '}'), in the order the json has them
+	private JsonToken nextOfNode() throws IOException {
+		switch (pending) {
+			case TYPE_KEY -> {
+				pending = Pending.TYPE;
+				text = "type";
+				context.setCurrentName(text);
+				return JsonToken.FIELD_NAME;
+			}
+			case TYPE -> {
+				pending = Pending.FIELDS_KEY;
+				text = nodeType;
+				return JsonToken.VALUE_STRING;
+			}
+			case FIELDS_KEY -> {
+				pending = Pending.FIELDS;
+				text = "fields";
+				context.setCurrentName(text);
+				return JsonToken.FIELD_NAME;
+			}
+			case FIELDS -> {
+				pending = Pending.NONE;
+				context = context.createChildObjectContext(-1, -1);
+				stack.push(Open.NODE);
+				return JsonToken.START_OBJECT;
+			}
+			default -> {
+				pending = Pending.NONE;
+				context = context.clearAndGetParent();
+				return JsonToken.END_OBJECT;
+			}
+		}
+	}
+
+	// a scalar, or the start of a container (which the stack then keeps track of)
+	private JsonToken readValue(int tag) throws IOException {
+		switch (tag) {
+			case BinaryAST.TAG_NODE -> {
+				nodeType = input.readRef(types, input.readVarint());
+				context = context.createChildObjectContext(-1, -1);
+				pending = Pending.TYPE_KEY;
+				return JsonToken.START_OBJECT;
+			}
+			case BinaryAST.TAG_STRING -> {
+				text = input.readRef(strings, input.readVarint());
+				return JsonToken.VALUE_STRING;
+			}
+			case BinaryAST.TAG_LIST -> {
+				context = context.createChildArrayContext(-1, -1);
+				stack.push(Open.LIST);
+				return JsonToken.START_ARRAY;
+			}
+			case BinaryAST.TAG_NULL -> {
+				return JsonToken.VALUE_NULL;
+			}
+			case BinaryAST.TAG_INT -> {
+				long zigzag = input.readVarlong();
+				long value = (zigzag >>> 1) ^ -(zigzag & 1);
+				number = value == (int) value ? (Number) (int) value : (Number) value;
+				return JsonToken.VALUE_NUMBER_INT;
+			}
+			case BinaryAST.TAG_TRUE -> {
+				return JsonToken.VALUE_TRUE;
+			}
+			case BinaryAST.TAG_FALSE -> {
+				return JsonToken.VALUE_FALSE;
+			}
+			case BinaryAST.TAG_FLOAT -> {
+				number = Double.longBitsToDouble(input.readLong());
+				return JsonToken.VALUE_NUMBER_FLOAT;
+			}
+			case BinaryAST.TAG_BIGINT -> {
+				number = new BigInteger(input.readRef(strings, input.readVarint()));
+				return JsonToken.VALUE_NUMBER_INT;
+			}
+			case BinaryAST.TAG_OBJECT -> {
+				context = context.createChildObjectContext(-1, -1);
+				stack.push(Open.OBJECT);
+				return JsonToken.START_OBJECT;
+			}
+			default -> throw new IOException("bad binary AST tag " + tag);
+		}
+	}
+
+	@Override
+	public String currentName() {
+		// the name of a container is the key it sits under in its parent
+		if ((_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY) && context.getParent() != null) {
+			return context.getParent().getCurrentName();
+		}
+		return context.getCurrentName();
+	}
+
+	@Deprecated
+	@Override
+	public String getCurrentName() {
+		return currentName();
+	}
+
+	@Override
+	public void overrideCurrentName(String name) {
+		try {
+			context.setCurrentName(name);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public JsonStreamContext getParsingContext() {
+		return context;
+	}
+
+	@Override
+	public String getText() {
+		if (_currToken == null) return null;
+		return switch (_currToken) {
+			case VALUE_STRING, FIELD_NAME -> text;
+			case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> number.toString();
+			default -> _currToken.asString();
+		};
+	}
+
+	@Override
+	public char[] getTextCharacters() {
+		String value = getText();
+		return value != null ? value.toCharArray() : null;
+	}
+
+	@Override
+	public boolean hasTextCharacters() {
+		return false;
+	}
+
+	@Override
+	public int getTextLength() {
+		String value = getText();
+		return value != null ? value.length() : 0;
+	}
+
+	@Override
+	public int getTextOffset() {
+		return 0;
+	}
+
+	@Override
+	public byte[] getBinaryValue(Base64Variant variant) throws IOException {
+		throw new JsonParseException(this, "binary ASTs have no binary values");
+	}
+
+	@Override
+	public Number getNumberValue() throws IOException {
+		if (number == null) throw new JsonParseException(this, "current token (" + _currToken + ") is not a number");
+		return number;
+	}
+
+	@Override
+	public NumberType getNumberType() throws IOException {
+		Number value = getNumberValue();
+		if (value instanceof Integer) return NumberType.INT;
+		if (value instanceof Long) return NumberType.LONG;
+		if (value instanceof BigInteger) return NumberType.BIG_INTEGER;
+		return NumberType.DOUBLE;
+	}
+
+	@Override
+	public int getIntValue() throws IOException {
+		return getNumberValue().intValue();
+	}
+
+	@Override
+	public long getLongValue() throws IOException {
+		return getNumberValue().longValue();
+	}
+
+	@Override
+	public BigInteger getBigIntegerValue() throws IOException {
+		Number value = getNumberValue();
+		if (value instanceof BigInteger bigInteger) return bigInteger;
+		if (value instanceof Double) return BigDecimal.valueOf(value.doubleValue()).toBigInteger();
+		return BigInteger.valueOf(value.longValue());
+	}
+
+	@Override
+	public float getFloatValue() throws IOException {
+		return getNumberValue().floatValue();
+	}
+
+	@Override
+	public double getDoubleValue() throws IOException {
+		return getNumberValue().doubleValue();
+	}
+
+	@Override
+	public BigDecimal getDecimalValue() throws IOException {
+		Number value = getNumberValue();
+		if (value instanceof BigInteger bigInteger) return new BigDecimal(bigInteger);
+		if (value instanceof Double) return BigDecimal.valueOf(value.doubleValue());
+		return BigDecimal.valueOf(value.longValue());
+	}
+
+	@Override
+	public ObjectCodec getCodec() {
+		return codec;
+	}
+
+	@Override
+	public void setCodec(ObjectCodec codec) {
+		this.codec = codec;
+	}
+
+	// a binary AST has no lines and columns to point at
+	@Override
+	public JsonLocation currentLocation() {
+		return JsonLocation.NA;
+	}
+
+	@Override
+	public JsonLocation currentTokenLocation() {
+		return JsonLocation.NA;
+	}
+
+	@Deprecated
+	@Override
+	public JsonLocation getCurrentLocation() {
+		return currentLocation();
+	}
+
+	@Deprecated
+	@Override
+	public JsonLocation getTokenLocation() {
+		return currentTokenLocation();
+	}
+
+	@Override
+	public Version version() {
+		return Version.unknownVersion();
+	}
+
+	// the stream belongs to the caller
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	protected void _handleEOF() throws JsonParseException {
+		_reportInvalidEOF();
+	}
+}
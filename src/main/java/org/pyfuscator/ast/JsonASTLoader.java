@@ -1,15 +1,61 @@
 package org.pyfuscator.ast;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.pyfuscator.scope.Symbol;
+import org.pyfuscator.scope.SymbolTable;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+// builds Node trees straight from the jackson token stream
+// there is no JsonNode tree in between and no recursion, open nodes live on an explicit stack,
+// so a long BinOp chain only costs heap instead of java stack
+// binary ASTs are read as the same tokens (see BinaryASTParser), streams and files can be either format
 public class JsonASTLoader {
-	private final ObjectMapper mapper = new ObjectMapper();
+	// generated code can nest way deeper than jackson's default limit of 1000
+	private static final StreamReadConstraints READ_CONSTRAINTS =
+			StreamReadConstraints.builder().maxNestingDepth(Integer.MAX_VALUE).build();
+
+	private final JsonFactory factory = JsonFactory.builder()
+			.streamReadConstraints(READ_CONSTRAINTS)
+			.build();
+	// only used for the odd value that has to be kept as json text (objects inside primitive lists and such)
+	private final ObjectMapper mapper = new ObjectMapper(factory);
+	// identifier fields (NodeType.isIdentifierField) are stored as Symbols from here
+	private final SymbolTable symbols;
+	// every identifier of the tree loaded last, new names must not be any of them (see NameGenerator.exclude)
+	private Set<String> identifiers = new HashSet<>();
+
+	public JsonASTLoader() {
+		this(new SymbolTable());
+	}
+
+	public JsonASTLoader(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	public Set<String> getIdentifiers() {
+		return identifiers;
+	}
 
 	// exception if json is invalid
 	public Node loadFromString(String jsonString) throws IOException {
@@ -17,8 +63,9 @@ public class JsonASTLoader {
 		if (jsonString == null || jsonString.trim().isEmpty()) {
 			return null;
 		}
-		JsonNode rootElement = mapper.readTree(jsonString);
-		return convertNode(rootElement);
+		try (JsonParser parser = factory.createParser(jsonString)) {
+			return load(parser);
+		}
 	}
 
 	// exception if file not found or json is invalid
@@ -26,125 +73,288 @@ public class JsonASTLoader {
 		if (file == null || !file.exists()) {
 			throw new IOException("Input file does not exist or is null");
 		}
-		JsonNode rootElement = mapper.readTree(file);
-		return convertNode(rootElement);
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return load(in);
+		}
 	}
 
-	// convert the node from json to the node class
-	private Node convertNode(JsonNode astNode) {
-		// early exit for null nodes
-		if (astNode == null || astNode.isNull()) return null;
-
-		String nodeType = astNode.get("type").asText();
-		Node resultNode = new Node(nodeType);
-
-		// process all fields in the AST node
-		JsonNode fieldsContainer = astNode.get("fields");
-		if (fieldsContainer != null && fieldsContainer.isObject()) {
-			fieldsContainer.fields().forEachRemaining(fieldEntry -> {
-				String fieldName = fieldEntry.getKey();
-				JsonNode fieldValue = fieldEntry.getValue();
-
-				if (fieldValue.isArray()) {
-					// handle array fields like function body and arguments
-					if (fieldValue.isEmpty()) {
-						resultNode.addField("_empty_array_" + fieldName, true);
-					} else {
+	// reads one AST from the stream, the stream itself is left open
+	// binary ASTs start with the magic, json never starts with a 'P'
+	public Node load(InputStream in) throws IOException {
+		PushbackInputStream source = new PushbackInputStream(in, 1);
+		int first = source.read();
+		if (first >= 0) source.unread(first);
 
-                        JsonNode firstElement = fieldValue.get(0);
-                        boolean isPrimitiveArray = !firstElement.isObject() || !firstElement.has("type"); // isobject or has type indicated a primiteive array
-
-                        if (isPrimitiveArray) {
-                            // array of primitive values for example, names in global/nonlocal
-                            List<Object> primitiveList = new ArrayList<>();
-
-                            fieldValue.elements().forEachRemaining(element -> {
-                                if (element.isTextual()) { // if is plain text
-                                    primitiveList.add(element.asText()); // add to primitive list
-                                } else if (element.isNumber()) {
-                                    primitiveList.add(element.numberValue());
-                                } else if (element.isBoolean()) {
-                                    primitiveList.add(element.asBoolean());
-                                } else if (element.isNull()) {
-                                    primitiveList.add(null);
-                                } else {
-                                    primitiveList.add(element.toString()); // otherwise just add as a string
-                                }
-                            });
-                            resultNode.addField(fieldName, primitiveList);
-                        } else {
-
-                            fieldValue.elements().forEachRemaining(rawChild -> {
-                                Node childNode = convertNode(rawChild);
-                                if (childNode != null) {
-                                    resultNode.addChild(childNode);
-                                    childNode.addField("_parent_field", fieldName);
-                                }
-                            });
-                        }
-                    }
-				} else if (fieldValue.isObject() && fieldValue.has("type")) {
-					// ctx (context) nodes get flattened to avoid extra nesting
-					if ("ctx".equals(fieldName)) {
-						fieldValue.fields().forEachRemaining(ctxEntry -> {
-							String flatKey = fieldName + "." + ctxEntry.getKey();
-							JsonNode ctxValue = ctxEntry.getValue();
-							if (ctxValue.isTextual()) {
-								resultNode.addField(flatKey, ctxValue.asText());
-							} else if (ctxValue.isNumber()) {
-								resultNode.addField(flatKey, ctxValue.toString());
-							} else if (ctxValue.isNull()) {
-								resultNode.addField(flatKey, null);
-							} else if (ctxValue.isObject() && ctxValue.isEmpty()) {
-								// skip empty ctx objects
-							} else {
-								resultNode.addField(flatKey, ctxValue.toString());
-							}
-						});
+		if (first == BinaryAST.MAGIC[0]) {
+			try (JsonParser parser = new BinaryASTParser(source, mapper)) {
+				return load(parser);
+			}
+		}
+		try (JsonParser parser = factory.createParser(source)) {
+			parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+			return load(parser);
+		}
+	}
+
+	// what the loader is doing inside the json object of an open node
+	private enum Phase {
+		NODE,   // between the "type" and "fields" keys
+		FIELDS, // inside "fields"
+		LIST    // inside an array of child nodes
+	}
+
+	// an AST node whose json object hasn't been closed yet
+	private static final class Frame {
+		final Node node;
+		final String parentField;     // field of the parent this node belongs to, null for the root
+		Phase phase = Phase.NODE;
+		String listField;             // set while phase == LIST
+
+		Frame(Node node, String parentField) {
+			this.node = node;
+			this.parentField = parentField;
+		}
+	}
+
+	// convert the json node objects to the node class
+	// each loop iteration handles one token of the innermost open node
+	private Node load(JsonParser parser) throws IOException {
+		JsonToken token = parser.nextToken();
+		// early exit for null documents
+		if (token == null || token == JsonToken.VALUE_NULL) return null;
+		expect(parser, token, JsonToken.START_OBJECT);
+		identifiers = new HashSet<>();
+
+		Deque<Frame> stack = new ArrayDeque<>();
+		stack.push(new Frame(new Node((String) null), null));
+		Node root = stack.peek().node;
+
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			token = parser.nextToken();
+			if (token == null) {
+				throw new IOException("unexpected end of AST json");
+			}
+
+			switch (frame.phase) {
+				case NODE -> {
+					if (token == JsonToken.END_OBJECT) {
+						stack.pop();
+						attach(frame, stack.peek());
+						continue;
+					}
+					String key = parser.currentName();
+					token = parser.nextToken();
+					if ("type".equals(key)) {
+						frame.node.setType(parser.getText());
+					} else if ("fields".equals(key) && token == JsonToken.START_OBJECT) {
+						frame.phase = Phase.FIELDS;
 					} else {
-						// regular child nodes
-						Node childNode = convertNode(fieldValue);
-						if (childNode != null) {
-							resultNode.addChild(childNode);
-							childNode.addField("_parent_field", fieldName);
-							resultNode.addField(fieldName + "_node_type", childNode.getType());
-						}
+						parser.skipChildren();
+					}
+				}
+				case FIELDS -> {
+					if (token == JsonToken.END_OBJECT) {
+						frame.phase = Phase.NODE;
+						continue;
 					}
-				} else if (fieldValue.isObject()) {
-					// flatten non AST objects into dotted field names
-					fieldValue.fields().forEachRemaining(objEntry -> {
-						String flatKey = fieldName + "." + objEntry.getKey();
-						JsonNode objValue = objEntry.getValue();
-						if (objValue.isTextual()) {
-							resultNode.addField(flatKey, objValue.asText());
-						} else if (objValue.isNumber()) {
-							resultNode.addField(flatKey, objValue.toString());
-						} else if (objValue.isNull()) {
-							resultNode.addField(flatKey, null);
-						} else {
-							resultNode.addField(flatKey, objValue.toString());
-						}
-					});
-				} else {
-					// primitive field values
-					if (fieldValue.isTextual()) {
-						resultNode.addField(fieldName, fieldValue.asText());
-					} else if (fieldValue.isNumber()) {
-						resultNode.addField(fieldName, fieldValue.toString());
-					} else if (fieldValue.isBoolean()) {
-						resultNode.addField(fieldName, String.valueOf(fieldValue.asBoolean()));
-					} else if (fieldValue.isNull()) {
-						resultNode.addField(fieldName, null);
+					String fieldName = parser.currentName();
+					Frame child = readField(parser, frame, fieldName, parser.nextToken());
+					if (child != null) stack.push(child);
+				}
+				case LIST -> {
+					if (token == JsonToken.END_ARRAY) {
+						frame.phase = Phase.FIELDS;
+					} else if (token == JsonToken.START_OBJECT && isTypeKey(parser.nextToken(), parser)) {
+						stack.push(startChild(parser, frame.listField));
+					} else if (token == JsonToken.START_OBJECT) {
+						readRestOfObject(parser); // not a node, dropped like the nulls below
 					} else {
-						// for unknown types
-						resultNode.addField(fieldName, fieldValue.toString());
+						parser.skipChildren(); // nulls (and anything else that isn't a node) get dropped
 					}
 				}
-			});
+			}
 		}
+		return root;
+	}
+
+	// handles one entry of a node's "fields" object, returns the child frame if the value is an AST node
+	private Frame readField(JsonParser parser, Frame frame, String fieldName, JsonToken token) throws IOException {
+		Node resultNode = frame.node;
+
+		if (token == JsonToken.START_ARRAY) {
+			// handle array fields like function body and arguments
+			token = parser.nextToken();
+			if (token == JsonToken.END_ARRAY) {
+				resultNode.addField("_empty_array_" + fieldName, true);
+				return null;
+			}
 
-		return resultNode;
-	} // end convertNode
+			List<Object> primitiveList = new ArrayList<>();
+			if (token == JsonToken.START_OBJECT) {
+				if (isTypeKey(parser.nextToken(), parser)) {
+					// the first element is a node, so this is a list of nodes like a function body
+					frame.phase = Phase.LIST;
+					frame.listField = fieldName;
+					return startChild(parser, fieldName);
+				}
+				// an object that isn't a node, keep its text like any other odd primitive
+				primitiveList.add(readRestOfObject(parser).toString());
+			} else {
+				primitiveList.add(primitiveListElement(parser, token));
+			}
+
+			// array of primitive values for example, names in global/nonlocal
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				primitiveList.add(primitiveListElement(parser, token));
+			}
+			if (resultNode.getNodeType().isIdentifierField(fieldName)) {
+				primitiveList.replaceAll(name -> name instanceof String text ? identifier(text) : name); // global/nonlocal names
+			}
+			resultNode.addField(fieldName, primitiveList);
+			return null;
+		}
+
+		if (token == JsonToken.START_OBJECT) {
+			boolean isNode = isTypeKey(parser.nextToken(), parser);
+
+			if (isNode && "ctx".equals(fieldName)) {
+				// ctx (context) nodes get flattened to avoid extra nesting
+				flattenObject(parser, resultNode, fieldName, true);
+				return null;
+			}
+			if (isNode) {
+				// regular child nodes
+				return startChild(parser, fieldName);
+			}
+			// flatten non AST objects into dotted field names
+			flattenObject(parser, resultNode, fieldName, false);
+			return null;
+		}
+
+		// primitive field values
+		if (token == JsonToken.VALUE_STRING && resultNode.getNodeType().isIdentifierField(fieldName)) {
+			resultNode.addField(fieldName, identifier(parser.getText()));
+			return null;
+		}
+		resultNode.addField(fieldName, scalarValue(parser, token));
+		return null;
+	}
+
+	// AST nodes are the objects whose first key is "type" (parser.py always writes it first)
+	private static boolean isTypeKey(JsonToken token, JsonParser parser) throws IOException {
+		return token == JsonToken.FIELD_NAME && "type".equals(parser.currentName());
+	}
+
+	// opens a child node, the parser is sitting on its "type" key
+	private Frame startChild(JsonParser parser, String parentField) throws IOException {
+		parser.nextToken();
+		Node child = new Node(parser.getText());
+		return new Frame(child, parentField);
+	}
+
+	// hooks a finished node up to its parent, the child remembers which field of the parent it came from
+	private void attach(Frame child, Frame parent) {
+		if (parent == null) return; // the root
+		parent.node.addChild(child.node);
+		child.node.setParentField(child.parentField);
+	}
+
+	// turns the rest of an object into "field.key" entries, the parser is sitting on the first key (or the end)
+	// ctx objects skip their empty "fields" object, everything else that isn't a string, number or null is kept as json text
+	private void flattenObject(JsonParser parser, Node resultNode, String fieldName, boolean isCtx) throws IOException {
+		JsonToken token = parser.currentToken();
+		while (token != JsonToken.END_OBJECT) {
+			String flatKey = fieldName + "." + parser.currentName();
+			token = parser.nextToken();
+			if (token == JsonToken.VALUE_STRING) {
+				resultNode.addField(flatKey, parser.getText());
+			} else if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+				resultNode.addField(flatKey, numberValue(parser));
+			} else if (token == JsonToken.VALUE_NULL) {
+				resultNode.addField(flatKey, null);
+			} else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+				String json = mapper.readTree(parser).toString();
+				if (!(isCtx && "{}".equals(json))) { // skip empty ctx objects
+					resultNode.addField(flatKey, json);
+				}
+			} else {
+				resultNode.addField(flatKey, parser.getBooleanValue());
+			}
+			token = parser.nextToken();
+		}
+	}
+
+	// reads the remaining keys of an object whose first key was already consumed
+	private ObjectNode readRestOfObject(JsonParser parser) throws IOException {
+		ObjectNode object = mapper.createObjectNode();
+		JsonToken token = parser.currentToken();
+		while (token != JsonToken.END_OBJECT) {
+			String key = parser.currentName();
+			parser.nextToken();
+			object.set(key, mapper.readTree(parser));
+			token = parser.nextToken();
+		}
+		return object;
+	}
+
+	private Object primitiveListElement(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+			case VALUE_STRING:
+				return parser.getText(); // if is plain text
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return numberValue(parser);
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				return parser.getBooleanValue();
+			case VALUE_NULL:
+				return null;
+			default:
+				return mapper.readTree(parser).toString(); // otherwise just add as a string
+		}
+	}
+
+	// scalar fields keep their python type: String, Long (BigInteger past 64 bits), Double, Boolean or null
+	// the writer writes them back as they are, so 1.0 stays a float and "1" stays a string
+	private Object scalarValue(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return numberValue(parser);
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				return parser.getBooleanValue();
+			case VALUE_NULL:
+				return null;
+			default:
+				return mapper.readTree(parser).toString(); // for unknown types
+		}
+	}
+
+	private Number numberValue(JsonParser parser) throws IOException {
+		if (parser.currentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+			return parser.getDoubleValue();
+		}
+		if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+			return parser.getBigIntegerValue();
+		}
+		return parser.getLongValue();
+	}
+
+	private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+		if (actual != expected) {
+			throw new IOException("expected " + expected + " but got " + actual + " at " + parser.currentLocation());
+		}
+	}
+
+	private Symbol identifier(String name) {
+		Symbol symbol = symbols.intern(name);
+		identifiers.add(symbol.name());
+		return symbol;
+	}
 }
 
 /* example json format
@@ -1,22 +1,42 @@
 package org.pyfuscator.ast;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.pyfuscator.scope.Symbol;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
 import java.util.*;
 
+// writes Node trees straight to a JsonGenerator, nothing is built in between
+// output is compact unless pretty printing is asked for (handy with --keep-temp)
+// the binary format goes through the same generator calls, BinaryASTGenerator encodes them as they come
 public class JsonASTWriter {
-	private final ObjectMapper mapper;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final JsonFactory factory = mapper.getFactory();
+	private final ASTFormat format;
+	private final boolean prettyPrint;
 
-	// constructor to initialize the ObjectMapper
 	public JsonASTWriter() {
-		this.mapper = new ObjectMapper();
-		this.mapper.enable(SerializationFeature.INDENT_OUTPUT); // serializationfeature is just a pretty printing function
+		this(false);
+	}
+
+	public JsonASTWriter(boolean prettyPrint) {
+		this(ASTFormat.JSON, prettyPrint);
+	}
+
+	// pretty printing only means something for json
+	public JsonASTWriter(ASTFormat format, boolean prettyPrint) {
+		this.format = format;
+		this.prettyPrint = prettyPrint;
 	}
 
 	// exception if file cannot be written
@@ -25,86 +45,134 @@ public class JsonASTWriter {
 		if (astRootNode == null || filePath == null || filePath.isEmpty()) {
 			throw new IOException("Invalid input: node or file path is null/empty");
 		}
-		JsonNode jsonOutput = convertNodeToJson(astRootNode);
-		mapper.writeValue(new File(filePath), jsonOutput);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath))) {
+			write(astRootNode, out);
+		}
+	}
+
+	// writes the tree to the stream, the stream itself is left open
+	public void write(Node astRootNode, OutputStream out) throws IOException {
+		if (astRootNode == null) {
+			throw new IOException("Invalid input: node is null");
+		}
+		if (format == ASTFormat.BINARY) {
+			try (JsonGenerator generator = new BinaryASTGenerator(out, mapper)) {
+				writeNode(generator, astRootNode);
+			}
+			return;
+		}
+		try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			if (prettyPrint) {
+				generator.useDefaultPrettyPrinter();
+			}
+			writeNode(generator, astRootNode);
+		}
 	}
 
-	private JsonNode convertNodeToJson(Node astNode) {
+	private void writeNode(JsonGenerator generator, Node astNode) throws IOException {
 		// early return for null nodes
 		if (astNode == null) {
-			return mapper.nullNode();
+			generator.writeNull();
+			return;
 		}
 
-		ObjectNode jsonResult = mapper.createObjectNode();
-		jsonResult.put("type", astNode.getType());
+		generator.writeStartObject();
+		generator.writeStringField("type", astNode.getType());
+		generator.writeObjectFieldStart("fields");
 
-		ObjectNode fieldsContainer = mapper.createObjectNode();
+		Map<String, Object> fields = astNode.getFields();
 
-		// track empty arrays to preserve them during full circle conversion
-		Set<String> preservedEmptyArrays = new HashSet<>();
-		for (Map.Entry<String, Object> fieldEntry : astNode.getFields().entrySet()) {
-			String fieldKey = fieldEntry.getKey();
-			if (fieldKey.startsWith("_empty_array_")) {
-				String arrayFieldName = fieldKey.substring("_empty_array_".length());
-				preservedEmptyArrays.add(arrayFieldName);
+		// child nodes win over plain fields with the same name, so know their field names up front
+		List<String> childFieldNames = new ArrayList<>();
+		for (Node childNode : astNode.getChildren()) {
+			String parentFieldName = parentFieldOf(childNode);
+			if (!childFieldNames.contains(parentFieldName)) {
+				childFieldNames.add(parentFieldName);
 			}
 		}
 
 		// process regular fields
-		for (Map.Entry<String, Object> fieldEntry : astNode.getFields().entrySet()) {
+		List<String> writtenDottedGroups = new ArrayList<>();
+		for (Map.Entry<String, Object> fieldEntry : fields.entrySet()) {
 			String fieldKey = fieldEntry.getKey();
-			Object fieldVal = fieldEntry.getValue();
 
 			// skip tracking fields
-			if (fieldKey.endsWith("_node_type") || fieldKey.equals("_parent_field") || fieldKey.startsWith("_empty_array_")) {
+			if (isTrackingField(fieldKey)) {
 				continue;
 			}
 
-			if (fieldKey.contains(".")) {
-				handleDottedKey(fieldsContainer, fieldKey, fieldVal);
+			int dot = fieldKey.indexOf('.');
+			if (dot >= 0) {
+				// all "ctx.*" style keys of one group become one nested object
+				String topLevelKey = fieldKey.substring(0, dot);
+				if (writtenDottedGroups.contains(topLevelKey) || childFieldNames.contains(topLevelKey)) continue;
+				writtenDottedGroups.add(topLevelKey);
+				generator.writeFieldName(topLevelKey);
+				writeDottedGroup(generator, fields, topLevelKey);
 			} else {
-				addFieldValue(fieldsContainer, fieldKey, fieldVal);
+				if (childFieldNames.contains(fieldKey) || hasDottedGroup(fields, fieldKey)) continue;
+				generator.writeFieldName(fieldKey);
+				writeFieldValue(generator, fieldEntry.getValue());
 			}
 		}
 
-		// restore empty arrays
-		for (String emptyArrayName : preservedEmptyArrays) {
-			if (!fieldsContainer.has(emptyArrayName)) {
-				fieldsContainer.set(emptyArrayName, mapper.createArrayNode());
+		// restore empty arrays to preserve them during full circle conversion
+		for (String fieldKey : fields.keySet()) {
+			if (!fieldKey.startsWith("_empty_array_")) continue;
+			String arrayFieldName = fieldKey.substring("_empty_array_".length());
+			if (!fields.containsKey(arrayFieldName) && !hasDottedGroup(fields, arrayFieldName)
+					&& !childFieldNames.contains(arrayFieldName)) {
+				generator.writeFieldName(arrayFieldName);
+				generator.writeStartArray();
+				generator.writeEndArray();
 			}
 		}
 
-		// group the child nodes based on their parent field name
-		Map<String, List<Node>> childrenGroupedByField = new HashMap<>();
-		for (Node childNode : astNode.getChildren()) {
-			Object parentFieldTag = childNode.getFields().get("_parent_field");
-			String parentFieldName = parentFieldTag != null ? parentFieldTag.toString() : "body";
-			childrenGroupedByField.computeIfAbsent(parentFieldName, k -> new ArrayList<>()).add(childNode);
-		}
-
-		// convert child nodes to JSON (single element or array depending on field type)
-		for (Map.Entry<String, List<Node>> childGroup : childrenGroupedByField.entrySet()) {
-			String parentFieldName = childGroup.getKey();
-			List<Node> childrenList = childGroup.getValue();
-
+		// write child nodes grouped by their parent field name (single element or array depending on field type)
+		for (String parentFieldName : childFieldNames) {
 			boolean needsArray = isArrayField(parentFieldName, astNode.getType());
+			List<Node> childrenList = new ArrayList<>();
+			for (Node childNode : astNode.getChildren()) {
+				if (parentFieldName.equals(parentFieldOf(childNode))) {
+					childrenList.add(childNode);
+				}
+			}
 
+			generator.writeFieldName(parentFieldName);
 			if (childrenList.size() == 1 && !needsArray) {
 				// shouldn't be in array
-				fieldsContainer.set(parentFieldName, convertNodeToJson(childrenList.get(0)));
+				writeNode(generator, childrenList.get(0));
 			} else {
 				// must be an array
-				ArrayNode childArray = mapper.createArrayNode();
+				generator.writeStartArray();
 				for (Node child : childrenList) {
-					childArray.add(convertNodeToJson(child));
+					writeNode(generator, child);
 				}
-				fieldsContainer.set(parentFieldName, childArray);
+				generator.writeEndArray();
 			}
 		}
 
-		jsonResult.set("fields", fieldsContainer);
-		return jsonResult;
-	} // end convertNodeToJson
+		generator.writeEndObject(); // fields
+		generator.writeEndObject();
+	} // end writeNode
+
+	private static boolean isTrackingField(String fieldKey) {
+		return fieldKey.endsWith("_node_type") || fieldKey.equals("_parent_field") || fieldKey.startsWith("_empty_array_");
+	}
+
+	private static String parentFieldOf(Node childNode) {
+		String parentField = childNode.getParentField();
+		return parentField != null ? parentField : "body";
+	}
+
+	private static boolean hasDottedGroup(Map<String, Object> fields, String topLevelKey) {
+		String prefix = topLevelKey + ".";
+		for (String fieldKey : fields.keySet()) {
+			if (fieldKey.startsWith(prefix) && !isTrackingField(fieldKey)) return true;
+		}
+		return false;
+	}
 
 	// determine if a field should be serialized as an array based on the Python AST structure
 	private boolean isArrayField(String fieldName, String parentNodeType) {
@@ -115,9 +183,12 @@ public class JsonASTWriter {
 			       !"AsyncFunctionDef".equals(parentNodeType);
 		}
 
-		// body is single expr for lambda, array for everything else
+		// body is single expr for lambda and a if b else c, array for everything else
 		if ("body".equals(fieldName)) {
-			return !"Lambda".equals(parentNodeType);
+			return !"Lambda".equals(parentNodeType) && !"IfExp".equals(parentNodeType);
+		}
+		if ("orelse".equals(fieldName)) {
+			return !"IfExp".equals(parentNodeType);
 		}
 
 		// common array fields in Python AST - collected from testing various node types
@@ -156,89 +227,97 @@ public class JsonASTWriter {
             }
         }
      */
-	// recursively handle dotted keys like "ctx.lineno" by creating nested objects
-	private void handleDottedKey(ObjectNode fieldsContainer, String dottedKey, Object value) {
-		String[] keyParts = dottedKey.split("\\.", 2);
-		String topLevelKey = keyParts[0];
-		String nestedKey = keyParts[1];
-
-		ObjectNode nestedObject;
-		if (fieldsContainer.has(topLevelKey)) {
-			JsonNode existingNode = fieldsContainer.get(topLevelKey);
-			if (existingNode.isObject()) {
+	// the usual case is a lone ctx.type, which is written directly
+	// anything else is rare enough to go through a small ObjectNode
+	private void writeDottedGroup(JsonGenerator generator, Map<String, Object> fields, String topLevelKey) throws IOException {
+		String prefix = topLevelKey + ".";
+		List<Map.Entry<String, Object>> group = new ArrayList<>();
+		for (Map.Entry<String, Object> fieldEntry : fields.entrySet()) {
+			if (fieldEntry.getKey().startsWith(prefix) && !isTrackingField(fieldEntry.getKey())) {
+				group.add(fieldEntry);
+			}
+		}
+
+		if (group.size() == 1 && group.get(0).getKey().equals(prefix + "type")) {
+			generator.writeStartObject();
+			generator.writeStringField("type", String.valueOf(group.get(0).getValue()));
+			generator.writeObjectFieldStart("fields");
+			generator.writeEndObject();
+			generator.writeEndObject();
+			return;
+		}
+
+		ObjectNode nestedObject = mapper.createObjectNode();
+		for (Map.Entry<String, Object> fieldEntry : group) {
+			handleDottedKey(nestedObject, fieldEntry.getKey().substring(prefix.length()), fieldEntry.getValue());
+		}
+		mapper.writeTree(generator, nestedObject);
+	}
+
+	// recursively handle dotted keys like "lineno" or "a.b" by creating nested objects
+	private void handleDottedKey(ObjectNode container, String key, Object value) {
+		if (key.contains(".")) {
+			String[] keyParts = key.split("\\.", 2);
+			JsonNode existingNode = container.get(keyParts[0]);
+			ObjectNode nestedObject;
+			if (existingNode != null && existingNode.isObject()) {
 				nestedObject = (ObjectNode) existingNode;
 			} else {
 				// replace non object with new object
 				nestedObject = mapper.createObjectNode();
-				fieldsContainer.set(topLevelKey, nestedObject);
+				container.set(keyParts[0], nestedObject);
+			}
+			// go recursive if there are more dots to handle
+			handleDottedKey(nestedObject, keyParts[1], value);
+		} else if ("type".equals(key)) {
+			// type fields need a corresponding "fields" object
+			container.put("type", value.toString());
+			if (!container.has("fields")) {
+				container.set("fields", mapper.createObjectNode());
 			}
 		} else {
-			nestedObject = mapper.createObjectNode();
-			fieldsContainer.set(topLevelKey, nestedObject);
+			container.set(key, toJsonValue(value));
 		}
+	} // end handleDottedKey
 
-		// go recursive if there are more dots to handle
-		if (nestedKey.contains(".")) {
-			handleDottedKey(nestedObject, nestedKey, value);
-		} else {
-			if ("type".equals(nestedKey)) {
-				// type fields need a corresponding "fields" object
-				nestedObject.put("type", value.toString());
-				if (!nestedObject.has("fields")) {
-					nestedObject.set("fields", mapper.createObjectNode());
-				}
-			} else {
-				addFieldValue(nestedObject, nestedKey, value);
-			}
+	// only for the rare dotted groups above
+	private JsonNode toJsonValue(Object value) {
+		try (TokenBuffer buffer = new TokenBuffer(mapper, false)) {
+			writeFieldValue(buffer, value);
+			return mapper.readTree(buffer.asParser());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
 		}
-	} // end handleDottedKey
+	}
 
-	// add field value to the parent node (could've used a switch statement probably)
-	private void addFieldValue(ObjectNode parentObject, String fieldKey, Object fieldValue) {
+	// write a field value (could've used a switch statement probably)
+	private void writeFieldValue(JsonGenerator generator, Object fieldValue) throws IOException {
 		if (fieldValue == null) {
-			parentObject.putNull(fieldKey);
+			generator.writeNull();
 		} else if (fieldValue instanceof Node) {
 			// recursive casting
-			parentObject.set(fieldKey, convertNodeToJson((Node) fieldValue));
+			writeNode(generator, (Node) fieldValue);
 		} else if (fieldValue instanceof List) {
-			ArrayNode jsonArray = mapper.createArrayNode();
+			generator.writeStartArray();
 			for (Object listItem : (List<?>) fieldValue) {
-				if (listItem instanceof Node) {
-					jsonArray.add(convertNodeToJson((Node) listItem));
-				} else if (listItem == null) {
-					jsonArray.addNull();
-				} else if (listItem instanceof Number) {
-					jsonArray.add(((Number) listItem).doubleValue());
-				} else if (listItem instanceof Boolean) {
-					jsonArray.add((Boolean) listItem);
-				} else {
-					jsonArray.add(listItem.toString());
-				}
+				writeFieldValue(generator, listItem);
 			}
-			parentObject.set(fieldKey, jsonArray);
+			generator.writeEndArray();
 		} else if (fieldValue instanceof Integer) {
-			parentObject.put(fieldKey, (Integer) fieldValue);
+			generator.writeNumber((Integer) fieldValue);
 		} else if (fieldValue instanceof Long) {
-			parentObject.put(fieldKey, (Long) fieldValue);
+			generator.writeNumber((Long) fieldValue);
+		} else if (fieldValue instanceof BigInteger) {
+			generator.writeNumber((BigInteger) fieldValue);
 		} else if (fieldValue instanceof Double) {
-			parentObject.put(fieldKey, (Double) fieldValue);
+			generator.writeNumber((Double) fieldValue);
 		} else if (fieldValue instanceof Boolean) {
-			parentObject.put(fieldKey, (Boolean) fieldValue);
-		} else if (fieldValue instanceof String strValue)
-		{
-			try {
-				if (strValue.contains(".")) {
-					parentObject.put(fieldKey, Double.parseDouble(strValue));
-				} else {
-					parentObject.put(fieldKey, Integer.parseInt(strValue));
-				}
-			} catch (NumberFormatException e) {
-				// keep as string
-				parentObject.put(fieldKey, strValue);
-			}
+			generator.writeBoolean((Boolean) fieldValue);
+		} else if (fieldValue instanceof Symbol symbol) {
+			generator.writeString(symbol.name());
 		} else {
-			// for unknown types
-			parentObject.put(fieldKey, fieldValue.toString());
+			// strings (the loader keeps numbers typed, so a string is always a string) and unknown types
+			generator.writeString(fieldValue.toString());
 		}
-	} // end addFieldValue
+	} // end writeFieldValue
 }
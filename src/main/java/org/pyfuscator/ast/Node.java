@@ -3,36 +3,225 @@ package org.pyfuscator.ast;
 import java.util.*;
 import java.util.function.Consumer;
 
+// fields of the node's type live in a slot array laid out by NodeType, the bookkeeping entries
+// (_parent_field, _empty_array_<field>, a flattened ctx.type) are packed into a byte, a bitmask and the ctx slot itself,
+// and only fields outside the type's schema go to a map, which most nodes never need
+// getFields() is a live map view over all of it for code that still wants field names
 public class Node {
-	private final Map<String, Object> fields = new LinkedHashMap<>();
-	private final List<Node> children = new ArrayList<>();
-	private String type;
+	private static final Object[] NO_SLOTS = new Object[0];
+	private static final byte NO_PARENT_FIELD = (byte) 0xFF;
+	private static final String PARENT_FIELD_KEY = "_parent_field";
+	private static final String EMPTY_ARRAY_PREFIX = "_empty_array_";
+	private static final String TYPE_SUFFIX = ".type";
+
+	// the view hands these keys out all the time, so build them once per field name
+	private static final String[] EMPTY_ARRAY_KEYS = new String[NodeType.fieldNameCount()];
+	private static final String[] TYPE_KEYS = new String[NodeType.fieldNameCount()];
+
+	static {
+		if (NodeType.fieldNameCount() >= 0xFF) {
+			throw new IllegalStateException("too many field names for a byte parent field");
+		}
+		for (int i = 0; i < EMPTY_ARRAY_KEYS.length; i++) {
+			EMPTY_ARRAY_KEYS[i] = EMPTY_ARRAY_PREFIX + NodeType.fieldNameOf(i);
+			TYPE_KEYS[i] = NodeType.fieldNameOf(i) + TYPE_SUFFIX;
+		}
+	}
+
+	private NodeType nodeType;
+	private String typeName;      // only kept for UNKNOWN, the enum knows the name otherwise
+	private Object[] slots;       // a NodeType in a slot is a flattened "<field>.type" (ctx)
+	private int present;          // bit per slot, set once the field was given (null values too)
+	private int emptyArrays;      // bit per slot for "_empty_array_<field>"
+	private byte parentField = NO_PARENT_FIELD; // NodeType.fieldId of the parent's field we hang off
+	private Map<String, Object> extraFields;    // anything outside the schema, created on demand
+	private List<Node> children;  // created on the first child, most nodes are leaves
 	private Node parent;
 
 	// basic constructo rthen getters and setters
 
 	public Node(String type) {
-		this.type = type;
+		init(NodeType.fromPythonName(type), type);
+	}
+
+	public Node(NodeType type) {
+		init(type, null);
+	}
+
+	private void init(NodeType type, String name) {
+		this.nodeType = type;
+		this.typeName = type == NodeType.UNKNOWN ? name : null;
+		this.slots = type.fieldCount() == 0 ? NO_SLOTS : new Object[type.fieldCount()];
+		this.present = 0;
+		this.emptyArrays = 0;
 	}
 
 	public String getType() {
-		return type;
+		return nodeType != NodeType.UNKNOWN ? nodeType.pythonName() : typeName;
+	}
+
+	public NodeType getNodeType() {
+		return nodeType;
+	}
+
+	public boolean is(NodeType type) {
+		return nodeType == type;
 	}
 
+	// changes the layout, so every field is moved over to the new type's slots
 	public void setType(String type) {
-		this.type = type;
+		if (Objects.equals(type, getType())) return;
+		List<Map.Entry<String, Object>> fields = new ArrayList<>();
+		for (Map.Entry<String, Object> entry : getFields().entrySet()) {
+			fields.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+		}
+		byte keepParentField = parentField;
+		extraFields = null;
+		init(NodeType.fromPythonName(type), type);
+		parentField = keepParentField;
+		for (Map.Entry<String, Object> entry : fields) {
+			addField(entry.getKey(), entry.getValue());
+		}
 	}
 
+	// the map view, see FieldsView, prefer getField/addField when the field name is known
 	public Map<String, Object> getFields() {
-		return fields;
+		return new FieldsView();
 	}
 
 	public List<Node> getChildren() {
-		return children;
+		return children != null ? children : Collections.emptyList();
+	}
+
+	public Object getField(String key) {
+		int slot = nodeType.slotOf(key);
+		if (slot >= 0) {
+			Object value = slots[slot];
+			return value instanceof NodeType ? null : value;
+		}
+		return getSpecialField(key);
+	}
+
+	public boolean hasField(String key) {
+		int slot = nodeType.slotOf(key);
+		if (slot >= 0) {
+			return (present & (1 << slot)) != 0 && !(slots[slot] instanceof NodeType);
+		}
+		return getSpecialField(key) != null || (extraFields != null && extraFields.containsKey(key));
 	}
 
 	public void addField(String key, Object value) {
-		fields.put(key, value);
+		int slot = nodeType.slotOf(key);
+		if (slot >= 0) {
+			if (slots[slot] instanceof NodeType flattened) {
+				// a plain value and "<field>.type" used to be two keys, keep both
+				extra().put(key + TYPE_SUFFIX, flattened.pythonName());
+			}
+			slots[slot] = value;
+			present |= 1 << slot;
+			return;
+		}
+		if (!addSpecialField(key, value)) {
+			extra().put(key, value);
+		}
+	}
+
+	public Object removeField(String key) {
+		Object old = getField(key);
+		int slot = nodeType.slotOf(key);
+		if (slot >= 0) {
+			if (!(slots[slot] instanceof NodeType)) {
+				slots[slot] = null;
+				present &= ~(1 << slot);
+			}
+			return old;
+		}
+		if (PARENT_FIELD_KEY.equals(key) && parentField != NO_PARENT_FIELD) {
+			parentField = NO_PARENT_FIELD;
+			return old;
+		}
+		if (key.startsWith(EMPTY_ARRAY_PREFIX)) {
+			int emptySlot = nodeType.slotOf(key.substring(EMPTY_ARRAY_PREFIX.length()));
+			if (emptySlot >= 0 && (emptyArrays & (1 << emptySlot)) != 0) {
+				emptyArrays &= ~(1 << emptySlot);
+				return old;
+			}
+		}
+		if (key.endsWith(TYPE_SUFFIX)) {
+			int typeSlot = nodeType.slotOf(key.substring(0, key.length() - TYPE_SUFFIX.length()));
+			if (typeSlot >= 0 && slots[typeSlot] instanceof NodeType) {
+				slots[typeSlot] = null;
+				present &= ~(1 << typeSlot);
+				return old;
+			}
+		}
+		return extraFields != null ? extraFields.remove(key) : null;
+	}
+
+	// field of the parent this node belongs to, null for the root
+	public String getParentField() {
+		if (parentField != NO_PARENT_FIELD) return NodeType.fieldNameOf(parentField & 0xFF);
+		Object value = extraFields != null ? extraFields.get(PARENT_FIELD_KEY) : null;
+		return value != null ? value.toString() : null;
+	}
+
+	public void setParentField(String field) {
+		addField(PARENT_FIELD_KEY, field);
+	}
+
+	// the flattened type of an object field, e.g. the Load/Store/Del of "ctx"
+	public NodeType getContext() {
+		int slot = nodeType.slotOf("ctx");
+		return slot >= 0 && slots[slot] instanceof NodeType type ? type : null;
+	}
+
+	private Object getSpecialField(String key) {
+		if (PARENT_FIELD_KEY.equals(key) && parentField != NO_PARENT_FIELD) {
+			return getParentField();
+		}
+		if (key.startsWith(EMPTY_ARRAY_PREFIX)) {
+			int slot = nodeType.slotOf(key.substring(EMPTY_ARRAY_PREFIX.length()));
+			if (slot >= 0 && (emptyArrays & (1 << slot)) != 0) return Boolean.TRUE;
+		} else if (key.endsWith(TYPE_SUFFIX)) {
+			int slot = nodeType.slotOf(key.substring(0, key.length() - TYPE_SUFFIX.length()));
+			if (slot >= 0 && slots[slot] instanceof NodeType type) return type.pythonName();
+		}
+		return extraFields != null ? extraFields.get(key) : null;
+	}
+
+	// packs the bookkeeping keys, false if the key/value doesn't fit and has to go to the map
+	private boolean addSpecialField(String key, Object value) {
+		if (PARENT_FIELD_KEY.equals(key)) {
+			int id = value instanceof String name ? NodeType.fieldId(name) : -1;
+			if (id < 0) {
+				parentField = NO_PARENT_FIELD;
+				return false;
+			}
+			parentField = (byte) id;
+			if (extraFields != null) extraFields.remove(PARENT_FIELD_KEY);
+			return true;
+		}
+		if (key.startsWith(EMPTY_ARRAY_PREFIX)) {
+			int slot = nodeType.slotOf(key.substring(EMPTY_ARRAY_PREFIX.length()));
+			if (slot < 0 || !Boolean.TRUE.equals(value)) return false;
+			emptyArrays |= 1 << slot;
+			return true;
+		}
+		if (key.endsWith(TYPE_SUFFIX) && value instanceof String name) {
+			int slot = nodeType.slotOf(key.substring(0, key.length() - TYPE_SUFFIX.length()));
+			NodeType type = NodeType.fromPythonName(name);
+			if (slot < 0 || type == NodeType.UNKNOWN) return false;
+			if ((present & (1 << slot)) != 0 && !(slots[slot] instanceof NodeType)) return false; // slot holds a plain value
+			slots[slot] = type;
+			present |= 1 << slot;
+			return true;
+		}
+		return false;
+	}
+
+	private Map<String, Object> extra() {
+		if (extraFields == null) extraFields = new LinkedHashMap<>(4);
+		return extraFields;
 	}
 
 	public Node getParent() {
@@ -44,10 +233,41 @@ public class Node {
 	}
 
 	public void addChild(Node child) {
+		if (children == null) children = new ArrayList<>(2);
 		children.add(child);
 		child.parent = this;
 	}
 
+	// puts replacement where child was (same index, same parent field), child is left without a parent
+	// safe from an exit hook of the walk below, the walk is done with child by then
+	public void replaceChild(Node child, Node replacement) {
+		int index = children != null ? children.indexOf(child) : -1;
+		if (index < 0) throw new IllegalArgumentException("not a child of this node: " + child);
+		replacement.setParentField(child.getParentField());
+		children.set(index, replacement);
+		replacement.parent = this;
+		child.parent = null;
+	}
+
+	// the same for several nodes in child's place, in order (none removes it)
+	public void replaceChild(Node child, List<Node> replacements) {
+		int index = children != null ? children.indexOf(child) : -1;
+		if (index < 0) throw new IllegalArgumentException("not a child of this node: " + child);
+		String field = child.getParentField();
+		children.remove(index);
+		children.addAll(index, replacements);
+		for (Node replacement : replacements) {
+			replacement.setParentField(field);
+			replacement.parent = this;
+		}
+		child.parent = null;
+	}
+
+	public void removeChild(Node child) {
+		if (children == null || !children.remove(child)) throw new IllegalArgumentException("not a child of this node: " + child);
+		child.parent = null;
+	}
+
 	// walk using depth first traversal with enter and exit consumers
 	// used exit consumer so that we can go back up the tree if needed
 	// https://www.baeldung.com/java-depth-first-search
@@ -88,7 +308,163 @@ public class Node {
 
 	@Override
 	public String toString() {
-		return "Node(" + type + ", fields=" + fields + ", children=" + children.size() + ")";
+		return "Node(" + getType() + ", fields=" + getFields() + ", children=" + getChildren().size() + ")";
+	}
+
+	// every field under its old map key: schema fields in schema order (a flattened one as "<field>.type"),
+	// then the _empty_array_ markers, then _parent_field, then whatever is in the extra map
+	private final class FieldsView extends AbstractMap<String, Object> {
+		@Override
+		public Object get(Object key) {
+			return key instanceof String name ? getField(name) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String name && hasField(name);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			Object old = getField(key);
+			addField(key, value);
+			return old;
+		}
+
+		@Override
+		public Object remove(Object key) {
+			return key instanceof String name ? removeField(name) : null;
+		}
+
+		@Override
+		public int size() {
+			return Integer.bitCount(present) + Integer.bitCount(emptyArrays)
+					+ (parentField != NO_PARENT_FIELD ? 1 : 0) + (extraFields != null ? extraFields.size() : 0);
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new FieldsIterator();
+				}
+
+				@Override
+				public int size() {
+					return FieldsView.this.size();
+				}
+			};
+		}
+	}
+
+	private final class FieldsIterator implements Iterator<Map.Entry<String, Object>> {
+		private int slot = -1;        // walks the slots, then the empty array bits
+		private boolean emptyPhase;
+		private boolean parentDone;
+		private Iterator<Map.Entry<String, Object>> extra;
+		private Map.Entry<String, Object> next;
+
+		FieldsIterator() {
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (!emptyPhase) {
+				slot++;
+				if (slot >= slots.length) {
+					emptyPhase = true;
+					slot = -1;
+					break;
+				}
+				if ((present & (1 << slot)) == 0) continue;
+				String field = nodeType.fieldName(slot);
+				if (slots[slot] instanceof NodeType type) {
+					next = new FieldEntry(TYPE_KEYS[NodeType.fieldId(field)], type.pythonName());
+				} else {
+					next = new FieldEntry(field, slots[slot]);
+				}
+				return;
+			}
+			while (++slot < slots.length) {
+				if ((emptyArrays & (1 << slot)) != 0) {
+					next = new FieldEntry(EMPTY_ARRAY_KEYS[NodeType.fieldId(nodeType.fieldName(slot))], Boolean.TRUE);
+					return;
+				}
+			}
+			if (!parentDone) {
+				parentDone = true;
+				if (parentField != NO_PARENT_FIELD) {
+					next = new FieldEntry(PARENT_FIELD_KEY, getParentField());
+					return;
+				}
+			}
+			if (extra == null) {
+				extra = extraFields != null ? extraFields.entrySet().iterator() : Collections.emptyIterator();
+			}
+			if (extra.hasNext()) {
+				Map.Entry<String, Object> entry = extra.next();
+				next = new FieldEntry(entry.getKey(), entry.getValue());
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (next == null) throw new NoSuchElementException();
+			Map.Entry<String, Object> current = next;
+			advance();
+			return current;
+		}
 	}
 
+	// setValue writes through to the node
+	private final class FieldEntry implements Map.Entry<String, Object> {
+		private final String key;
+		private Object value;
+
+		FieldEntry(String key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public Object getValue() {
+			return value;
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			addField(key, value);
+			Object old = this.value;
+			this.value = value;
+			return old;
+		}
+
+		// what Map.Entry asks of equals/hashCode, so the entry set compares like any other map's
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Map.Entry<?, ?> e && Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(key) ^ Objects.hashCode(value);
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
 }
@@ -1,70 +1,234 @@
 package org.pyfuscator.ast;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 // enum for all node types, sourced from Python AST documentation
+// every type knows its python class name and its fields (ast.X._fields, 3.12 type_params included),
+// which is what Node uses to keep fields in a small slot array instead of a map
 public enum NodeType {
-	MODULE,
-	INTERACTIVE,
-	EXPRESSION,
-	FUNCTION_DEF,
-	ASYNC_FUNCTION_DEF,
-	CLASS_DEF,
-	RETURN,
-	DELETE,
-	ASSIGN,
-	AUG_ASSIGN,
-	ANN_ASSIGN,
-	FOR,
-	ASYNC_FOR,
-	WHILE,
-	IF,
-	WITH,
-	ASYNC_WITH,
-	MATCH,
-	MATCH_CASE,
-	TRY,
-	EXCEPT_HANDLER,
-	FINALLY,
-	RAISE,
-	ASSERT,
-	IMPORT,
-	IMPORT_FROM,
-	GLOBAL,
-	NONLOCAL,
-	PASS,
-	BREAK,
-	CONTINUE,
-	NAME,
-	CONSTANT,
-	ATTRIBUTE,
-	SUBSCRIPT,
-	TUPLE,
-	LIST,
-	DICT,
-	SET,
-	CALL,
-	KEYWORD,
-	BIN_OP,
-	UNARY_OP,
-	BOOL_OP,
-	COMPARE,
-	LAMBDA,
-	ARG,
-	ARGUMENTS,
-	KEYWORD_ARGUMENT,
-	COMPREHENSION,
-	LIST_COMP,
-	SET_COMP,
-	DICT_COMP,
-	GENERATOR_EXP,
-	SLICE,
-	FORMATTED_VALUE,
-	JOINED_STR,
-	UNKNOWN;
+	// mod
+	MODULE("Module", "body", "type_ignores"),
+	INTERACTIVE("Interactive", "body"),
+	EXPRESSION("Expression", "body"),
+	FUNCTION_TYPE("FunctionType", "argtypes", "returns"),
+	// stmt
+	FUNCTION_DEF("FunctionDef", "name", "args", "body", "decorator_list", "returns", "type_comment", "type_params"),
+	ASYNC_FUNCTION_DEF("AsyncFunctionDef", "name", "args", "body", "decorator_list", "returns", "type_comment", "type_params"),
+	CLASS_DEF("ClassDef", "name", "bases", "keywords", "body", "decorator_list", "type_params"),
+	RETURN("Return", "value"),
+	DELETE("Delete", "targets"),
+	ASSIGN("Assign", "targets", "value", "type_comment"),
+	AUG_ASSIGN("AugAssign", "target", "op", "value"),
+	ANN_ASSIGN("AnnAssign", "target", "annotation", "value", "simple"),
+	FOR("For", "target", "iter", "body", "orelse", "type_comment"),
+	ASYNC_FOR("AsyncFor", "target", "iter", "body", "orelse", "type_comment"),
+	WHILE("While", "test", "body", "orelse"),
+	IF("If", "test", "body", "orelse"),
+	WITH("With", "items", "body", "type_comment"),
+	ASYNC_WITH("AsyncWith", "items", "body", "type_comment"),
+	MATCH("Match", "subject", "cases"),
+	RAISE("Raise", "exc", "cause"),
+	TRY("Try", "body", "handlers", "orelse", "finalbody"),
+	TRY_STAR("TryStar", "body", "handlers", "orelse", "finalbody"),
+	ASSERT("Assert", "test", "msg"),
+	IMPORT("Import", "names"),
+	IMPORT_FROM("ImportFrom", "module", "names", "level"),
+	GLOBAL("Global", "names"),
+	NONLOCAL("Nonlocal", "names"),
+	EXPR("Expr", "value"),
+	PASS("Pass"),
+	BREAK("Break"),
+	CONTINUE("Continue"),
+	TYPE_ALIAS("TypeAlias", "name", "type_params", "value"),
+	// expr
+	BOOL_OP("BoolOp", "op", "values"),
+	NAMED_EXPR("NamedExpr", "target", "value"),
+	BIN_OP("BinOp", "left", "op", "right"),
+	UNARY_OP("UnaryOp", "op", "operand"),
+	LAMBDA("Lambda", "args", "body"),
+	IF_EXP("IfExp", "test", "body", "orelse"),
+	DICT("Dict", "keys", "values"),
+	SET("Set", "elts"),
+	LIST_COMP("ListComp", "elt", "generators"),
+	SET_COMP("SetComp", "elt", "generators"),
+	DICT_COMP("DictComp", "key", "value", "generators"),
+	GENERATOR_EXP("GeneratorExp", "elt", "generators"),
+	AWAIT("Await", "value"),
+	YIELD("Yield", "value"),
+	YIELD_FROM("YieldFrom", "value"),
+	COMPARE("Compare", "left", "ops", "comparators"),
+	CALL("Call", "func", "args", "keywords"),
+	FORMATTED_VALUE("FormattedValue", "value", "conversion", "format_spec"),
+	JOINED_STR("JoinedStr", "values"),
+	CONSTANT("Constant", "value", "kind"),
+	ATTRIBUTE("Attribute", "value", "attr", "ctx"),
+	SUBSCRIPT("Subscript", "value", "slice", "ctx"),
+	STARRED("Starred", "value", "ctx"),
+	NAME("Name", "id", "ctx"),
+	LIST("List", "elts", "ctx"),
+	TUPLE("Tuple", "elts", "ctx"),
+	SLICE("Slice", "lower", "upper", "step"),
+	// expr_context
+	LOAD("Load"),
+	STORE("Store"),
+	DEL("Del"),
+	// boolop
+	AND("And"),
+	OR("Or"),
+	// operator
+	ADD("Add"),
+	SUB("Sub"),
+	MULT("Mult"),
+	MAT_MULT("MatMult"),
+	DIV("Div"),
+	MOD("Mod"),
+	POW("Pow"),
+	LSHIFT("LShift"),
+	RSHIFT("RShift"),
+	BIT_OR("BitOr"),
+	BIT_XOR("BitXor"),
+	BIT_AND("BitAnd"),
+	FLOOR_DIV("FloorDiv"),
+	// unaryop
+	INVERT("Invert"),
+	NOT("Not"),
+	UADD("UAdd"),
+	USUB("USub"),
+	// cmpop
+	EQ("Eq"),
+	NOT_EQ("NotEq"),
+	LT("Lt"),
+	LT_E("LtE"),
+	GT("Gt"),
+	GT_E("GtE"),
+	IS("Is"),
+	IS_NOT("IsNot"),
+	IN("In"),
+	NOT_IN("NotIn"),
+	// excepthandler
+	EXCEPT_HANDLER("ExceptHandler", "type", "name", "body"),
+	// pattern
+	MATCH_VALUE("MatchValue", "value"),
+	MATCH_SINGLETON("MatchSingleton", "value"),
+	MATCH_SEQUENCE("MatchSequence", "patterns"),
+	MATCH_MAPPING("MatchMapping", "keys", "patterns", "rest"),
+	MATCH_CLASS("MatchClass", "cls", "patterns", "kwd_attrs", "kwd_patterns"),
+	MATCH_STAR("MatchStar", "name"),
+	MATCH_AS("MatchAs", "pattern", "name"),
+	MATCH_OR("MatchOr", "patterns"),
+	// type_ignore
+	TYPE_IGNORE("TypeIgnore", "lineno", "tag"),
+	// type_param (3.12)
+	TYPE_VAR("TypeVar", "name", "bound"),
+	PARAM_SPEC("ParamSpec", "name"),
+	TYPE_VAR_TUPLE("TypeVarTuple", "name"),
+	// the rest
+	COMPREHENSION("comprehension", "target", "iter", "ifs", "is_async"),
+	ARGUMENTS("arguments", "posonlyargs", "args", "vararg", "kwonlyargs", "kw_defaults", "kwarg", "defaults"),
+	ARG("arg", "arg", "annotation", "type_comment"),
+	KEYWORD("keyword", "arg", "value"),
+	ALIAS("alias", "name", "asname"),
+	WITHITEM("withitem", "context_expr", "optional_vars"),
+	MATCH_CASE("match_case", "pattern", "guard", "body"),
+	// anything newer (or older) python hands us, such nodes keep their type name and all fields in a map
+	UNKNOWN(null);
+
+	private static final Map<String, NodeType> BY_PYTHON_NAME = new HashMap<>();
+	// every field name of every type, so a field name fits in a byte (Node's parent field)
+	private static final List<String> FIELD_NAMES = new ArrayList<>();
+	private static final Map<String, Integer> FIELD_IDS = new HashMap<>();
+
+	static {
+		// fields holding identifiers (a name or a list of names), the loader interns these as Symbols
+		FUNCTION_DEF.markIdentifiers("name");
+		ASYNC_FUNCTION_DEF.markIdentifiers("name");
+		CLASS_DEF.markIdentifiers("name");
+		IMPORT_FROM.markIdentifiers("module");
+		GLOBAL.markIdentifiers("names");
+		NONLOCAL.markIdentifiers("names");
+		ATTRIBUTE.markIdentifiers("attr");
+		NAME.markIdentifiers("id");
+		EXCEPT_HANDLER.markIdentifiers("name");
+		MATCH_MAPPING.markIdentifiers("rest");
+		MATCH_CLASS.markIdentifiers("kwd_attrs");
+		MATCH_STAR.markIdentifiers("name");
+		MATCH_AS.markIdentifiers("name");
+		TYPE_VAR.markIdentifiers("name");
+		PARAM_SPEC.markIdentifiers("name");
+		TYPE_VAR_TUPLE.markIdentifiers("name");
+		ARG.markIdentifiers("arg");
+		KEYWORD.markIdentifiers("arg");
+		ALIAS.markIdentifiers("name", "asname");
+
+		for (NodeType type : values()) {
+			if (type.pythonName != null) {
+				BY_PYTHON_NAME.put(type.pythonName, type);
+			}
+			for (String field : type.fields) {
+				if (!FIELD_IDS.containsKey(field)) {
+					FIELD_IDS.put(field, FIELD_NAMES.size());
+					FIELD_NAMES.add(field);
+				}
+			}
+		}
+	}
+
+	private final String pythonName;
+	private final String[] fields;
+	private int identifierSlots; // bit per slot
+
+	NodeType(String pythonName, String... fields) {
+		this.pythonName = pythonName;
+		this.fields = fields;
+	}
+
+	// the class name in python's ast module, null for UNKNOWN
+	public String pythonName() {
+		return pythonName;
+	}
+
+	public int fieldCount() {
+		return fields.length;
+	}
+
+	public String fieldName(int slot) {
+		return fields[slot];
+	}
 
+	// slot of the field for this type, -1 if the type doesn't have it
+	public int slotOf(String field) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].equals(field)) return i;
+		}
+		return -1;
+	}
+
+	public boolean isIdentifierField(String field) {
+		int slot = slotOf(field);
+		return slot >= 0 && (identifierSlots & (1 << slot)) != 0;
+	}
+
+	private void markIdentifiers(String... names) {
+		for (String name : names) {
+			identifierSlots |= 1 << slotOf(name);
+		}
+	}
+
+	public static NodeType fromPythonName(String name) {
+		if (name == null) return UNKNOWN;
+		return BY_PYTHON_NAME.getOrDefault(name, UNKNOWN);
+	}
+
+	// takes python names ("FunctionDef") as well as the constant names ("FUNCTION_DEF")
 	public static NodeType fromString(String s) {
 		if (s == null) {
 			return UNKNOWN; // return unknown for null input
 		}
+		NodeType type = BY_PYTHON_NAME.get(s);
+		if (type != null) return type;
 		try {
 			return NodeType.valueOf(s.toUpperCase());
 		} catch (IllegalArgumentException e) {
@@ -72,5 +236,17 @@ public enum NodeType {
 		}
 	}
 
+	// id of a field name across all types, -1 for names no type has
+	static int fieldId(String field) {
+		Integer id = FIELD_IDS.get(field);
+		return id != null ? id : -1;
+	}
 
+	static String fieldNameOf(int id) {
+		return FIELD_NAMES.get(id);
+	}
+
+	static int fieldNameCount() {
+		return FIELD_NAMES.size();
+	}
 }
@@ -0,0 +1,234 @@
+package org.pyfuscator.scope;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the renames of earlier runs (--name-map), so a symbol keeps its obfuscated name from one release to the next
+// keyed by module (path relative to the input), scope path (Outer.method) and original name
+// file layout: "PYFN", version byte, string table, then per module the entries as string table indexes (all varints)
+// the strings are sorted and the entries too, so an unchanged map is written byte for byte the same
+public class NameMap {
+	private static final byte[] MAGIC = {'P', 'Y', 'F', 'N'};
+	private static final int VERSION = 1;
+
+	private final Path file;
+	private final Map<String, Map<String, String>> loaded; // module -> (scope path \0 original -> obfuscated)
+	private final Map<String, Map<String, String>> committed = new ConcurrentHashMap<>();
+
+	private NameMap(Path file, Map<String, Map<String, String>> loaded) {
+		this.file = file;
+		this.loaded = loaded;
+	}
+
+	// a missing file is just an empty map, the first run creates it
+	public static NameMap load(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return new NameMap(file, new HashMap<>());
+		}
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			return new NameMap(file, read(new DataInputStream(in)));
+		} catch (EOFException e) {
+			throw new IOException("name map " + file + " is truncated", e);
+		}
+	}
+
+	// the names one file starts from, every file gets its own (files run concurrently)
+	public ModuleNames module(String module) {
+		return new ModuleNames(module, loaded.getOrDefault(module, Map.of()), loaded.containsKey(module), null);
+	}
+
+	// only files that made it all the way through replace their entries, a failed file keeps last run's
+	public void commit(ModuleNames names) {
+		committed.put(names.module, names.recorded);
+	}
+
+	// modules that weren't processed this run (cache hits, excluded files) keep their old entries
+	public void save() throws IOException {
+		Map<String, Map<String, String>> merged = new TreeMap<>(loaded);
+		merged.putAll(committed);
+
+		Path target = file.toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try {
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				write(new DataOutputStream(out), merged);
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Map<String, Map<String, String>> read(DataInputStream in) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != VERSION) {
+			throw new IOException("not a name map (or an unsupported version)");
+		}
+		String[] strings = new String[readVarint(in)];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[readVarint(in)];
+			in.readFully(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		Map<String, Map<String, String>> modules = new HashMap<>();
+		int moduleCount = readVarint(in);
+		for (int m = 0; m < moduleCount; m++) {
+			String module = strings[readVarint(in)];
+			int entryCount = readVarint(in);
+			Map<String, String> entries = new HashMap<>(entryCount * 2);
+			for (int e = 0; e < entryCount; e++) {
+				String scopePath = strings[readVarint(in)];
+				String original = strings[readVarint(in)];
+				entries.put(key(scopePath, original), strings[readVarint(in)]);
+			}
+			modules.put(module, entries);
+		}
+		return modules;
+	}
+
+	private static void write(DataOutputStream out, Map<String, Map<String, String>> modules) throws IOException {
+		// string table first, sorted, so scope paths and names shared by many entries are stored once
+		TreeMap<String, Integer> strings = new TreeMap<>();
+		for (Map.Entry<String, Map<String, String>> module : modules.entrySet()) {
+			strings.put(module.getKey(), 0);
+			for (Map.Entry<String, String> entry : module.getValue().entrySet()) {
+				int split = entry.getKey().indexOf('\0');
+				strings.put(entry.getKey().substring(0, split), 0);
+				strings.put(entry.getKey().substring(split + 1), 0);
+				strings.put(entry.getValue(), 0);
+			}
+		}
+		int index = 0;
+		for (Map.Entry<String, Integer> string : strings.entrySet()) {
+			string.setValue(index++);
+		}
+
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		writeVarint(out, strings.size());
+		for (String string : strings.keySet()) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, bytes.length);
+			out.write(bytes);
+		}
+		writeVarint(out, modules.size());
+		for (Map.Entry<String, Map<String, String>> module : modules.entrySet()) {
+			writeVarint(out, strings.get(module.getKey()));
+			writeVarint(out, module.getValue().size());
+			for (Map.Entry<String, String> entry : new TreeMap<>(module.getValue()).entrySet()) {
+				int split = entry.getKey().indexOf('\0');
+				writeVarint(out, strings.get(entry.getKey().substring(0, split)));
+				writeVarint(out, strings.get(entry.getKey().substring(split + 1)));
+				writeVarint(out, strings.get(entry.getValue()));
+			}
+		}
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if (b < 0x80) return result;
+		}
+		throw new IOException("bad varint in name map");
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	// scope paths never contain a \0, so this can't be ambiguous
+	private static String key(String scopePath, String original) {
+		return scopePath + '\0' + original;
+	}
+
+	// the view of one file: last run's names to look up, and the names this run actually used
+	public static class ModuleNames {
+		private final String module;
+		private final Map<String, String> previous;
+		private final Map<String, String> recorded = new HashMap<>();
+		private final boolean known; // the map had the file, maybe with no entries
+		private final ModuleNames parent; // set on a fork
+
+		private ModuleNames(String module, Map<String, String> previous, boolean known, ModuleNames parent) {
+			this.module = module;
+			this.previous = previous;
+			this.known = known;
+			this.parent = parent;
+		}
+
+		// a view for one part of the file renamed on another thread: it sees what the parent recorded so far
+		// and records on its own, merge() brings that back (in a fixed order, so the result doesn't depend on timing)
+		public ModuleNames fork() {
+			return new ModuleNames(module, previous, known, this);
+		}
+
+		public void merge(ModuleNames fork) {
+			recorded.putAll(fork.recorded);
+		}
+
+		// the name this symbol already got (this run, else last run), or null for a symbol that is new
+		// sibling lambdas and redefined functions share a scope path, so they share names too (they're separate scopes)
+		public String lookup(String scopePath, String original) {
+			String key = key(scopePath, original);
+			String name = recorded.get(key);
+			if (name == null && parent != null) name = parent.recorded.get(key);
+			return name != null ? name : previous.get(key);
+		}
+
+		public void record(String scopePath, String original, String obfuscated) {
+			recorded.put(key(scopePath, original), obfuscated);
+		}
+
+		// whether an earlier run saved this file's names into the map (a new map, or one that lost the file, hasn't)
+		public boolean isKnown() {
+			return known;
+		}
+
+		// every name handed out last run, a new symbol mustn't get one of them
+		public Collection<String> previousNames() {
+			return previous.values();
+		}
+
+		// what the output of this file depends on besides the input and the config, for the result cache key
+		public String fingerprint() {
+			List<String> entries = new ArrayList<>(previous.size());
+			for (Map.Entry<String, String> entry : previous.entrySet()) {
+				entries.add(entry.getKey() + '\0' + entry.getValue());
+			}
+			entries.sort(null);
+			return String.join("\n", entries);
+		}
+	}
+}
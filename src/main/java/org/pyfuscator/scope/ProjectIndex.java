@@ -0,0 +1,424 @@
+package org.pyfuscator.scope;
+
+import org.pyfuscator.ast.ASTVisitor;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+import org.pyfuscator.utils.NameGenerator;
+import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.VariableTracker;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+// --project: one rename table for every file of --input-dir, so a renamed top-level name still imports in the other files
+// each file is indexed on its own (collect, on the indexing threads): the module level bindings the rename pass renames,
+// the functions and self.attributes it registers, and its imports of other modules
+// build() then hands out, in file order from one generator, one name per function/attribute name (the registry every
+// file starts from, so obj.method matches across files) and one per (module, top-level name)
+// the files' generators are forks of that one, so a local never takes a name the project handed out
+// module() is the view of one file: what `from pkg.mod import helper`, `import pkg.mod` + `pkg.mod.helper`,
+// `from pkg.mod import *` and `__all__` turn into
+public final class ProjectIndex {
+	private final Map<String, ModuleInfo> byModule = new HashMap<>(); // dotted module name
+	private final Map<String, ModuleInfo> byFile = new HashMap<>();   // the file's name map key (relative path)
+	private final Set<String> packages = new HashSet<>(); // every dotted prefix of a module, namespace packages too
+	private final Map<Symbol, Symbol> functions = new HashMap<>();
+	private final SymbolTable symbols;
+	private final NameGenerator names;
+	private final String fingerprint;
+
+	// a name imported from a module: `from <module> import <name>`
+	private record ImportedName(String module, Symbol name) {
+	}
+
+	// what one file contributes, collected without looking at any other file
+	public static final class ModuleInfo {
+		private final String file;
+		private final String module;
+		private final Set<String> identifiers;
+		private final List<Symbol> topLevel = new ArrayList<>(); // module level bindings the rename pass renames
+		private final Set<Symbol> topLevelDefs = new HashSet<>(); // of those, the ones bound by a def (their name is the registry's)
+		private final Set<Symbol> registered = new LinkedHashSet<>(); // functions and self.attributes, in file order
+		private final Map<Symbol, ImportedName> fromImports = new HashMap<>(); // local name -> where it comes from
+		private final List<String> starImports = new ArrayList<>();
+		private final Map<Symbol, String> moduleAliases = new HashMap<>(); // local name -> the module it names
+		private final Map<Symbol, Symbol> exports = new HashMap<>(); // filled by build()
+		private final Map<Symbol, Symbol> reexports = new HashMap<>(); // every name an importer gets from it, filled by build()
+		private final Map<Symbol, Symbol> imported = new LinkedHashMap<>(); // what its from/star imports bring in, filled by build()
+		private int stream;
+
+		private ModuleInfo(String file, String module, Set<String> identifiers) {
+			this.file = file;
+			this.module = module;
+			this.identifiers = identifiers;
+		}
+
+		// the package relative imports start from: the module itself for an __init__, its parent otherwise
+		private String packageName() {
+			if (file.endsWith("__init__.py")) return module;
+			int dot = module.lastIndexOf('.');
+			return dot >= 0 ? module.substring(0, dot) : "";
+		}
+	}
+
+	private ProjectIndex(List<ModuleInfo> modules, SymbolTable symbols, ObfuscationConfig config) {
+		this.symbols = symbols;
+		List<ModuleInfo> ordered = new ArrayList<>(modules);
+		ordered.sort(Comparator.comparing(info -> info.file));
+		names = new NameGenerator(config);
+		for (int i = 0; i < ordered.size(); i++) {
+			ModuleInfo info = ordered.get(i);
+			info.stream = i;
+			byFile.put(info.file, info);
+			byModule.put(info.module, info);
+			for (String prefix = info.module; !prefix.isEmpty(); prefix = prefix.substring(0, Math.max(prefix.lastIndexOf('.'), 0))) {
+				packages.add(prefix);
+			}
+			names.exclude(info.identifiers);
+		}
+
+		for (ModuleInfo info : ordered) {
+			for (Symbol name : info.registered) {
+				functions.computeIfAbsent(name, n -> symbols.intern(names.generate()));
+			}
+		}
+		for (ModuleInfo info : ordered) {
+			for (Symbol name : info.topLevel) {
+				Symbol exported = info.topLevelDefs.contains(name) ? functions.get(name) : symbols.intern(names.generate());
+				if (exported != null) info.exports.put(name, exported);
+			}
+		}
+
+		// every (module, name) resolves once, the lookups of the rename pass are plain map reads from here on
+		Map<String, Set<Symbol>> namesByModule = new HashMap<>();
+		for (ModuleInfo info : ordered) {
+			namesByModule.put(info.module, exportedNames(info.module, new HashSet<>()));
+		}
+		Map<ImportedName, Symbol> resolved = new HashMap<>();
+		Set<ImportedName> resolving = new HashSet<>();
+		for (ModuleInfo info : ordered) {
+			for (Symbol name : namesByModule.get(info.module)) {
+				Symbol exported = resolve(info.module, name, resolved, resolving);
+				if (exported != null) info.reexports.put(name, exported);
+			}
+		}
+		for (ModuleInfo info : ordered) {
+			for (String star : info.starImports) {
+				for (Symbol name : namesByModule.getOrDefault(star, Set.of())) {
+					Symbol exported = exported(star, name);
+					if (exported != null) info.imported.putIfAbsent(name, exported);
+				}
+			}
+			for (Map.Entry<Symbol, ImportedName> entry : info.fromImports.entrySet()) {
+				Symbol name = exported(entry.getValue().module(), entry.getValue().name());
+				if (name != null) info.imported.put(entry.getKey(), name);
+			}
+		}
+		fingerprint = digest(ordered);
+	}
+
+	// every file's ModuleInfo (from collect), the ones that failed to parse are just not there
+	public static ProjectIndex build(List<ModuleInfo> modules, SymbolTable symbols, ObfuscationConfig config) {
+		return new ProjectIndex(modules, symbols, config);
+	}
+
+	// file is the name map key of the file (path relative to the input dir, / separated)
+	public static ModuleInfo collect(String file, Node root, Set<String> identifiers, SymbolTable symbols, ObfuscationConfig config) {
+		ModuleInfo info = new ModuleInfo(file, moduleNameOf(file), identifiers);
+		VariableTracker imports = new VariableTracker(config);
+		List<Symbol> selfAttributes = new ArrayList<>();
+		Symbol self = symbols.intern("self");
+		new ASTVisitor() {
+			@Override
+			public void visitImport(Node node) {
+				for (Node alias : aliases(node)) {
+					String name = String.valueOf(alias.getField("name"));
+					Object asname = alias.getField("asname");
+					int dot = name.indexOf('.');
+					String head = dot >= 0 ? name.substring(0, dot) : name;
+					imports.trackImport(head);
+					if (asname != null) {
+						imports.trackImport(asname.toString());
+						info.moduleAliases.put(symbols.intern(asname.toString()), name); // import pkg.mod as m: m is pkg.mod
+					} else {
+						info.moduleAliases.put(symbols.intern(head), head); // import pkg.mod: pkg is pkg
+					}
+				}
+			}
+
+			@Override
+			public void visitImportFrom(Node node) {
+				String module = resolveImport(info.packageName(), node);
+				for (Node alias : aliases(node)) {
+					String name = String.valueOf(alias.getField("name"));
+					Object asname = alias.getField("asname");
+					imports.trackImport(name);
+					if (asname != null) imports.trackImport(asname.toString());
+					if (module == null) continue;
+					if (name.equals("*")) {
+						info.starImports.add(module);
+						continue;
+					}
+					Symbol local = symbols.intern(asname != null ? asname.toString() : name);
+					info.moduleAliases.put(local, module.isEmpty() ? name : module + "." + name); // a submodule, if there is one
+					if (asname == null) {
+						info.fromImports.put(local, new ImportedName(module, symbols.intern(name)));
+					}
+				}
+			}
+
+			@Override
+			public void visitFunctionDef(Node node) {
+				registerFunction(node);
+			}
+
+			@Override
+			public void visitAsyncFunctionDef(Node node) {
+				registerFunction(node);
+			}
+
+			@Override
+			public void visitAttribute(Node node) {
+				Object attribute = node.getField("attr");
+				if (attribute != null && isSelfAttribute(node, self)) {
+					selfAttributes.add(symbols.intern(attribute.toString()));
+				}
+			}
+
+			private void registerFunction(Node node) {
+				Object name = node.getField("name");
+				if (name != null && config.isRenameFunctions()) {
+					info.registered.add(symbols.intern(name.toString()));
+				}
+			}
+		}.walk(root);
+		// the same checks as the rename pass, against every import of the file (not just the ones before the name)
+		info.registered.addAll(selfAttributes);
+		info.registered.removeIf(name -> !imports.shouldRenameVariable(name.name())
+				|| imports.isSpecialMethod(name.name()) || imports.isSpecialAttribute(name.name()));
+
+		ScopeAnalysis analysis = new ScopeAnalysis(symbols).analyze(root);
+		for (int binding : analysis.bindingsOf(ScopeAnalysis.MODULE)) {
+			Symbol name = analysis.bindingName(binding);
+			if (analysis.isBoundByImport(binding) || !imports.shouldRenameVariable(name.name())) continue;
+			if (analysis.isBoundByClass(binding) && !config.isRenameClasses()) continue;
+			if (analysis.isBoundByDef(binding)) {
+				if (!config.isRenameFunctions()) continue;
+				info.topLevelDefs.add(name);
+			}
+			info.topLevel.add(name);
+		}
+		return info;
+	}
+
+	// the view of one file, null for a file the index doesn't know (it failed to parse)
+	public Module module(String file) {
+		ModuleInfo info = byFile.get(file);
+		return info != null ? new Module(info) : null;
+	}
+
+	// pkg/mod.py -> pkg.mod, pkg/__init__.py -> pkg
+	static String moduleNameOf(String file) {
+		String path = file.endsWith(".py") ? file.substring(0, file.length() - 3) : file;
+		if (path.equals("__init__")) return "";
+		if (path.endsWith("/__init__")) path = path.substring(0, path.length() - "/__init__".length());
+		return path.replace('/', '.');
+	}
+
+	// the absolute module of an ImportFrom, `from ..a import b` seen from pkg.sub.mod is pkg.a
+	private static String resolveImport(String packageName, Node importFrom) {
+		Object moduleField = importFrom.getField("module");
+		String module = moduleField != null ? moduleField.toString() : "";
+		int level = parseLevel(importFrom.getField("level"));
+		if (level == 0) return module;
+		String base = packageName;
+		for (int i = 1; i < level; i++) {
+			if (base.isEmpty()) return null; // above the input dir
+			int dot = base.lastIndexOf('.');
+			base = dot >= 0 ? base.substring(0, dot) : "";
+		}
+		if (base.isEmpty()) return module;
+		return module.isEmpty() ? base : base + "." + module;
+	}
+
+	private static int parseLevel(Object level) {
+		if (level == null) return 0;
+		try {
+			return (int) Double.parseDouble(level.toString());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static List<Node> aliases(Node node) {
+		List<Node> aliases = new ArrayList<>();
+		for (Node child : node.getChildren()) {
+			if (child != null && child.is(NodeType.ALIAS)) aliases.add(child);
+		}
+		return aliases;
+	}
+
+	private static boolean isSelfAttribute(Node node, Symbol self) {
+		for (Node child : node.getChildren()) {
+			if (child != null && child.is(NodeType.NAME) && child.getField("id") == self) return true;
+		}
+		return false;
+	}
+
+	// the name a module's top-level name got, following re-exports; null if it keeps its name or isn't one of ours
+	private Symbol exported(String module, Symbol name) {
+		ModuleInfo info = byModule.get(module);
+		return info != null ? info.reexports.get(name) : null;
+	}
+
+	// exported() while build() fills it in: each (module, name) is looked up once, and one that is still being
+	// looked up further down (an import cycle, `from . import a` in a module the package star-imports) is null there
+	private Symbol resolve(String module, Symbol name, Map<ImportedName, Symbol> resolved, Set<ImportedName> resolving) {
+		ModuleInfo info = byModule.get(module);
+		if (info == null) return null;
+		Symbol own = info.exports.get(name);
+		if (own != null) return own;
+		ImportedName key = new ImportedName(module, name);
+		if (resolved.containsKey(key)) return resolved.get(key);
+		if (!resolving.add(key)) return null;
+		Symbol result = null;
+		ImportedName from = info.fromImports.get(name);
+		if (from != null) {
+			result = resolve(from.module(), from.name(), resolved, resolving);
+		} else {
+			for (String star : info.starImports) {
+				result = resolve(star, name, resolved, resolving);
+				if (result != null) break;
+			}
+		}
+		resolving.remove(key);
+		resolved.put(key, result);
+		return result;
+	}
+
+	// the top-level names of a module, its own and the ones it imports from other modules of ours (what a star import may bring in)
+	private Set<Symbol> exportedNames(String module, Set<String> seen) {
+		Set<Symbol> result = new LinkedHashSet<>();
+		ModuleInfo info = byModule.get(module);
+		if (info == null || !seen.add(module)) return result;
+		result.addAll(info.exports.keySet());
+		result.addAll(info.fromImports.keySet());
+		for (String star : info.starImports) {
+			result.addAll(exportedNames(star, seen));
+		}
+		return result;
+	}
+
+	// everything a file's output depends on besides the file itself, for the result cache key
+	private static String digest(List<ModuleInfo> ordered) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (ModuleInfo info : ordered) {
+				digest.update((info.file + '\0').getBytes(StandardCharsets.UTF_8));
+				for (String identifier : new TreeSet<>(info.identifiers)) {
+					digest.update((identifier + '\0').getBytes(StandardCharsets.UTF_8));
+				}
+				for (Symbol name : info.registered) {
+					digest.update((name.name() + '\0').getBytes(StandardCharsets.UTF_8));
+				}
+				for (Symbol name : info.topLevel) {
+					digest.update((name.name() + '\0').getBytes(StandardCharsets.UTF_8));
+				}
+				// re-exports decide what the importers of this file get
+				TreeSet<String> reexports = new TreeSet<>();
+				info.fromImports.forEach((local, from) -> reexports.add(local + "=" + from.module() + "." + from.name()));
+				for (String reexport : reexports) {
+					digest.update((reexport + '\0').getBytes(StandardCharsets.UTF_8));
+				}
+				digest.update(String.join(",", info.starImports).getBytes(StandardCharsets.UTF_8));
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("no SHA-256", e);
+		}
+	}
+
+	// what the rename pass of one file asks the index
+	public final class Module {
+		private final ModuleInfo info;
+
+		private Module(ModuleInfo info) {
+			this.info = info;
+		}
+
+		// a fork of the project's generator, its names never clash with the project's
+		// (it already skips every identifier of the project, so the file's own don't have to be excluded)
+		public NameGenerator nameGenerator() {
+			return names.fork(info.stream);
+		}
+
+		// a registry that starts out with every function and self.attribute name of the project
+		public ScopeManager scopeManager() {
+			return new ScopeManager(functions);
+		}
+
+		// the name of a module level binding of this file: the project's, or the one of the definition it imports
+		// null if it keeps its name
+		public Symbol exportName(Symbol name) {
+			Symbol importedName = info.imported.get(name);
+			return importedName != null ? importedName : info.exports.get(name);
+		}
+
+		// a name this file uses without binding it, that a from/star import brings in
+		public Symbol importedName(Symbol name) {
+			return info.imported.get(name);
+		}
+
+		// the module of ours a from-import imports from, null for anything else
+		public String importedModule(Node importFrom) {
+			String module = resolveImport(info.packageName(), importFrom);
+			return module != null && byModule.containsKey(module) ? module : null;
+		}
+
+		// the name `from module import name` / `module.name` has to use
+		public Symbol exportedBy(String module, Symbol name) {
+			return exported(module, name);
+		}
+
+		// the module (or package) of ours an expression stands for: a name an import bound, or attributes of one
+		public String moduleOf(Node expression) {
+			String module = null;
+			if (expression.is(NodeType.NAME)) {
+				Object id = expression.getField("id");
+				module = id instanceof Symbol symbol ? info.moduleAliases.get(symbol) : null;
+			} else if (expression.is(NodeType.ATTRIBUTE)) {
+				for (Node child : expression.getChildren()) {
+					if (child != null && "value".equals(child.getParentField())) {
+						String parent = moduleOf(child);
+						module = parent != null ? parent + "." + expression.getField("attr") : null;
+					}
+				}
+			}
+			return module != null && packages.contains(module) ? module : null;
+		}
+
+		// whether any other file of the project has this identifier (imports it, uses it as an attribute, ...)
+		public boolean usedByOtherFiles(String name) {
+			for (ModuleInfo other : byFile.values()) {
+				if (other != info && other.identifiers.contains(name)) return true;
+			}
+			return false;
+		}
+
+		public String fingerprint() {
+			return fingerprint + ":" + info.stream;
+		}
+	}
+}
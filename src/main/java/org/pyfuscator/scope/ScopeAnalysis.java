@@ -0,0 +1,404 @@
+package org.pyfuscator.scope;
+
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// what CPython's symtable works out, for a whole file before anything gets renamed
+// collecting (enter/exit on every node, in walk order) notes per scope which names are bound, declared global/nonlocal or used;
+// finish() then resolves every (scope, name) once, by python's rules, to the scope that binds it:
+//   global x       -> the module's x
+//   nonlocal x     -> x of the nearest enclosing function that binds it
+//   bound here     -> local (functions, lambdas, classes, the module)
+//   otherwise free -> the nearest enclosing function binding it (class bodies are skipped), then the module, else unresolved
+// imports bind too: `import a.b` binds a, `import a.b as c` and `from a import b as c` bind c (a star import binds nothing)
+// so a use before the binding (a call to a function further down) finds it, and `global x; x = 1` in a function binds the module's x
+// unresolved names (builtins, star imports, typos) resolve to -1 and keep their name
+// scopes are functions, lambdas, classes and comprehensions (python 3: `[n for n in ...]` doesn't touch the n around it)
+// a comprehension's first iterable is evaluated in the enclosing scope, a walrus in it binds in the nearest non comprehension scope
+// all (scope, name) entries of the file live in one open addressing table of flat arrays, resolve() is one probe
+public final class ScopeAnalysis {
+	public static final int MODULE = 0;
+	public static final int UNRESOLVED = -1;
+
+	// entry flags
+	private static final int BOUND = 1;
+	private static final int GLOBAL = 2;
+	private static final int NONLOCAL = 4;
+	private static final int DEF = 8;        // bound by a def
+	private static final int CLASS_DEF = 16; // bound by a class
+	private static final int USED = 32;
+	private static final int IMPORT = 64;    // bound by an import
+
+	private static final byte FUNCTION = 1;
+	private static final byte CLASS = 2;
+	private static final byte COMPREHENSION = 3; // a function as far as lookups go
+
+	private final SymbolTable symbols; // the head of a dotted `import a.b` is interned here
+
+	// scopes by index, the module is 0
+	private final List<Node> scopeNodes = new ArrayList<>();
+	private final List<String> scopePaths = new ArrayList<>(); // Outer.method, "" for the module
+	private int[] scopeParents = new int[16];
+	private byte[] scopeKinds = new byte[16];
+	private final Map<Node, Integer> scopeOfNode = new IdentityHashMap<>();
+
+	// (scope, symbol) entries
+	private long[] keys;
+	private int[] flags;
+	private Symbol[] names;
+	private int[] resolved; // slot of the binding entry, filled by finish()
+	private int size;
+	// slots of the binding entries in the order they were first bound, so naming them in order is deterministic
+	private long[] bindingOrder = new long[16];
+	private int bindings;
+
+	// scope each open node is evaluated in, while collecting
+	private int[] context = new int[64];
+	private int depth;
+	private boolean finished;
+
+	public ScopeAnalysis(SymbolTable symbols) {
+		this.symbols = symbols;
+		allocate(64);
+		scopeNodes.add(null);
+		scopePaths.add("");
+	}
+
+	// collects a whole tree on its own walk
+	public ScopeAnalysis analyze(Node root) {
+		root.walk(this::enter, this::exit);
+		finish();
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return size == 0 && scopeNodes.size() == 1;
+	}
+
+	public void enter(Node node) {
+		int scope = scopeFor(node, depth > 0 ? context[depth - 1] : MODULE);
+		if (depth == context.length) context = Arrays.copyOf(context, depth * 2);
+		context[depth++] = scope;
+
+		switch (node.getNodeType()) {
+			case NAME -> {
+				NodeType ctx = node.getContext();
+				boolean bound = ctx == NodeType.STORE || ctx == NodeType.DEL;
+				note(bound && isWalrusTarget(node) ? walrusScope(scope) : scope, node.getField("id"), bound ? BOUND : USED);
+			}
+			case ARG -> note(scope, node.getField("arg"), BOUND);
+			case FUNCTION_DEF, ASYNC_FUNCTION_DEF -> {
+				note(scope, node.getField("name"), BOUND | DEF);
+				newScope(node, scope, FUNCTION, String.valueOf(node.getField("name")));
+			}
+			case LAMBDA -> newScope(node, scope, FUNCTION, "<lambda>");
+			case LIST_COMP -> newScope(node, scope, COMPREHENSION, "<listcomp>");
+			case SET_COMP -> newScope(node, scope, COMPREHENSION, "<setcomp>");
+			case DICT_COMP -> newScope(node, scope, COMPREHENSION, "<dictcomp>");
+			case GENERATOR_EXP -> newScope(node, scope, COMPREHENSION, "<genexpr>");
+			case CLASS_DEF -> {
+				note(scope, node.getField("name"), BOUND | CLASS_DEF);
+				newScope(node, scope, CLASS, String.valueOf(node.getField("name")));
+			}
+			case EXCEPT_HANDLER, MATCH_AS, MATCH_STAR -> note(scope, node.getField("name"), BOUND);
+			case MATCH_MAPPING -> note(scope, node.getField("rest"), BOUND);
+			case ALIAS -> note(scope, importedAs(node), BOUND | IMPORT);
+			case GLOBAL -> noteAll(scope, node.getField("names"), GLOBAL);
+			case NONLOCAL -> noteAll(scope, node.getField("names"), NONLOCAL);
+			default -> {
+			}
+		}
+	}
+
+	public void exit(Node node) {
+		depth--;
+	}
+
+	// the scope a node is evaluated in, given the one its parent is evaluated in
+	// a def's decorators, defaults, annotations and return annotation belong to the enclosing scope, the args and body to its own;
+	// a class's bases and keywords to the enclosing one, the body to its own
+	// a comprehension's parts to its own, except the iterable of its first generator
+	public int scopeFor(Node node, int parentScope) {
+		Node parent = node.getParent();
+		if (parent == null) return MODULE;
+		switch (parent.getNodeType()) {
+			case FUNCTION_DEF, ASYNC_FUNCTION_DEF -> {
+				String field = node.getParentField();
+				return "decorator_list".equals(field) || "returns".equals(field) ? parentScope : innerScope(parent, parentScope);
+			}
+			case LAMBDA -> {
+				return innerScope(parent, parentScope);
+			}
+			case CLASS_DEF -> {
+				return "body".equals(node.getParentField()) ? innerScope(parent, parentScope) : parentScope;
+			}
+			case LIST_COMP, SET_COMP, DICT_COMP, GENERATOR_EXP -> {
+				return innerScope(parent, parentScope);
+			}
+			case COMPREHENSION -> {
+				Integer comprehension = scopeOfNode.get(parent.getParent());
+				boolean outerIterable = "iter".equals(node.getParentField()) && isFirstGenerator(parent)
+						&& comprehension != null && comprehension == parentScope;
+				return outerIterable ? parentOf(parentScope) : parentScope;
+			}
+			case ARGUMENTS -> {
+				String field = node.getParentField();
+				return "defaults".equals(field) || "kw_defaults".equals(field) ? parentOf(parentScope) : parentScope;
+			}
+			case ARG -> {
+				return "annotation".equals(node.getParentField()) ? parentOf(parentScope) : parentScope;
+			}
+			default -> {
+				return parentScope;
+			}
+		}
+	}
+
+	private int innerScope(Node scopeNode, int fallback) {
+		Integer scope = scopeOfNode.get(scopeNode);
+		return scope != null ? scope : fallback; // a def added after the analysis stays in its parent's scope
+	}
+
+	private static boolean isFirstGenerator(Node generator) {
+		Node owner = generator.getParent();
+		if (owner == null) return false;
+		for (Node child : owner.getChildren()) {
+			if (child != null && "generators".equals(child.getParentField())) return child == generator;
+		}
+		return false;
+	}
+
+	private static boolean isWalrusTarget(Node name) {
+		Node parent = name.getParent();
+		return parent != null && parent.is(NodeType.NAMED_EXPR) && "target".equals(name.getParentField());
+	}
+
+	// the scope `(x := ...)` binds x in: the comprehensions it is in don't count
+	private int walrusScope(int scope) {
+		while (scope != MODULE && scopeKinds[scope] == COMPREHENSION) {
+			scope = parentOf(scope);
+		}
+		return scope;
+	}
+
+	public int scopeCount() {
+		return scopeNodes.size();
+	}
+
+	public int parentOf(int scope) {
+		return scope == MODULE ? MODULE : scopeParents[scope];
+	}
+
+	public String scopePath(int scope) {
+		return scopePaths.get(scope);
+	}
+
+	// the binding (scope and name) a name refers to in a scope, UNRESOLVED if nothing in the file binds it
+	// a name the collection didn't see in that scope (added to the tree since) is looked up the long way
+	public int resolve(int scope, Symbol name) {
+		finish();
+		int slot = find(scope, name);
+		return slot >= 0 ? resolved[slot] : lookupFree(scope, name);
+	}
+
+	// room for binding ids, they index arrays of this size
+	public int bindingCapacity() {
+		finish();
+		return keys.length;
+	}
+
+	public Symbol bindingName(int binding) {
+		return names[binding];
+	}
+
+	public int bindingScope(int binding) {
+		return (int) (keys[binding] >>> 32);
+	}
+
+	public boolean isBoundByDef(int binding) {
+		return (flags[binding] & DEF) != 0;
+	}
+
+	public boolean isBoundByClass(int binding) {
+		return (flags[binding] & CLASS_DEF) != 0;
+	}
+
+	public boolean isBoundByImport(int binding) {
+		return (flags[binding] & IMPORT) != 0;
+	}
+
+	// the bindings of a scope, in the order they were first bound
+	public int[] bindingsOf(int scope) {
+		finish();
+		int[] result = new int[bindings];
+		int count = 0;
+		for (int i = 0; i < bindings; i++) {
+			int slot = find(bindingOrder[i]);
+			if (bindingScope(slot) == scope && resolved[slot] == slot) result[count++] = slot;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	// resolves every entry, once the whole tree has been collected
+	public void finish() {
+		if (finished) return;
+		finished = true;
+		// `global x` plus a binding of x anywhere binds the module's x
+		// (in binding order, symbol ids and so the table order differ between runs; noted after the loop, it may grow the table)
+		List<Symbol> globalNames = new ArrayList<>();
+		List<Integer> globalFlags = new ArrayList<>();
+		for (int i = 0; i < bindings; i++) {
+			int slot = find(bindingOrder[i]);
+			if ((flags[slot] & GLOBAL) != 0 && bindingScope(slot) != MODULE) {
+				globalNames.add(names[slot]);
+				globalFlags.add(BOUND | (flags[slot] & (DEF | CLASS_DEF | IMPORT)));
+			}
+		}
+		for (int i = 0; i < globalNames.size(); i++) {
+			note(MODULE, globalNames.get(i), globalFlags.get(i));
+		}
+		resolved = new int[keys.length];
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] >= 0) {
+				resolved[slot] = resolveEntry((int) (keys[slot] >>> 32), names[slot], flags[slot], slot);
+			}
+		}
+	}
+
+	private int resolveEntry(int scope, Symbol name, int entryFlags, int slot) {
+		if (scope != MODULE && (entryFlags & GLOBAL) != 0) return moduleBinding(name);
+		if (scope != MODULE && (entryFlags & NONLOCAL) != 0) return enclosingFunctionBinding(parentOf(scope), name);
+		if ((entryFlags & BOUND) != 0) return slot;
+		return lookupFree(scope, name);
+	}
+
+	// a name the scope uses without binding it: enclosing functions (not classes), then the module
+	private int lookupFree(int scope, Symbol name) {
+		if (scope == MODULE) return moduleBinding(name);
+		return enclosingFunctionBinding(parentOf(scope), name);
+	}
+
+	private int enclosingFunctionBinding(int scope, Symbol name) {
+		for (; scope != MODULE; scope = parentOf(scope)) {
+			if (scopeKinds[scope] == CLASS) continue;
+			int slot = find(scope, name);
+			if (slot < 0) continue;
+			if ((flags[slot] & GLOBAL) != 0) return moduleBinding(name);
+			if ((flags[slot] & NONLOCAL) == 0 && (flags[slot] & BOUND) != 0) return slot;
+		}
+		return moduleBinding(name);
+	}
+
+	private int moduleBinding(Symbol name) {
+		int slot = find(MODULE, name);
+		return slot >= 0 && (flags[slot] & BOUND) != 0 ? slot : UNRESOLVED;
+	}
+
+	private void newScope(Node node, int parent, byte kind, String name) {
+		int scope = scopeNodes.size();
+		if (scope == scopeParents.length) {
+			scopeParents = Arrays.copyOf(scopeParents, scope * 2);
+			scopeKinds = Arrays.copyOf(scopeKinds, scope * 2);
+		}
+		scopeNodes.add(node);
+		scopeParents[scope] = parent;
+		scopeKinds[scope] = kind;
+		String parentPath = scopePaths.get(parent);
+		scopePaths.add(parentPath.isEmpty() ? name : parentPath + "." + name);
+		scopeOfNode.put(node, scope);
+	}
+
+	// the name an import alias binds, null for a star import
+	private Object importedAs(Node alias) {
+		Object asname = alias.getField("asname");
+		if (asname != null) return asname;
+		Object name = alias.getField("name");
+		if (name == null || "*".equals(name.toString())) return null;
+		Node parent = alias.getParent();
+		if (parent == null || !parent.is(NodeType.IMPORT)) return name;
+		String dotted = name.toString();
+		int dot = dotted.indexOf('.');
+		return dot >= 0 ? symbols.intern(dotted.substring(0, dot)) : name;
+	}
+
+	private void noteAll(int scope, Object names, int flag) {
+		if (names instanceof List<?> list) {
+			for (Object name : list) note(scope, name, flag);
+		}
+	}
+
+	private void note(int scope, Object field, int flag) {
+		if (!(field instanceof Symbol name)) return; // null (except without `as`) or a hand built node
+		long key = key(scope, name);
+		int slot = slotFor(key);
+		if (keys[slot] < 0) {
+			keys[slot] = key;
+			names[slot] = name;
+			if (++size * 2 > keys.length) {
+				grow();
+				slot = find(key);
+			}
+		}
+		if ((flag & BOUND) != 0 && (flags[slot] & BOUND) == 0) {
+			if (bindings == bindingOrder.length) bindingOrder = Arrays.copyOf(bindingOrder, bindings * 2);
+			bindingOrder[bindings++] = key;
+		}
+		flags[slot] |= flag;
+	}
+
+	private static long key(int scope, Symbol name) {
+		return ((long) scope << 32) | (name.id() & 0xFFFFFFFFL);
+	}
+
+	private int find(int scope, Symbol name) {
+		return find(key(scope, name));
+	}
+
+	private int find(long key) {
+		int slot = slotFor(key);
+		return keys[slot] == key ? slot : -1;
+	}
+
+	// the slot holding key, or the empty one it would go in
+	private int slotFor(long key) {
+		int mask = keys.length - 1;
+		int slot = (int) (mix(key) & mask);
+		while (keys[slot] >= 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static long mix(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return key ^ (key >>> 29);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, -1);
+		flags = new int[capacity];
+		names = new Symbol[capacity];
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldFlags = flags;
+		Symbol[] oldNames = names;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] >= 0) {
+				int slot = slotFor(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				flags[slot] = oldFlags[i];
+				names[slot] = oldNames[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package org.pyfuscator.scope;
+
+// an interned identifier, there is exactly one Symbol per name in a SymbolTable
+// so identity is equality and the id is a free, collision free hash
+public final class Symbol {
+	private final int id;
+	private final String name;
+
+	Symbol(int id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	public int id() {
+		return id;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return this == other;
+	}
+
+	// the writer serializes fields with toString, so this has to stay the plain name
+	@Override
+	public String toString() {
+		return name;
+	}
+}
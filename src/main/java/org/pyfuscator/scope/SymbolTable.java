@@ -0,0 +1,28 @@
+package org.pyfuscator.scope;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// identifiers of a whole run (every file of a directory shares it), handed out as Symbols with small ids
+// the loader interns identifier fields here, the scope maps and the rename pass only ever hash the ids
+// thread safe, directory mode loads files concurrently
+// never pruned, it lives for one run: --watch swaps in a new table for every rebuild (ObfuscationContext.newSymbolTable)
+public class SymbolTable {
+	private final ConcurrentHashMap<String, Symbol> symbols = new ConcurrentHashMap<>();
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	public Symbol intern(String name) {
+		Symbol symbol = symbols.get(name); // lock free for the usual case of a name we've seen
+		if (symbol != null) return symbol;
+		return symbols.computeIfAbsent(name, n -> new Symbol(nextId.getAndIncrement(), n));
+	}
+
+	// null stays null so optional fields (alias.asname, keyword.arg) can be interned blindly
+	public Symbol internOrNull(String name) {
+		return name != null ? intern(name) : null;
+	}
+
+	public int size() {
+		return nextId.get();
+	}
+}
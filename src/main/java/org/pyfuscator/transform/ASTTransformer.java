@@ -1,26 +1,147 @@
 package org.pyfuscator.transform;
 
 import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.NameMap;
+import org.pyfuscator.scope.ProjectIndex;
+import org.pyfuscator.scope.ScopeManager;
+import org.pyfuscator.scope.SymbolTable;
+import org.pyfuscator.transform.passes.ConstantFoldingPass;
+import org.pyfuscator.transform.passes.DeadCodePass;
+import org.pyfuscator.transform.passes.ParallelRenamePass;
+import org.pyfuscator.transform.passes.ScopeAnalysisPass;
+import org.pyfuscator.transform.passes.ShortNamePass;
+import org.pyfuscator.transform.passes.VariableRenamePass;
+import org.pyfuscator.utils.NameGenerator;
+import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.StageStats;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 // basic template for AST transformation
+// passes run in the order they were added, fusable ones share a walk of the tree where their dependencies allow (see planWalks)
 public class ASTTransformer {
 	private final List<TransformationPass> passes = new ArrayList<>();
 
+	// the passes enabled by the config, with fresh per file state (scopes, used names)
+	// names is the file's view of the --name-map (null without one), identifiers are the ones of the input (JsonASTLoader.getIdentifiers)
+	// project is the file's view of the --project index (null without one), names and registry then come from there
+	public static ASTTransformer forConfig(ObfuscationConfig config, SymbolTable symbols, NameMap.ModuleNames names, Set<String> identifiers,
+										   ProjectIndex.Module project) {
+		ASTTransformer transformer = new ASTTransformer();
+		NameGenerator nameGenerator;
+		ScopeManager scopeManager;
+		if (project != null) {
+			nameGenerator = project.nameGenerator(); // skips the identifiers of every file already
+			scopeManager = project.scopeManager();
+		} else {
+			nameGenerator = new NameGenerator(config);
+			nameGenerator.exclude(identifiers);
+			scopeManager = new ScopeManager();
+		}
+		VariableRenamePass rename = new VariableRenamePass(scopeManager, nameGenerator, symbols, names, project, config);
+		if (config.isFoldConstants()) {
+			transformer.addPass(new ConstantFoldingPass()); // shares the scope analysis walk
+		}
+		if (config.isRemoveDeadCode()) {
+			transformer.addPass(new DeadCodePass(project)); // after folding, so folded tests count as constants
+		}
+		transformer.addPass(new ScopeAnalysisPass(rename.getScopeAnalysis()));
+		transformer.addPass(config.isParallelRename() ? new ParallelRenamePass(rename, ForkJoinPool.commonPool()) : rename);
+		if (config.isShortNames()) {
+			transformer.addPass(new ShortNamePass(rename, symbols));
+		}
+		return transformer;
+	}
+
 	public void addPass(TransformationPass pass) {
 		passes.add(pass);
 	}
 
 	public Node transform(Node rootNode) {
 		Node currentNode = rootNode;
-		for (TransformationPass pass : passes) {
-			currentNode = pass.apply(currentNode);
+		for (List<TransformationPass> walk : planWalks()) {
+			currentNode = run(walk, currentNode);
+		}
+		return currentNode;
+	}
+
+	// same thing, with every walk of file as a stage of its own (in the --stats report and as a flight recorder event)
+	// fused passes share their walk's numbers, the stage is named after all of them (VariableRenamePass+...)
+	public Node transform(Node rootNode, StageStats stats, String file) throws Exception {
+		Node currentNode = rootNode;
+		for (List<TransformationPass> walk : planWalks()) {
+			Node input = currentNode;
+			currentNode = stats.time(stageName(walk), file, input, () -> run(walk, input));
+			for (TransformationPass pass : walk) {
+				pass.reportStats(stats);
+			}
 		}
 		return currentNode;
 	}
 
+	// the passes in order, cut into walks: neighbouring fusable passes share one unless a pass depends on one already in it
+	// a pass that isn't fusable always walks (or does whatever it does) on its own
+	public List<List<TransformationPass>> planWalks() {
+		List<List<TransformationPass>> walks = new ArrayList<>();
+		List<TransformationPass> current = null;
+		for (int i = 0; i < passes.size(); i++) {
+			TransformationPass pass = passes.get(i);
+			if (!(pass instanceof FusablePass fusable)) {
+				walks.add(List.of(pass));
+				current = null;
+				continue;
+			}
+			checkOrder(fusable, i);
+			if (current == null || dependsOnAny(fusable, current)) {
+				current = new ArrayList<>();
+				walks.add(current);
+			}
+			current.add(pass);
+		}
+		return walks;
+	}
+
+	private static Node run(List<TransformationPass> walk, Node rootNode) {
+		if (walk.size() == 1) {
+			return walk.get(0).apply(rootNode);
+		}
+		TraversalHooks hooks = new TraversalHooks();
+		for (TransformationPass pass : walk) {
+			((FusablePass) pass).register(hooks);
+		}
+		hooks.walk(rootNode);
+		return rootNode;
+	}
+
+	// a dependency added after the pass that needs it is a bug in whoever built the pass list
+	private void checkOrder(FusablePass pass, int index) {
+		for (int i = index + 1; i < passes.size(); i++) {
+			if (pass.dependsOn().contains(passes.get(i).getClass())) {
+				throw new IllegalStateException(pass.getClass().getSimpleName() + " has to run after "
+						+ passes.get(i).getClass().getSimpleName());
+			}
+		}
+	}
+
+	private static boolean dependsOnAny(FusablePass pass, List<TransformationPass> walk) {
+		for (TransformationPass other : walk) {
+			if (pass.dependsOn().contains(other.getClass())) return true;
+		}
+		return false;
+	}
+
+	private static String stageName(List<TransformationPass> walk) {
+		StringBuilder name = new StringBuilder();
+		for (TransformationPass pass : walk) {
+			if (!name.isEmpty()) name.append('+');
+			name.append(pass.getClass().getSimpleName());
+		}
+		return name.toString();
+	}
+
 	public List<TransformationPass> getPasses() {
 		return passes;
 	}
@@ -0,0 +1,27 @@
+package org.pyfuscator.transform;
+
+import org.pyfuscator.ast.Node;
+
+import java.util.Set;
+
+// a pass that only reacts to nodes as the walk goes by, so ASTTransformer can run it in the same walk as its neighbours
+// it changes the tree in place (the root stays the root), and on a node it sees what the passes before it in the walk did there
+public abstract class FusablePass extends TransformationPass {
+	// adds this pass's enter/exit hooks, called once per walk
+	public abstract void register(TraversalHooks hooks);
+
+	// passes that have to be done with the whole tree before this one starts, they never share a walk with it
+	// (a pass that needs every binding of a file, not just the ones before the current node, depends on the pass making them)
+	public Set<Class<? extends TransformationPass>> dependsOn() {
+		return Set.of();
+	}
+
+	// on its own it is a walk of its own
+	@Override
+	public Node apply(Node rootNode) {
+		TraversalHooks hooks = new TraversalHooks();
+		register(hooks);
+		hooks.walk(rootNode);
+		return rootNode;
+	}
+}
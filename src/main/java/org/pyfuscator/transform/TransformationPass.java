@@ -1,8 +1,13 @@
 package org.pyfuscator.transform;
 
 import org.pyfuscator.ast.Node;
+import org.pyfuscator.utils.StageStats;
 
 // template for passes
 public abstract class TransformationPass {
 	public abstract Node apply(Node node);
+
+	// --stats: adds what the pass counted (scopes, renames, ...) after apply, nothing by default
+	public void reportStats(StageStats stats) {
+	}
 }
@@ -1,75 +1,299 @@
 package org.pyfuscator.transform;
 
-import org.pyfuscator.scope.ScopeManager;
-import org.pyfuscator.transform.passes.VariableRenamePass;
-import org.pyfuscator.utils.NameGenerator;
+import org.pyfuscator.ast.JsonASTLoader;
+import org.pyfuscator.ast.JsonASTWriter;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.NameMap;
+import org.pyfuscator.scope.ProjectIndex;
+import org.pyfuscator.scope.SymbolTable;
 import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.ObfuscationContext;
+import org.pyfuscator.utils.PythonWorkerPool;
+import org.pyfuscator.utils.ResultCache;
+import org.pyfuscator.utils.RunPython;
+import org.pyfuscator.utils.RunStats;
+import org.pyfuscator.utils.StageStats;
 
-// unused class, it should do what main does currently but im lazy
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// does what Main.obfuscateFile does, but as stages connected by bounded queues:
+// parse -> transform -> emit, where parse streams python's json into the loader and emit streams the writer into python
+// (with --keep-temp the json goes through files and load/serialize become stages of their own)
+// so python can parse file n+1 while java transforms file n and python unparses file n-1
+// the queues are small and put() blocks when they are full, so only a handful of ASTs are alive at once
 public class TransformationPipeline {
+	// marks the end of the input for a stage thread
+	private static final FileJob END = new FileJob(null, null, null);
 
-	// prefixes for when i was going to make this class work so i can just reference it for this.configvar = var
-    /*"varLength=" + varLength +
-                ", varPrefix='" + varPrefix + '\'' +
-                ", preserveBuiltins=" + preserveBuiltins +
-                ", preserveImports=" + preserveImports +
-                ", inputFile='" + inputFile + '\'' +
-                ", outputFile='" + outputFile + '\'' +
-                ", keepTemp=" + keepTemp +
-                ", verbose=" + verbose +
-                ", renameFunctions=" + renameFunctions +
-                ", renameClasses=" + renameClasses +
-                ", foldConstants=" + foldConstants +
-                ", removeDeadCode=" + removeDeadCode +
-                ", obfuscateStrings=" + obfuscateStrings +
-     */
-/*
-    private final ObfuscationConfig config;
-    private final long seed;
-    private final int varLength;
-    private final String varPrefix;
-    private final boolean preserveBuiltins;
-    private final boolean preserveImports;
-    private final String inputFile;
-    private final String outputFile;
-    private final boolean keepTemp;
-    private final boolean verbose;
-    private final boolean renameFunctions;
-    private final boolean renameClasses;
-    private final boolean foldConstants;
-    private final boolean removeDeadCode;
-    private final boolean obfuscateStrings;
-*/
+	private final ObfuscationContext context;
 	private final ObfuscationConfig config;
+	private final PythonWorkerPool pool;
+	private final SymbolTable symbols;
+	private final ResultCache cache;
+	private final RunStats stats;
+	private final StageStats stageStats;
+
+	public TransformationPipeline(ObfuscationContext context) {
+		this.context = context;
+		this.config = context.getConfig();
+		this.pool = context.getPool();
+		this.symbols = context.getSymbols();
+		this.cache = context.getCache();
+		this.stats = context.getStats();
+		this.stageStats = context.getStageStats();
+	}
+
+	// runs every job through the stages and returns them (in completion order) once they are all done
+	public List<FileJob> run(List<FileJob> jobs) throws InterruptedException {
+		int pythonThreads = pool != null ? pool.size() : 1;
+		int javaThreads = config.getJobs();
+		ConcurrentLinkedQueue<FileJob> finished = new ConcurrentLinkedQueue<>();
+
+		List<Stage> stages = new ArrayList<>();
+		if (config.isKeepTemp()) {
+			Stage emit = new Stage("emit", pythonThreads, this::emitFromFile, null);
+			Stage serialize = new Stage("serialize", javaThreads, this::serialize, emit);
+			Stage transform = new Stage("transform", javaThreads, this::transform, serialize);
+			Stage load = new Stage("load", javaThreads, this::load, transform);
+			stages.addAll(List.of(new Stage("parse", pythonThreads, this::parseToFile, load), load, transform, serialize, emit));
+		} else {
+			Stage emit = new Stage("emit", pythonThreads, this::emit, null);
+			Stage transform = new Stage("transform", javaThreads, this::transform, emit);
+			stages.addAll(List.of(new Stage("parse", pythonThreads, this::parse, transform), transform, emit));
+		}
+		Stage parse = stages.get(0);
+
+		List<Thread> threads = new ArrayList<>();
+		for (Stage stage : stages) {
+			threads.addAll(stage.start(finished));
+		}
+
+		try {
+			for (FileJob job : jobs) {
+				if (takeFromCache(job)) {
+					finished.add(job); // never enters the stages
+					continue;
+				}
+				parse.queue.put(job); // blocks while the parse stage is backed up
+			}
+			parse.end();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} finally {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+		}
+		return new ArrayList<>(finished);
+	}
+
+	// hits are copied right here, misses remember their key so emit can store the result
+	private boolean takeFromCache(FileJob job) {
+		job.names = context.moduleNames(job.module);
+		job.project = context.project(job.module);
+		if (cache == null) return false;
+		try {
+			job.cacheKey = context.cacheKey(job.input, job.names, job.project);
+			return context.mayUseCache(job.names) && cache.copyTo(job.cacheKey, job.output);
+		} catch (Exception e) {
+			job.error = e;
+			return true;
+		}
+	}
 
-	public TransformationPipeline(ObfuscationConfig config) {
-        /*
-        this.config = config;
-        this.seed = config.getSeed();
-        this.varLength = config.getVarLength();
-        this.varPrefix = config.getVarPrefix();
-        this.preserveBuiltins = config.isPreserveBuiltins();
-        this.preserveImports = config.isPreserveImports();
-        this.inputFile = config.getInputFile();
-        this.outputFile = config.getOutputFile();
-        this.keepTemp = config.isKeepTemp();
-        this.verbose = config.isVerbose();
-        this.renameFunctions = config.isRenameFunctions();
-        this.renameClasses = config.isRenameClasses();
-        this.foldConstants = config.isFoldConstants();
-        this.removeDeadCode = config.isRemoveDeadCode();
-        this.obfuscateStrings = config.isObfuscateStrings();
-         */
-		this.config = config;
+	private void parse(FileJob job) throws Exception {
+		String input = job.input.toAbsolutePath().toString();
+		JsonASTLoader loader = new JsonASTLoader(symbols);
+		job.ast = stageStats.parse(input, loader::load, reader -> RunPython.parse(pool, input, config.getAstFormat(), reader));
+		job.identifiers = loader.getIdentifiers();
+		stageStats.countTree(job.ast);
 	}
 
-	// unused method
-	public void renameVariables() {
-		NameGenerator nameGenerator = new NameGenerator(this.config.getSeed(), this.config.getVarPrefix(), this.config.getVarLength());
-		ASTTransformer transformer = new ASTTransformer();
-		// Add VariableRenamePass to the transformer
-		transformer.addPass(new VariableRenamePass(new ScopeManager(), nameGenerator, this.config)); // scopemanager null will be fixed later
+	private void parseToFile(FileJob job) throws Exception {
+		job.tempJsonPath = job.input.toAbsolutePath() + "-temp.json";
+		stageStats.time(StageStats.PARSE, job.input.toString(), null, () -> {
+			RunPython.parse(pool, job.input.toAbsolutePath().toString(), job.tempJsonPath);
+			return null;
+		});
+	}
+
+	private void load(FileJob job) throws Exception {
+		JsonASTLoader loader = new JsonASTLoader(symbols);
+		job.ast = stageStats.time(StageStats.LOAD, job.input.toString(), null, () -> loader.loadFromFile(new File(job.tempJsonPath)));
+		job.identifiers = loader.getIdentifiers();
+		stageStats.countTree(job.ast);
+	}
+
+	private void transform(FileJob job) throws Exception {
+		job.ast = ASTTransformer.forConfig(config, symbols, job.names, job.identifiers, job.project).transform(job.ast, stageStats, job.input.toString());
+		job.identifiers = null;
+	}
+
+	private void serialize(FileJob job) throws Exception {
+		job.transformedJsonPath = job.output.toAbsolutePath() + "-temp.json";
+		Files.createDirectories(job.output.toAbsolutePath().getParent());
+		Node ast = job.ast;
+		stageStats.time(StageStats.WRITE, job.input.toString(), ast, () -> {
+			new JsonASTWriter(true).writeToFile(ast, job.transformedJsonPath);
+			return null;
+		});
+		job.ast = null; // the tree isn't needed anymore, let it go before python gets to it
+	}
+
+	private void emit(FileJob job) throws Exception {
+		Node ast = job.ast;
+		job.ast = null;
+		Files.createDirectories(job.output.toAbsolutePath().getParent());
+		String output = job.output.toAbsolutePath().toString();
+		stageStats.unparse(job.input.toString(), ast, out -> new JsonASTWriter(config.getAstFormat(), false).write(ast, out), writer -> {
+			RunPython.unparse(pool, output, writer);
+			return null;
+		});
+		storeInCache(job);
+	}
 
+	private void emitFromFile(FileJob job) throws Exception {
+		stageStats.time(StageStats.UNPARSE, job.input.toString(), null, () -> {
+			RunPython.unparse(pool, job.transformedJsonPath, job.output.toAbsolutePath().toString());
+			return null;
+		});
+		storeInCache(job);
 	}
 
+	private void storeInCache(FileJob job) {
+		context.commit(job.names);
+		if (job.cacheKey != null) {
+			cache.put(job.cacheKey, job.output);
+		}
+	}
+
+	// drop the tree, whether the job made it or not (temp files only exist with --keep-temp, and then they stay)
+	private void cleanUp(FileJob job) {
+		job.ast = null;
+	}
+
+	@FunctionalInterface
+	private interface StageWork {
+		void process(FileJob job) throws Exception;
+	}
+
+	// one stage = a bounded input queue and the threads taking from it
+	private class Stage {
+		private final String name;
+		private final int threadCount;
+		private final StageWork work;
+		private final Stage next;
+		private final BlockingQueue<FileJob> queue;
+
+		Stage(String name, int threadCount, StageWork work, Stage next) {
+			this.name = name;
+			this.threadCount = threadCount;
+			this.work = work;
+			this.next = next;
+			this.queue = new ArrayBlockingQueue<>(config.getQueueDepth());
+		}
+
+		// one END per thread so every thread of the stage sees one
+		void end() throws InterruptedException {
+			for (int i = 0; i < threadCount; i++) {
+				queue.put(END);
+			}
+		}
+
+		// failed jobs drop out of the pipeline right away, the caller reports them from the returned list
+		// the last thread of a stage to finish passes the END on to the next stage
+		List<Thread> start(ConcurrentLinkedQueue<FileJob> finished) {
+			AtomicInteger running = new AtomicInteger(threadCount);
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++) {
+				Thread thread = new Thread(() -> {
+					try {
+						while (true) {
+							FileJob job = queue.take();
+							if (job == END) break;
+							if (job.started == 0) job.started = System.nanoTime();
+							long cpuStart = RunStats.threadCpuNanos();
+							try {
+								work.process(job);
+							} catch (Throwable e) {
+								job.error = e; // a dead stage thread would hang the whole pipeline, so deep trees and OOMs fail the file too
+							}
+							job.javaCpuNanos += RunStats.threadCpuNanos() - cpuStart;
+							if (next != null && job.error == null) {
+								next.queue.put(job);
+							} else {
+								cleanUp(job);
+								// the wall time includes the queues, that's the latency a file sees in a pipeline
+								stats.record(job.module, System.nanoTime() - job.started, job.javaCpuNanos, job.error != null);
+								finished.add(job);
+							}
+						}
+						if (running.decrementAndGet() == 0 && next != null) {
+							next.end();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}, "pipeline-" + name + "-" + i);
+				thread.setDaemon(true);
+				thread.start();
+				threads.add(thread);
+			}
+			return threads;
+		}
+	}
+
+	// a file on its way through the stages
+	public static class FileJob {
+		private final Path input;
+		private final Path output;
+		private final String module;
+		private NameMap.ModuleNames names;
+		private ProjectIndex.Module project;
+		private String tempJsonPath;
+		private String transformedJsonPath;
+		private String cacheKey;
+		private long started; // first stage picked it up
+		private long javaCpuNanos;
+		private Node ast;
+		private Set<String> identifiers; // of the input, new names skip them
+		private Throwable error;
+
+		public FileJob(Path input, Path output, String module) {
+			this.input = input;
+			this.output = output;
+			this.module = module;
+		}
+
+		public Path getInput() {
+			return input;
+		}
+
+		public Path getOutput() {
+			return output;
+		}
+
+		public String getModule() {
+			return module;
+		}
+
+		// null if the file made it through every stage
+		public Throwable getError() {
+			return error;
+		}
+
+		public void fail(Throwable error) {
+			this.error = error;
+		}
+	}
 }
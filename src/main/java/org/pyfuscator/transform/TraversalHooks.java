@@ -0,0 +1,66 @@
+package org.pyfuscator.transform;
+
+import org.pyfuscator.ast.ASTVisitor;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// enter/exit callbacks keyed by NodeType, what a FusablePass registers instead of walking the tree itself
+// several passes register into the same hooks and the tree is walked once for all of them
+// on a node, enter hooks run in registration order and exit hooks in reverse, as if each pass had its own walk around the later ones
+public class TraversalHooks {
+	private static final NodeType[] TYPES = NodeType.values();
+
+	private final List<List<Consumer<Node>>> enter = new ArrayList<>();
+	private final List<List<Consumer<Node>>> exit = new ArrayList<>();
+
+	public TraversalHooks() {
+		for (int i = 0; i < TYPES.length; i++) {
+			enter.add(new ArrayList<>());
+			exit.add(new ArrayList<>());
+		}
+	}
+
+	public TraversalHooks onEnter(Consumer<Node> hook, NodeType... types) {
+		for (NodeType type : types) {
+			enter.get(type.ordinal()).add(hook);
+		}
+		return this;
+	}
+
+	public TraversalHooks onExit(Consumer<Node> hook, NodeType... types) {
+		for (NodeType type : types) {
+			exit.get(type.ordinal()).add(0, hook);
+		}
+		return this;
+	}
+
+	// for passes that look at every node (UNKNOWN included)
+	public TraversalHooks onEnterAny(Consumer<Node> hook) {
+		return onEnter(hook, TYPES);
+	}
+
+	public TraversalHooks onExitAny(Consumer<Node> hook) {
+		return onExit(hook, TYPES);
+	}
+
+	// a visitor sees every node and does its own dispatch, one switch per node
+	public TraversalHooks onVisit(ASTVisitor visitor) {
+		return onEnterAny(visitor::enter).onExitAny(visitor::exit);
+	}
+
+	// one walk over the tree, node types nobody registered for cost a list lookup
+	public void walk(Node root) {
+		root.walk(node -> run(enter, node), node -> run(exit, node));
+	}
+
+	private static void run(List<List<Consumer<Node>>> hooks, Node node) {
+		List<Consumer<Node>> forType = hooks.get(node.getNodeType().ordinal());
+		for (int i = 0; i < forType.size(); i++) {
+			forType.get(i).accept(node);
+		}
+	}
+}
@@ -0,0 +1,536 @@
+package org.pyfuscator.transform.passes;
+
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+import org.pyfuscator.transform.FusablePass;
+import org.pyfuscator.transform.TraversalHooks;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// --fold-constants: BinOp, UnaryOp, BoolOp and Compare nodes whose operands are constants become the constant python would get
+// folds on exit, so (1 + 2) * 3 is 3 * 3 by the time the outer BinOp is looked at
+// values while folding are what the loader gives a Constant (null = None, Boolean, Long/BigInteger, Double, String),
+// a List is a tuple of them
+// anything python would raise on (1 / 0, "a" + 1, 1 < "a") or where java's math isn't python's (float **) is left alone
+public class ConstantFoldingPass extends FusablePass {
+	// the limits of cpython's own ast optimizer, a result past them stays an expression ("a" * 10**9 is never expanded)
+	private static final int MAX_INT_BITS = 128;
+	private static final int MAX_STR_LENGTH = 4096;
+	private static final int MAX_TUPLE_LENGTH = 256;
+	private static final int MAX_EXACT_DOUBLE_BITS = 53;
+
+	private static final Object NOT_CONSTANT = new Object(); // null is None
+
+	@Override
+	public void register(TraversalHooks hooks) {
+		hooks.onExit(this::fold, NodeType.BIN_OP, NodeType.UNARY_OP, NodeType.BOOL_OP, NodeType.COMPARE);
+	}
+
+	private void fold(Node node) {
+		Node parent = node.getParent();
+		// an expression statement's value is thrown away, and a folded string there would turn into a docstring
+		if (parent == null || parent.is(NodeType.EXPR)) return;
+
+		Object value = switch (node.getNodeType()) {
+			case BIN_OP -> binOp(opOf(node), valueOf(child(node, "left")), valueOf(child(node, "right")));
+			case UNARY_OP -> isNegativeNumber(node) ? NOT_CONSTANT : unaryOp(opOf(node), valueOf(child(node, "operand")));
+			case COMPARE -> compare(node);
+			default -> {
+				foldBoolOp(node, parent);
+				yield NOT_CONSTANT;
+			}
+		};
+		if (value == NOT_CONSTANT) return;
+		Node replacement = toNode(value);
+		if (replacement != null) {
+			parent.replaceChild(node, replacement);
+		}
+	}
+
+	// a and b is the first falsy operand (or the last one), a or b the first truthy one
+	// constants in front are decided here, "1 and f()" is f(), "0 and f()" is 0
+	// operands after the deciding one are dropped unless dropping them would change the scope they are in (walrus, yield)
+	private void foldBoolOp(Node node, Node parent) {
+		boolean and = opOf(node) == NodeType.AND;
+		List<Node> values = children(node, "values");
+		int skipped = 0;
+		for (Node operand : values) {
+			Object value = valueOf(operand);
+			if (value == NOT_CONSTANT) break;
+			boolean last = skipped == values.size() - 1;
+			if (isTruthy(value) != and || last) {
+				for (Node dropped : values.subList(skipped + 1, values.size())) {
+					if (!isDroppable(dropped)) return;
+				}
+				parent.replaceChild(node, operand);
+				return;
+			}
+			skipped++;
+		}
+		if (skipped == 0) return;
+		if (skipped == values.size() - 1) {
+			parent.replaceChild(node, values.get(skipped));
+			return;
+		}
+		for (Node operand : values.subList(0, skipped)) {
+			node.removeChild(operand);
+		}
+	}
+
+	private static boolean isDroppable(Node subtree) {
+		boolean[] droppable = {true};
+		subtree.walk(node -> {
+			switch (node.getNodeType()) {
+				case NAMED_EXPR, YIELD, YIELD_FROM, AWAIT -> droppable[0] = false;
+				default -> {}
+			}
+		}, node -> {});
+		return droppable[0];
+	}
+
+	// the value of a constant expression, NOT_CONSTANT otherwise
+	// -5 is UnaryOp(USub, 5) in the source and that is how folded negative numbers are written too
+	private static Object valueOf(Node node) {
+		if (node == null) return NOT_CONSTANT;
+		switch (node.getNodeType()) {
+			case CONSTANT -> {
+				Object value = node.getField("value");
+				return value == null || value instanceof Boolean || value instanceof Long || value instanceof BigInteger
+						|| value instanceof Double || value instanceof String ? value : NOT_CONSTANT;
+			}
+			case UNARY_OP -> {
+				return isNegativeNumber(node) ? unaryOp(NodeType.USUB, valueOf(child(node, "operand"))) : NOT_CONSTANT;
+			}
+			case TUPLE -> {
+				if (node.getContext() != NodeType.LOAD) return NOT_CONSTANT;
+				List<Object> elements = new ArrayList<>();
+				for (Node element : children(node, "elts")) {
+					Object value = valueOf(element);
+					if (value == NOT_CONSTANT) return NOT_CONSTANT;
+					elements.add(value);
+				}
+				return Collections.unmodifiableList(elements);
+			}
+			default -> {
+				return NOT_CONSTANT;
+			}
+		}
+	}
+
+	// the truth value of a constant expression, null if it isn't one (DeadCodePass asks this of if/while tests)
+	static Boolean truthOf(Node node) {
+		Object value = valueOf(node);
+		return value == NOT_CONSTANT ? null : isTruthy(value);
+	}
+
+	private static boolean isNegativeNumber(Node node) {
+		if (opOf(node) != NodeType.USUB) return false;
+		Node operand = child(node, "operand");
+		if (operand == null || !operand.is(NodeType.CONSTANT)) return false;
+		Object value = operand.getField("value");
+		return value instanceof Long || value instanceof BigInteger || value instanceof Double;
+	}
+
+	private static Object binOp(NodeType op, Object left, Object right) {
+		if (left == NOT_CONSTANT || right == NOT_CONSTANT) return NOT_CONSTANT;
+		if (left instanceof String a && right instanceof String b) {
+			return op == NodeType.ADD && a.length() + b.length() <= MAX_STR_LENGTH ? a + b : NOT_CONSTANT;
+		}
+		if (left instanceof List<?> a && right instanceof List<?> b) {
+			if (op != NodeType.ADD || a.size() + b.size() > MAX_TUPLE_LENGTH) return NOT_CONSTANT;
+			List<Object> joined = new ArrayList<>(a);
+			joined.addAll(b);
+			return Collections.unmodifiableList(joined);
+		}
+		if (op == NodeType.MULT && (left instanceof String || left instanceof List<?>) && isInt(right)) {
+			return repeat(left, toBigInteger(right));
+		}
+		if (op == NodeType.MULT && isInt(left) && (right instanceof String || right instanceof List<?>)) {
+			return repeat(right, toBigInteger(left));
+		}
+		if (left instanceof Boolean a && right instanceof Boolean b) {
+			// &, | and ^ of two bools stay a bool, everything else treats them as 0 and 1
+			switch (op) {
+				case BIT_AND -> { return a & b; }
+				case BIT_OR -> { return a | b; }
+				case BIT_XOR -> { return a ^ b; }
+				default -> {}
+			}
+		}
+		if (isInt(left) && isInt(right)) {
+			return intOp(op, toBigInteger(left), toBigInteger(right));
+		}
+		if (isNumber(left) && isNumber(right)) {
+			double a = toDouble(left);
+			double b = toDouble(right);
+			if (Double.isInfinite(a) && !(left instanceof Double) || Double.isInfinite(b) && !(right instanceof Double)) {
+				return NOT_CONSTANT; // an int too large for a float, python raises OverflowError
+			}
+			return floatOp(op, a, b);
+		}
+		return NOT_CONSTANT;
+	}
+
+	private static Object intOp(NodeType op, BigInteger a, BigInteger b) {
+		switch (op) {
+			case ADD -> { return intResult(a.add(b)); }
+			case SUB -> { return intResult(a.subtract(b)); }
+			case MULT -> {
+				if (a.bitLength() + b.bitLength() > MAX_INT_BITS + 1) return NOT_CONSTANT;
+				return intResult(a.multiply(b));
+			}
+			case DIV -> {
+				// int / int is the correctly rounded quotient, which is what double division gives while both are exact
+				if (b.signum() == 0 || a.bitLength() > MAX_EXACT_DOUBLE_BITS || b.bitLength() > MAX_EXACT_DOUBLE_BITS) return NOT_CONSTANT;
+				return a.doubleValue() / b.doubleValue();
+			}
+			case FLOOR_DIV -> {
+				if (b.signum() == 0) return NOT_CONSTANT;
+				BigInteger[] quotientAndRemainder = a.divideAndRemainder(b);
+				BigInteger quotient = quotientAndRemainder[0];
+				if (quotientAndRemainder[1].signum() != 0 && quotientAndRemainder[1].signum() != b.signum()) {
+					quotient = quotient.subtract(BigInteger.ONE); // python rounds down, java towards zero
+				}
+				return intResult(quotient);
+			}
+			case MOD -> {
+				if (b.signum() == 0) return NOT_CONSTANT;
+				BigInteger remainder = a.remainder(b);
+				if (remainder.signum() != 0 && remainder.signum() != b.signum()) {
+					remainder = remainder.add(b); // takes the sign of the divisor in python
+				}
+				return intResult(remainder);
+			}
+			case POW -> {
+				// a negative exponent gives a float, and the float ** isn't java's Math.pow
+				if (b.signum() < 0 || b.bitLength() > 31) return NOT_CONSTANT;
+				if ((long) a.bitLength() * b.intValue() > MAX_INT_BITS) return NOT_CONSTANT;
+				return intResult(a.pow(b.intValue()));
+			}
+			case LSHIFT -> {
+				if (b.signum() < 0 || b.bitLength() > 31) return NOT_CONSTANT;
+				if ((long) a.bitLength() + b.intValue() > MAX_INT_BITS) return NOT_CONSTANT;
+				return intResult(a.shiftLeft(b.intValue()));
+			}
+			case RSHIFT -> {
+				if (b.signum() < 0) return NOT_CONSTANT;
+				if (b.bitLength() > 31) return intResult(a.signum() < 0 ? BigInteger.ONE.negate() : BigInteger.ZERO);
+				return intResult(a.shiftRight(b.intValue())); // rounds down like python's >>
+			}
+			case BIT_AND -> { return intResult(a.and(b)); }
+			case BIT_OR -> { return intResult(a.or(b)); }
+			case BIT_XOR -> { return intResult(a.xor(b)); }
+			default -> { return NOT_CONSTANT; }
+		}
+	}
+
+	private static Object floatOp(NodeType op, double a, double b) {
+		double result;
+		switch (op) {
+			case ADD -> result = a + b;
+			case SUB -> result = a - b;
+			case MULT -> result = a * b;
+			case DIV -> {
+				if (b == 0.0) return NOT_CONSTANT;
+				result = a / b;
+			}
+			case MOD -> {
+				if (b == 0.0) return NOT_CONSTANT;
+				result = floatMod(a, b);
+			}
+			case FLOOR_DIV -> {
+				if (b == 0.0) return NOT_CONSTANT;
+				result = floatFloorDiv(a, b);
+			}
+			default -> { return NOT_CONSTANT; }
+		}
+		return Double.isFinite(result) ? result : NOT_CONSTANT;
+	}
+
+	// float % and // the way cpython's float_rem/float_floor_div do it (java's % is C's fmod)
+	private static double floatMod(double a, double b) {
+		double mod = a % b;
+		if (mod != 0.0) {
+			if ((b < 0) != (mod < 0)) mod += b;
+		} else {
+			mod = Math.copySign(0.0, b);
+		}
+		return mod;
+	}
+
+	private static double floatFloorDiv(double a, double b) {
+		double mod = a % b;
+		double div = (a - mod) / b;
+		if (mod != 0.0 && (b < 0) != (mod < 0)) {
+			div -= 1.0;
+		}
+		if (div == 0.0) {
+			return Math.copySign(0.0, a / b);
+		}
+		double floor = Math.floor(div);
+		return div - floor > 0.5 ? floor + 1.0 : floor;
+	}
+
+	private static Object repeat(Object sequence, BigInteger times) {
+		int length = sequence instanceof String text ? text.length() : ((List<?>) sequence).size();
+		int limit = sequence instanceof String ? MAX_STR_LENGTH : MAX_TUPLE_LENGTH;
+		if (times.bitLength() > 63) return NOT_CONSTANT; // not a Py_ssize_t, python raises OverflowError even for "" * 2**64
+		int count = times.signum() <= 0 || length == 0 ? 0 : times.bitLength() > 31 ? Integer.MAX_VALUE : times.intValue();
+		if ((long) length * count > limit) return NOT_CONSTANT;
+		if (sequence instanceof String text) return text.repeat(count);
+		List<Object> repeated = new ArrayList<>(length * count);
+		for (int i = 0; i < count; i++) {
+			repeated.addAll((List<?>) sequence);
+		}
+		return Collections.unmodifiableList(repeated);
+	}
+
+	private static Object unaryOp(NodeType op, Object value) {
+		if (value == NOT_CONSTANT) return NOT_CONSTANT;
+		if (op == NodeType.NOT) return !isTruthy(value);
+		if (value instanceof Double number) {
+			return switch (op) {
+				case USUB -> -number;
+				case UADD -> number;
+				default -> NOT_CONSTANT;
+			};
+		}
+		if (!isInt(value)) return NOT_CONSTANT;
+		BigInteger number = toBigInteger(value);
+		return switch (op) {
+			case USUB -> intResult(number.negate());
+			case UADD -> intResult(number);
+			case INVERT -> intResult(number.not());
+			default -> NOT_CONSTANT;
+		};
+	}
+
+	// a < b < c is a < b and b < c, the first false pair decides it (python never looks at the rest)
+	// the comparators after it are dropped, so like with and/or only if that doesn't change the scope (walrus, yield)
+	private static Object compare(Node node) {
+		List<Node> ops = children(node, "ops");
+		List<Node> comparators = children(node, "comparators");
+		if (ops.size() != comparators.size()) return NOT_CONSTANT;
+		Object left = valueOf(child(node, "left"));
+		for (int i = 0; i < ops.size(); i++) {
+			Object right = valueOf(comparators.get(i));
+			Object result = compareOp(ops.get(i).getNodeType(), left, right);
+			if (result != Boolean.TRUE) {
+				if (result == NOT_CONSTANT) return result;
+				for (Node dropped : comparators.subList(i + 1, comparators.size())) {
+					if (!isDroppable(dropped)) return NOT_CONSTANT;
+				}
+				return result;
+			}
+			left = right;
+		}
+		return Boolean.TRUE;
+	}
+
+	private static Object compareOp(NodeType op, Object left, Object right) {
+		if (left == NOT_CONSTANT || right == NOT_CONSTANT) return NOT_CONSTANT;
+		switch (op) {
+			case EQ -> { return isEqual(left, right); }
+			case NOT_EQ -> { return !isEqual(left, right); }
+			case LT, LT_E, GT, GT_E -> {
+				Integer order = order(left, right);
+				if (order == null) return NOT_CONSTANT;
+				if (order == Integer.MIN_VALUE) return false; // nan
+				return switch (op) {
+					case LT -> order < 0;
+					case LT_E -> order <= 0;
+					case GT -> order > 0;
+					default -> order >= 0;
+				};
+			}
+			case IS, IS_NOT -> {
+				// only the singletons have an identity you can count on
+				if (!(left == null || left instanceof Boolean) || !(right == null || right instanceof Boolean)) return NOT_CONSTANT;
+				return (op == NodeType.IS) == Objects.equals(left, right);
+			}
+			case IN, NOT_IN -> {
+				Boolean contained;
+				if (right instanceof String text && left instanceof String part) {
+					contained = text.contains(part);
+				} else if (right instanceof List<?> elements) {
+					contained = false;
+					for (Object element : elements) {
+						if (isEqual(left, element)) {
+							contained = true;
+							break;
+						}
+					}
+				} else {
+					return NOT_CONSTANT;
+				}
+				return (op == NodeType.IN) == contained;
+			}
+			default -> { return NOT_CONSTANT; }
+		}
+	}
+
+	private static boolean isEqual(Object left, Object right) {
+		if (isNumber(left) && isNumber(right)) {
+			Integer order = order(left, right);
+			return order != null && order == 0;
+		}
+		if (left instanceof List<?> a && right instanceof List<?> b) {
+			if (a.size() != b.size()) return false;
+			for (int i = 0; i < a.size(); i++) {
+				if (!isEqual(a.get(i), b.get(i))) return false;
+			}
+			return true;
+		}
+		return Objects.equals(left, right); // None, strings, and different types are never equal
+	}
+
+	// the sign of left - right, MIN_VALUE if a nan is involved, null where python raises (1 < "a")
+	private static Integer order(Object left, Object right) {
+		if (left instanceof String a && right instanceof String b) {
+			return compareCodePoints(a, b);
+		}
+		if (!isNumber(left) || !isNumber(right)) return null;
+		if (isInt(left) && isInt(right)) {
+			return toBigInteger(left).compareTo(toBigInteger(right));
+		}
+		if (left instanceof Double a && a.isNaN() || right instanceof Double b && b.isNaN()) {
+			return Integer.MIN_VALUE;
+		}
+		int leftInfinity = infinity(left);
+		int rightInfinity = infinity(right);
+		if (leftInfinity != 0 || rightInfinity != 0) {
+			return Integer.compare(leftInfinity, rightInfinity);
+		}
+		// python compares ints and floats exactly, 2**53 + 1 != 2.0**53
+		return toBigDecimal(left).compareTo(toBigDecimal(right));
+	}
+
+	private static int compareCodePoints(String a, String b) {
+		int i = 0;
+		int j = 0;
+		while (i < a.length() && j < b.length()) {
+			int x = a.codePointAt(i);
+			int y = b.codePointAt(j);
+			if (x != y) return Integer.compare(x, y);
+			i += Character.charCount(x);
+			j += Character.charCount(y);
+		}
+		return Integer.compare(a.length() - i, b.length() - j);
+	}
+
+	private static int infinity(Object number) {
+		return number instanceof Double value && value.isInfinite() ? (value > 0 ? 1 : -1) : 0;
+	}
+
+	private static boolean isTruthy(Object value) {
+		if (value == null) return false;
+		if (value instanceof Boolean bool) return bool;
+		if (value instanceof Double number) return number != 0.0;
+		if (value instanceof String text) return !text.isEmpty();
+		if (value instanceof List<?> elements) return !elements.isEmpty();
+		return toBigInteger(value).signum() != 0;
+	}
+
+	private static boolean isInt(Object value) {
+		return value instanceof Long || value instanceof BigInteger || value instanceof Boolean;
+	}
+
+	private static boolean isNumber(Object value) {
+		return isInt(value) || value instanceof Double;
+	}
+
+	private static BigInteger toBigInteger(Object value) {
+		if (value instanceof Boolean bool) return bool ? BigInteger.ONE : BigInteger.ZERO;
+		if (value instanceof BigInteger big) return big;
+		return BigInteger.valueOf((Long) value);
+	}
+
+	private static double toDouble(Object value) {
+		return value instanceof Double number ? number : toBigInteger(value).doubleValue();
+	}
+
+	private static BigDecimal toBigDecimal(Object value) {
+		return value instanceof Double number ? new BigDecimal(number) : new BigDecimal(toBigInteger(value));
+	}
+
+	private static Object intResult(BigInteger value) {
+		return value.bitLength() > MAX_INT_BITS ? NOT_CONSTANT : normalize(value);
+	}
+
+	// Long while it fits, like the loader
+	private static Object normalize(BigInteger value) {
+		return value.bitLength() < Long.SIZE ? (Object) value.longValue() : value;
+	}
+
+	// the node for a folded value, null if it has none (inf/nan have no literal)
+	private static Node toNode(Object value) {
+		if (value instanceof Double number) {
+			if (!Double.isFinite(number)) return null;
+			if (number < 0 || (number == 0.0 && 1 / number < 0)) return negative(constant(-number));
+			return constant(number);
+		}
+		if (value instanceof Long || value instanceof BigInteger) {
+			BigInteger number = toBigInteger(value);
+			if (number.signum() < 0) return negative(constant(normalize(number.negate())));
+			return constant(value);
+		}
+		if (value instanceof List<?> elements) {
+			Node tuple = new Node(NodeType.TUPLE);
+			if (elements.isEmpty()) {
+				tuple.addField("_empty_array_elts", true);
+			}
+			for (Object element : elements) {
+				Node elementNode = toNode(element);
+				if (elementNode == null) return null;
+				tuple.addChild(elementNode);
+				elementNode.setParentField("elts");
+			}
+			tuple.addField("ctx.type", NodeType.LOAD.pythonName());
+			return tuple;
+		}
+		return constant(value);
+	}
+
+	private static Node constant(Object value) {
+		Node constant = new Node(NodeType.CONSTANT);
+		constant.addField("value", value);
+		constant.addField("kind", null);
+		return constant;
+	}
+
+	// -x as the parser would have it, a negative Constant would lose its parentheses in (-5) ** x
+	private static Node negative(Node operand) {
+		Node unary = new Node(NodeType.UNARY_OP);
+		Node op = new Node(NodeType.USUB);
+		unary.addChild(op);
+		op.setParentField("op");
+		unary.addChild(operand);
+		operand.setParentField("operand");
+		return unary;
+	}
+
+	private static NodeType opOf(Node node) {
+		Node op = child(node, "op");
+		return op != null ? op.getNodeType() : NodeType.UNKNOWN;
+	}
+
+	private static Node child(Node node, String field) {
+		for (Node child : node.getChildren()) {
+			if (field.equals(child.getParentField())) return child;
+		}
+		return null;
+	}
+
+	private static List<Node> children(Node node, String field) {
+		List<Node> found = new ArrayList<>();
+		for (Node child : node.getChildren()) {
+			if (field.equals(child.getParentField())) found.add(child);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,320 @@
+package org.pyfuscator.transform.passes;
+
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+import org.pyfuscator.scope.ProjectIndex;
+import org.pyfuscator.scope.Symbol;
+import org.pyfuscator.transform.FusablePass;
+import org.pyfuscator.transform.TraversalHooks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// --remove-dead-code: drops what can never run
+// - statements after a return/raise/break/continue of the same block
+// - the branch of an if with a constant test that isn't taken (if False: ...), and while loops with a falsy constant test
+//   (with --fold-constants that includes tests like 1 + 1 == 3, folding is done with them by the time a block is looked at)
+// - module level private functions (_name, no decorators) nothing in the file refers to; in --project mode nothing in
+//   the other files either, a file outside the run that imports one isn't seen
+// runs on exit of the node owning the block, so the blocks inside it are done already
+// dead code still decides what is local to a function (def f(): print(x); return; x = 1 raises), so a statement only goes
+// if the function/class doesn't notice: no global/nonlocal/yield in it, and every name it binds is bound elsewhere too or
+// not used anywhere else. module level names are globals either way, so there everything dead goes
+public class DeadCodePass extends FusablePass {
+	private static final Set<String> BLOCKS = Set.of("body", "orelse", "finalbody");
+
+	private final ProjectIndex.Module project;
+	private final Map<Node, Names> scopes = new IdentityHashMap<>();
+
+	public DeadCodePass(ProjectIndex.Module project) {
+		this.project = project;
+	}
+
+	// the names a scope binds and uses, in live code (dropped statements are taken out as they go)
+	private static final class Names {
+		final Map<String, Integer> bound = new HashMap<>();
+		final Map<String, Integer> used = new HashMap<>();
+
+		void add(Names other, int sign) {
+			other.bound.forEach((name, count) -> bound.merge(name, sign * count, Integer::sum));
+			other.used.forEach((name, count) -> used.merge(name, sign * count, Integer::sum));
+		}
+	}
+
+	@Override
+	public void register(TraversalHooks hooks) {
+		hooks.onExit(this::pruneBlocks, NodeType.FUNCTION_DEF, NodeType.ASYNC_FUNCTION_DEF, NodeType.CLASS_DEF,
+				NodeType.IF, NodeType.FOR, NodeType.ASYNC_FOR, NodeType.WHILE, NodeType.WITH, NodeType.ASYNC_WITH,
+				NodeType.TRY, NodeType.TRY_STAR, NodeType.EXCEPT_HANDLER, NodeType.MATCH_CASE);
+		hooks.onExit(module -> {
+			pruneBlocks(module);
+			removeUnusedPrivateFunctions(module);
+			scopes.clear(); // the module is the last node of the walk
+		}, NodeType.MODULE);
+	}
+
+	private void pruneBlocks(Node owner) {
+		Node scope = scopeOf(owner);
+		for (String block : BLOCKS) {
+			List<Node> statements = children(owner, block);
+			if (statements.isEmpty()) continue;
+			boolean hadDocstring = isDocstring(statements.get(0));
+
+			for (Node statement : statements) {
+				if (statement.is(NodeType.IF) || statement.is(NodeType.WHILE)) {
+					pruneConstantTest(owner, statement, scope);
+				}
+			}
+
+			boolean unreachable = false;
+			for (Node statement : children(owner, block)) {
+				if (unreachable) {
+					if (drop(List.of(statement), scope)) owner.removeChild(statement);
+					continue;
+				}
+				switch (statement.getNodeType()) {
+					case RETURN, RAISE, BREAK, CONTINUE -> unreachable = true;
+					default -> {}
+				}
+			}
+
+			fixBlock(owner, block, hadDocstring);
+		}
+	}
+
+	// a block left empty gets a pass (or stays empty where python allows it), and a string statement that ended up
+	// first in a body would become the docstring, so it gets a pass in front
+	private static void fixBlock(Node owner, String block, boolean hadDocstring) {
+		List<Node> statements = children(owner, block);
+		if (statements.isEmpty()) {
+			if (owner.is(NodeType.MODULE) || block.equals("orelse")) {
+				owner.addField("_empty_array_" + block, true);
+			} else {
+				Node pass = new Node(NodeType.PASS);
+				owner.addChild(pass);
+				pass.setParentField(block);
+			}
+		} else if (!hadDocstring && block.equals("body") && ownsDocstring(owner) && isDocstring(statements.get(0))) {
+			owner.replaceChild(statements.get(0), List.of(new Node(NodeType.PASS), statements.get(0)));
+		}
+	}
+
+	// if True: a else: b is a, if False: a else: b is b, while False: a else: b is b
+	private void pruneConstantTest(Node owner, Node statement, Node scope) {
+		Boolean truth = ConstantFoldingPass.truthOf(child(statement, "test"));
+		if (truth == null || (truth && statement.is(NodeType.WHILE))) return;
+		List<Node> taken = children(statement, truth ? "body" : "orelse");
+		if (!drop(children(statement, truth ? "orelse" : "body"), scope)) return;
+		owner.replaceChild(statement, taken);
+	}
+
+	// whether statements can go, and if so takes their names out of the scope's
+	private boolean drop(List<Node> statements, Node scope) {
+		if (scope.is(NodeType.MODULE)) return true;
+		Names dead = new Names();
+		for (Node statement : statements) {
+			if (!collect(statement, dead)) return false;
+		}
+		Names live = namesOf(scope);
+		for (Map.Entry<String, Integer> binding : dead.bound.entrySet()) {
+			String name = binding.getKey();
+			boolean boundElsewhere = live.bound.getOrDefault(name, 0) > binding.getValue();
+			boolean usedElsewhere = live.used.getOrDefault(name, 0) > dead.used.getOrDefault(name, 0);
+			if (!boundElsewhere && usedElsewhere) return false;
+		}
+		live.add(dead, -1);
+		return true;
+	}
+
+	private Names namesOf(Node scope) {
+		return scopes.computeIfAbsent(scope, s -> {
+			Names names = new Names();
+			for (Node child : s.getChildren()) {
+				if ("body".equals(child.getParentField())) {
+					collect(child, names);
+				} else if (child.is(NodeType.ARGUMENTS)) {
+					for (Node argument : child.getChildren()) {
+						if (argument.is(NodeType.ARG)) count(names.bound, argument.getField("arg"));
+					}
+				}
+			}
+			return names;
+		});
+	}
+
+	// adds the names a statement binds in its scope and every name it uses (nested functions and classes included,
+	// anything they mention may need the binding), false if it has a global/nonlocal/yield of the scope
+	private static boolean collect(Node statement, Names names) {
+		boolean droppable = true;
+		Deque<Node> stack = new ArrayDeque<>();
+		Deque<Boolean> nested = new ArrayDeque<>();
+		stack.push(statement);
+		nested.push(false);
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			boolean inner = nested.pop();
+			String skip = null; // the field of this node that binds in another scope (a body, a comprehension's target)
+			switch (node.getNodeType()) {
+				case NAME -> {
+					NodeType context = node.getContext();
+					boolean binds = context == NodeType.STORE || context == NodeType.DEL;
+					count(binds && !inner ? names.bound : names.used, node.getField("id"));
+				}
+				case GLOBAL, NONLOCAL -> {
+					if (!inner) droppable = false;
+					Object declared = node.getField("names");
+					if (declared instanceof List<?> list) list.forEach(name -> count(names.used, name));
+				}
+				case YIELD, YIELD_FROM -> droppable &= inner;
+				case FUNCTION_DEF, ASYNC_FUNCTION_DEF, CLASS_DEF -> {
+					if (!inner) count(names.bound, node.getField("name"));
+					skip = "body";
+				}
+				case LAMBDA -> skip = "body";
+				case COMPREHENSION -> skip = "target";
+				case ALIAS -> {
+					if (!inner) count(names.bound, importedName(node));
+				}
+				case EXCEPT_HANDLER, MATCH_AS, MATCH_STAR -> {
+					if (!inner) count(names.bound, node.getField("name"));
+				}
+				case MATCH_MAPPING -> {
+					if (!inner) count(names.bound, node.getField("rest"));
+				}
+				default -> {}
+			}
+			for (Node child : node.getChildren()) {
+				if (child == null) continue;
+				stack.push(child);
+				nested.push(inner || skip != null && skip.equals(child.getParentField()));
+			}
+		}
+		return droppable;
+	}
+
+	// import a.b binds a, import a.b as c and from a import b as c bind c
+	private static Object importedName(Node alias) {
+		Object asname = alias.getField("asname");
+		if (asname != null) return asname;
+		String name = nameOf(alias.getField("name"));
+		if (name == null || name.equals("*")) return null;
+		Node importNode = alias.getParent();
+		int dot = name.indexOf('.');
+		return importNode != null && importNode.is(NodeType.IMPORT) && dot >= 0 ? name.substring(0, dot) : name;
+	}
+
+	// module level _helper functions nothing refers to, again and again, since dropping one can leave another unused
+	// anything that mentions the name keeps it: a use, an attribute of that name, a string ("__all__", getattr)
+	private void removeUnusedPrivateFunctions(Node module) {
+		Map<Node, Map<String, Integer>> candidates = new LinkedHashMap<>();
+		for (Node statement : children(module, "body")) {
+			if (!statement.is(NodeType.FUNCTION_DEF) && !statement.is(NodeType.ASYNC_FUNCTION_DEF)) continue;
+			String name = nameOf(statement.getField("name"));
+			if (name == null || !name.startsWith("_") || name.startsWith("__") && name.endsWith("__")) continue;
+			if (!children(statement, "decorator_list").isEmpty()) continue; // a decorator may register it somewhere
+			if (project != null && project.usedByOtherFiles(name)) continue;
+			candidates.put(statement, mentions(statement));
+		}
+		if (candidates.isEmpty()) return;
+		List<Node> statements = children(module, "body");
+		boolean hadDocstring = isDocstring(statements.get(0));
+
+		Map<String, Integer> mentioned = mentions(module);
+		boolean removed = true;
+		while (removed) {
+			removed = false;
+			for (var candidate : new ArrayList<>(candidates.entrySet())) {
+				String name = nameOf(candidate.getKey().getField("name"));
+				int outside = mentioned.getOrDefault(name, 0) - candidate.getValue().getOrDefault(name, 0);
+				if (outside > 0) continue;
+				module.removeChild(candidate.getKey());
+				candidate.getValue().forEach((mention, count) -> mentioned.merge(mention, -count, Integer::sum));
+				candidates.remove(candidate.getKey());
+				removed = true;
+			}
+		}
+
+		fixBlock(module, "body", hadDocstring);
+	}
+
+	private static Map<String, Integer> mentions(Node root) {
+		Map<String, Integer> mentions = new HashMap<>();
+		root.walk(node -> {
+			switch (node.getNodeType()) {
+				case NAME -> count(mentions, node.getField("id"));
+				case ATTRIBUTE -> count(mentions, node.getField("attr"));
+				case ALIAS -> {
+					count(mentions, node.getField("name"));
+					count(mentions, node.getField("asname"));
+				}
+				case GLOBAL, NONLOCAL -> {
+					if (node.getField("names") instanceof List<?> list) list.forEach(name -> count(mentions, name));
+				}
+				case CONSTANT -> {
+					if (node.getField("value") instanceof String text) count(mentions, text);
+				}
+				default -> {}
+			}
+		}, node -> {});
+		return mentions;
+	}
+
+	private static void count(Map<String, Integer> counts, Object name) {
+		String text = nameOf(name);
+		if (text != null) counts.merge(text, 1, Integer::sum);
+	}
+
+	private static String nameOf(Object name) {
+		if (name instanceof Symbol symbol) return symbol.name();
+		return name != null ? name.toString() : null;
+	}
+
+	// the function, class or module whose locals the statements of a block are
+	private static Node scopeOf(Node owner) {
+		Node node = owner;
+		while (node.getParent() != null) {
+			switch (node.getNodeType()) {
+				case FUNCTION_DEF, ASYNC_FUNCTION_DEF, CLASS_DEF, MODULE -> {
+					return node;
+				}
+				default -> node = node.getParent();
+			}
+		}
+		return node;
+	}
+
+	private static boolean ownsDocstring(Node owner) {
+		return switch (owner.getNodeType()) {
+			case MODULE, FUNCTION_DEF, ASYNC_FUNCTION_DEF, CLASS_DEF -> true;
+			default -> false;
+		};
+	}
+
+	private static boolean isDocstring(Node statement) {
+		if (!statement.is(NodeType.EXPR)) return false;
+		Node value = child(statement, "value");
+		return value != null && value.is(NodeType.CONSTANT) && value.getField("value") instanceof String;
+	}
+
+	private static Node child(Node node, String field) {
+		for (Node child : node.getChildren()) {
+			if (child != null && field.equals(child.getParentField())) return child;
+		}
+		return null;
+	}
+
+	private static List<Node> children(Node node, String field) {
+		List<Node> found = new ArrayList<>();
+		for (Node child : node.getChildren()) {
+			if (child != null && field.equals(child.getParentField())) found.add(child);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,70 @@
+package org.pyfuscator.transform.passes;
+
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+import org.pyfuscator.transform.TransformationPass;
+import org.pyfuscator.transform.TraversalHooks;
+import org.pyfuscator.utils.StageStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// --parallel-rename: VariableRenamePass for one big module, with the top-level defs and classes renamed on a ForkJoinPool
+// first the module's functions and self.attributes get their names (one walk, file order), then the module level statements
+// are renamed on this thread, binding the def/class names as they come, and every def/class body goes to a fork of the pass
+// the scope analysis (ScopeAnalysisPass) runs first, so which binding a name means is known everywhere; the module level
+// bindings are named before any fork starts and each fork only names the bindings inside its own def/class
+// each fork has its own name stream (seeded by its position in the file), so the output depends on the seed only,
+// not on the threads or on which fork finished first
+// the names are not the ones the sequential pass gives out: module bindings are all named up front, in the order they
+// are bound, and every def of a name shares one name
+public class ParallelRenamePass extends TransformationPass {
+	private final VariableRenamePass module;
+	private final ForkJoinPool pool;
+	private final List<VariableRenamePass> subtrees = new ArrayList<>();
+
+	public ParallelRenamePass(VariableRenamePass module, ForkJoinPool pool) {
+		this.module = module;
+		this.pool = pool;
+	}
+
+	@Override
+	public Node apply(Node rootNode) {
+		if (!rootNode.is(NodeType.MODULE)) {
+			return module.apply(rootNode);
+		}
+		module.prepareRegistry(rootNode);
+		module.nameModuleBindings();
+
+		TraversalHooks hooks = new TraversalHooks();
+		module.register(hooks);
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (Node statement : rootNode.getChildren()) {
+			if (statement == null) continue;
+			if (statement.is(NodeType.FUNCTION_DEF) || statement.is(NodeType.ASYNC_FUNCTION_DEF) || statement.is(NodeType.CLASS_DEF)) {
+				module.bindDefinitionName(statement);
+				VariableRenamePass subtree = module.forkSubtree(subtrees.size());
+				subtrees.add(subtree);
+				tasks.add(ForkJoinTask.adapt(() -> subtree.applyToBody(statement)));
+			} else {
+				hooks.walk(statement);
+			}
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+		for (VariableRenamePass subtree : subtrees) {
+			module.mergeNames(subtree);
+		}
+		return rootNode;
+	}
+
+	@Override
+	public void reportStats(StageStats stats) {
+		module.reportStats(stats);
+		for (VariableRenamePass subtree : subtrees) {
+			subtree.reportStats(stats);
+		}
+	}
+}
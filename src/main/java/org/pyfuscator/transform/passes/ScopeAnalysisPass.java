@@ -0,0 +1,28 @@
+package org.pyfuscator.transform.passes;
+
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.ScopeAnalysis;
+import org.pyfuscator.transform.FusablePass;
+import org.pyfuscator.transform.TraversalHooks;
+
+// fills the ScopeAnalysis the rename pass reads, it doesn't change the tree
+// it only collects, so it can share a walk with other passes; VariableRenamePass depends on it and walks after
+public class ScopeAnalysisPass extends FusablePass {
+	private final ScopeAnalysis analysis;
+
+	public ScopeAnalysisPass(ScopeAnalysis analysis) {
+		this.analysis = analysis;
+	}
+
+	@Override
+	public void register(TraversalHooks hooks) {
+		hooks.onEnterAny(analysis::enter).onExitAny(analysis::exit);
+	}
+
+	@Override
+	public Node apply(Node rootNode) {
+		super.apply(rootNode);
+		analysis.finish();
+		return rootNode;
+	}
+}
@@ -0,0 +1,119 @@
+package org.pyfuscator.transform.passes;
+
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+import org.pyfuscator.scope.Symbol;
+import org.pyfuscator.scope.SymbolTable;
+import org.pyfuscator.transform.TransformationPass;
+import org.pyfuscator.utils.VariableTracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+// --short-names: after the rename pass, every name it made up is swapped for the shortest free identifier,
+// the most used names first (a, b, ..., aa, ab, ...), so the output gets smaller instead of bigger
+// each made up name stands for one binding (or one self.attribute / function of the file), so a 1:1 swap keeps the meaning
+// a short name is never an identifier left in the file, a keyword, a preserved builtin or an import (VariableTracker)
+// two walks: one counts, one swaps
+public class ShortNamePass extends TransformationPass {
+	private static final String FIRST_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_";
+	private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_";
+
+	private final VariableRenamePass rename;
+	private final SymbolTable symbols;
+
+	public ShortNamePass(VariableRenamePass rename, SymbolTable symbols) {
+		this.rename = rename;
+		this.symbols = symbols;
+	}
+
+	@Override
+	public Node apply(Node rootNode) {
+		Set<Symbol> generated = rename.getGeneratedNames();
+		if (generated.isEmpty()) {
+			return rootNode;
+		}
+
+		// uses per made up name, in the order they first show up, and every other identifier of the file
+		Map<Symbol, int[]> uses = new LinkedHashMap<>();
+		Set<String> taken = new HashSet<>();
+		rootNode.walk(node -> {
+			forEachIdentifier(node, symbol -> {
+				if (generated.contains(symbol)) {
+					uses.computeIfAbsent(symbol, s -> new int[1])[0]++;
+				} else {
+					taken.add(symbol.name());
+				}
+				return symbol;
+			});
+			if (node.is(NodeType.UNKNOWN)) {
+				// a node type we don't know may still hold names, as plain strings
+				node.getFields().values().forEach(value -> taken.add(String.valueOf(value)));
+			}
+		}, node -> {});
+
+		List<Symbol> byUses = new ArrayList<>(uses.keySet());
+		byUses.sort((a, b) -> Integer.compare(uses.get(b)[0], uses.get(a)[0])); // stable, ties keep file order
+		VariableTracker tracker = rename.getVariableTracker();
+		Map<Symbol, Symbol> shortNames = new HashMap<>();
+		long next = 0;
+		for (Symbol symbol : byUses) {
+			String name;
+			do {
+				name = shortName(next++);
+			} while (taken.contains(name) || !tracker.shouldRenameVariable(name));
+			shortNames.put(symbol, symbols.intern(name));
+		}
+
+		rootNode.walk(node -> forEachIdentifier(node, symbol -> shortNames.getOrDefault(symbol, symbol)), node -> {});
+		return rootNode;
+	}
+
+	// calls swap on every identifier of the node and stores what it returns
+	private static void forEachIdentifier(Node node, UnaryOperator<Symbol> swap) {
+		NodeType type = node.getNodeType();
+		for (int slot = 0; slot < type.fieldCount(); slot++) {
+			String field = type.fieldName(slot);
+			if (!type.isIdentifierField(field)) continue;
+			Object value = node.getField(field);
+			if (value instanceof Symbol symbol) {
+				Symbol swapped = swap.apply(symbol);
+				if (swapped != symbol) node.addField(field, swapped);
+			} else if (value instanceof List<?> list) {
+				List<Object> swapped = new ArrayList<>(list.size());
+				boolean changed = false;
+				for (Object element : list) {
+					Object out = element instanceof Symbol symbol ? swap.apply(symbol) : element;
+					changed |= out != element;
+					swapped.add(out);
+				}
+				if (changed) node.addField(field, swapped);
+			}
+		}
+	}
+
+	// the index-th identifier by length: the 53 one char ones, then the 53 * 63 two char ones, ...
+	static String shortName(long index) {
+		long count = FIRST_CHARS.length();
+		int length = 1;
+		while (index >= count) {
+			index -= count;
+			length++;
+			if (count > Long.MAX_VALUE / CHARS.length()) break; // the next count is past any long, index fits this length
+			count *= CHARS.length();
+		}
+		char[] name = new char[length];
+		for (int i = length - 1; i > 0; i--) {
+			name[i] = CHARS.charAt((int) (index % CHARS.length()));
+			index /= CHARS.length();
+		}
+		name[0] = FIRST_CHARS.charAt((int) index);
+		return new String(name);
+	}
+}
@@ -1,135 +1,519 @@
 package org.pyfuscator.transform.passes;
 
+import org.pyfuscator.ast.ASTVisitor;
 import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+import org.pyfuscator.scope.NameMap;
+import org.pyfuscator.scope.ProjectIndex;
+import org.pyfuscator.scope.ScopeAnalysis;
 import org.pyfuscator.scope.ScopeManager;
+import org.pyfuscator.scope.Symbol;
+import org.pyfuscator.scope.SymbolTable;
+import org.pyfuscator.transform.FusablePass;
 import org.pyfuscator.transform.TransformationPass;
+import org.pyfuscator.transform.TraversalHooks;
 import org.pyfuscator.utils.NameGenerator;
 import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.StageStats;
 import org.pyfuscator.utils.VariableTracker;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 // a pass that renames local variables and optionally functions/classes
-// it tracks imports and scopes and then goes ahead and generates new names
-public class VariableRenamePass extends TransformationPass {
+// which binding a name refers to comes from the ScopeAnalysis of the file (ScopeAnalysisPass walks first),
+// the walk here just tracks imports, hands every binding a new name the first time it shows up and swaps it in
+// names are Symbols from the loader's table, so a rename just points the field at another Symbol
+public class VariableRenamePass extends FusablePass {
+    // self.x renames are registered for the whole file, so they get a scope path of their own in the name map
+    private static final String ATTRIBUTE_SCOPE = "<attributes>";
+
     private final VariableTracker variableTracker;
     private final ScopeManager scopeManager;
     private final NameGenerator nameGenerator;
+    private final SymbolTable symbols;
     private final ObfuscationConfig config;
+    private final Symbol selfSymbol;
+    // --name-map: names from earlier runs win over fresh ones (null without a map)
+    private final NameMap.ModuleNames previousNames;
+    // --project: the names of the file's top-level bindings and of what it imports from the project (null without)
+    private final ProjectIndex.Module project;
+    private final ScopeAnalysis analysis;
+    // the new name of every binding by its ScopeAnalysis id, null until it first shows up (shared with the forks of a parallel run)
+    private Symbol[] bindingNames;
+    // scope each open node is evaluated in (ScopeAnalysis.scopeFor)
+    private int[] context = new int[64];
+    private int depth;
+    private final boolean subtree; // a fork of ParallelRenamePass, the module counts the scopes
+    private int renamed; // new names handed out, for --stats
+    // ParallelRenamePass: every function and self.attribute got its name up front (prepareRegistry), the registry is only read
+    private boolean sharedRegistry;
+    // ParallelRenamePass: every import of the file, from prepareRegistry, so nameModuleBindings leaves the imported names alone
+    private VariableTracker moduleImports;
+    // every name this pass made up, ShortNamePass swaps them for short ones afterwards
+    private final Set<Symbol> generatedNames = new HashSet<>();
 
     // creates the pass with required helpers and config
-    public VariableRenamePass(ScopeManager scopeManager, NameGenerator nameGenerator, ObfuscationConfig config) {
+    public VariableRenamePass(ScopeManager scopeManager, NameGenerator nameGenerator, SymbolTable symbols, ObfuscationConfig config) {
+        this(scopeManager, nameGenerator, symbols, null, config);
+    }
+
+    public VariableRenamePass(ScopeManager scopeManager, NameGenerator nameGenerator, SymbolTable symbols,
+                              NameMap.ModuleNames previousNames, ObfuscationConfig config) {
+        this(scopeManager, nameGenerator, symbols, previousNames, null, config);
+    }
+
+    // with a project, scopeManager comes with the project's registry filled in (ProjectIndex.Module.scopeManager)
+    public VariableRenamePass(ScopeManager scopeManager, NameGenerator nameGenerator, SymbolTable symbols,
+                              NameMap.ModuleNames previousNames, ProjectIndex.Module project, ObfuscationConfig config) {
         this.scopeManager = scopeManager;
+        this.project = project;
+        this.sharedRegistry = project != null; // every function and self.attribute of the project has its name already
         this.nameGenerator = nameGenerator;
+        this.symbols = symbols;
+        this.previousNames = previousNames;
         this.config = config != null ? config : ObfuscationConfig.createDefault();
         this.variableTracker = new VariableTracker(config);
+        this.selfSymbol = symbols.intern("self");
+        this.analysis = new ScopeAnalysis(symbols);
+        this.subtree = false;
+        if (previousNames != null) {
+            // a new symbol must never get a name some other symbol kept
+            previousNames.previousNames().forEach(nameGenerator::reserve);
+        }
+    }
+
+    // the pass for one top-level def/class body of a parallel run, on top of module's analysis, registry and names
+    // stream is the def's position in the file, it seeds the fork's names
+    private VariableRenamePass(VariableRenamePass module, int stream) {
+        this.scopeManager = module.scopeManager.fork();
+        this.nameGenerator = module.nameGenerator.fork(stream);
+        this.symbols = module.symbols;
+        this.previousNames = module.previousNames != null ? module.previousNames.fork() : null;
+        this.project = module.project;
+        this.config = module.config;
+        this.variableTracker = module.variableTracker.copy();
+        this.selfSymbol = module.selfSymbol;
+        this.analysis = module.analysis;
+        this.bindingNames = module.bindingNames();
+        this.subtree = true;
+        this.sharedRegistry = true;
+    }
+
+    // what the ScopeAnalysisPass in front of this one fills
+    public ScopeAnalysis getScopeAnalysis() {
+        return analysis;
+    }
+
+    @Override
+    public Set<Class<? extends TransformationPass>> dependsOn() {
+        return Set.of(ScopeAnalysisPass.class);
     }
 
+    // on its own (no ScopeAnalysisPass ran) it analyzes the tree first
     @Override
     public Node apply(Node rootNode) {
-        rootNode.walk(this::processEnterNode, this::processExitNode);
-        return rootNode;
-    }
-
-    // handles node when entering it
-    private void processEnterNode(Node node) {
-        // note down the names from imports so they are not renamed
-        if ("Import".equals(node.getType()) || "ImportFrom".equals(node.getType())) {
-            for (Node child : node.getChildren()) {
-                if ("alias".equals(child.getType())) {
-                    Object nameField = child.getFields().get("name");
-                    if (nameField != null) {
-                        String moduleName = nameField.toString();
-                        if (moduleName.contains(".")) {
-                            moduleName = moduleName.split("\\.")[0];
-                        }
-                        variableTracker.trackImport(moduleName);
-                    }
-                    Object asnameField = child.getFields().get("asname");
-                    if (asnameField != null) {
-                        String asname = asnameField.toString();
-                        variableTracker.trackImport(asname);
+        if (analysis.isEmpty()) {
+            analysis.analyze(rootNode);
+        }
+        return super.apply(rootNode);
+    }
+
+    // the visitor callbacks for the node types the pass cares about, the rest of the tree goes by untouched
+    @Override
+    public void register(TraversalHooks hooks) {
+        // registered before the visitor, so the scope of a node is known when the visitor gets it (and popped after)
+        hooks.onEnterAny(this::enterContext).onExitAny(node -> depth--);
+        hooks.onVisit(new ASTVisitor() {
+            @Override
+            public void visitImport(Node node) {
+                trackImports(node);
+            }
+
+            @Override
+            public void visitImportFrom(Node node) {
+                trackImports(node);
+                if (project != null) renameImportedNames(node);
+            }
+
+            @Override
+            public void visitAssign(Node node) {
+                if (project != null) renameExportList(node);
+            }
+
+            @Override
+            public void visitAugAssign(Node node) {
+                if (project != null) renameExportList(node);
+            }
+
+            @Override
+            public void visitGlobal(Node node) {
+                renameStatementNames(node);
+            }
+
+            @Override
+            public void visitNonlocal(Node node) {
+                renameStatementNames(node);
+            }
+
+            @Override
+            public void visitFunctionDef(Node node) {
+                renameField(node, "name");
+            }
+
+            @Override
+            public void visitAsyncFunctionDef(Node node) {
+                renameField(node, "name");
+            }
+
+            @Override
+            public void visitClassDef(Node node) {
+                renameField(node, "name");
+            }
+
+            @Override
+            public void visitName(Node node) {
+                renameField(node, "id");
+            }
+
+            @Override
+            public void visitArg(Node node) {
+                renameField(node, "arg");
+            }
+
+            @Override
+            public void visitExceptHandler(Node node) {
+                renameField(node, "name");
+            }
+
+            @Override
+            public void visitMatchAs(Node node) {
+                renameField(node, "name");
+            }
+
+            @Override
+            public void visitMatchStar(Node node) {
+                renameField(node, "name");
+            }
+
+            @Override
+            public void visitMatchMapping(Node node) {
+                renameField(node, "rest");
+            }
+
+            @Override
+            public void visitAttribute(Node node) {
+                processAttributeNode(node);
+            }
+        });
+    }
+
+    public Set<Symbol> getGeneratedNames() {
+        return generatedNames;
+    }
+
+    // imports of the module, what a new name must not shadow
+    public VariableTracker getVariableTracker() {
+        return variableTracker;
+    }
+
+    @Override
+    public void reportStats(StageStats stats) {
+        stats.count(StageStats.Counter.SCOPES, subtree ? 0 : analysis.scopeCount());
+        stats.count(StageStats.Counter.RENAMED, renamed);
+        stats.count(StageStats.Counter.COLLISIONS, nameGenerator.getCollisions());
+    }
+
+    private void enterContext(Node node) {
+        int scope = analysis.scopeFor(node, depth > 0 ? context[depth - 1] : ScopeAnalysis.MODULE);
+        if (depth == context.length) context = Arrays.copyOf(context, depth * 2);
+        context[depth++] = scope;
+    }
+
+    private int currentScope() {
+        return depth > 0 ? context[depth - 1] : ScopeAnalysis.MODULE;
+    }
+
+    // note down the names from imports so they are not renamed
+    private void trackImports(Node node) {
+        trackImports(node, variableTracker);
+    }
+
+    private void trackImports(Node node, VariableTracker variableTracker) {
+        for (Node child : node.getChildren()) {
+            if (child.is(NodeType.ALIAS)) {
+                Object nameField = child.getField("name");
+                if (nameField != null) {
+                    Symbol moduleName = symbolOf(nameField);
+                    int dot = moduleName.name().indexOf('.');
+                    if (dot >= 0) {
+                        moduleName = symbols.intern(moduleName.name().substring(0, dot));
                     }
+                    variableTracker.trackImport(moduleName);
+                }
+                Object asnameField = child.getField("asname");
+                if (asnameField != null) {
+                    variableTracker.trackImport(symbolOf(asnameField));
                 }
             }
         }
+    }
 
-        // handle global and nonlocal statements
-        if ("Global".equals(node.getType())) {
-            processGlobalNode(node);
-        } else if ("Nonlocal".equals(node.getType())) {
-            processNonlocalNode(node);
+    // an identifier field (Name.id, arg.arg, a def's name, except ... as name, ...) gets the name of the binding it refers to
+    private void renameField(Node node, String field) {
+        Object value = node.getField(field);
+        if (value == null) return;
+        Symbol original = symbolOf(value);
+        Symbol name = newName(original);
+        if (name != null && name != original) {
+            node.addField(field, name);
         }
+    }
+
+    // global and nonlocal statements list the names they declare
+    private void renameStatementNames(Node node) {
+        Object namesField = node.getField("names");
+        if (namesField instanceof List<?> namesList) {
+            List<Symbol> renamedNames = new ArrayList<>(namesList.size());
+            for (Object nameObject : namesList) {
+                Symbol varName = symbolOf(nameObject);
+                Symbol name = newName(varName);
+                renamedNames.add(name != null ? name : varName);
+            }
+            node.addField("names", renamedNames);
+        }
+    }
+
+    // the new name of an identifier in the current scope, null if it stays
+    // with --project a name nothing in the file binds may still be one a from-import brings in
+    private Symbol newName(Symbol original) {
+        int binding = analysis.resolve(currentScope(), original);
+        if (binding == ScopeAnalysis.UNRESOLVED) {
+            return project != null ? project.importedName(original) : null;
+        }
+        return nameOf(binding);
+    }
 
-        // handle function definitions and async definitions so that we can rename and bind
-        if ("FunctionDef".equals(node.getType()) || "AsyncFunctionDef".equals(node.getType())) {
-            Object nameField = node.getFields().get("name");
-            if (nameField != null) {
-                String funcName = nameField.toString();
-                if (config.isRenameFunctions() && variableTracker.shouldRenameVariable(funcName)) {
-                    String newName = nameGenerator.generate();
-                    scopeManager.bindLocal(funcName, newName);
-                    scopeManager.registerFunctionRename(funcName, newName); // Register globally
-                    node.addField("name", newName);
-                } else {
-                    scopeManager.bindLocal(funcName, funcName);
+    // the new name of a binding, picked the first time it shows up; null for an unresolved name (builtins and such), it stays
+    private Symbol nameOf(int binding) {
+        if (binding == ScopeAnalysis.UNRESOLVED) return null;
+        Symbol[] names = bindingNames();
+        Symbol name = names[binding];
+        if (name == null) {
+            name = pickName(binding);
+            names[binding] = name;
+        }
+        return name;
+    }
+
+    private Symbol[] bindingNames() {
+        if (bindingNames == null) {
+            bindingNames = new Symbol[analysis.bindingCapacity()];
+        }
+        return bindingNames;
+    }
+
+    // functions only with --rename-functions and classes only with --rename-classes, a name bound by both needs both
+    // with --project the index decided for the top-level ones, the names other files import them by
+    // a name an import binds anywhere in its scope keeps it, whatever else binds it (`x = None` then `import pickle as x`)
+    private Symbol pickName(int binding) {
+        Symbol original = analysis.bindingName(binding);
+        if (project != null && analysis.bindingScope(binding) == ScopeAnalysis.MODULE) {
+            Symbol exported = project.exportName(original);
+            return exported != null ? exported : original;
+        }
+        if (analysis.isBoundByImport(binding) || !variableTracker.shouldRenameVariable(original)) return original;
+        boolean function = analysis.isBoundByDef(binding);
+        if ((function && !config.isRenameFunctions()) || (analysis.isBoundByClass(binding) && !config.isRenameClasses())) {
+            return original;
+        }
+        String scopePath = analysis.scopePath(analysis.bindingScope(binding));
+        if (!function) {
+            return generateName(scopePath, original);
+        }
+        if (sharedRegistry || scopeManager.isFunctionRegistered(original)) {
+            // every def of the name shares one name, obj.get can't tell K0.get from K1.get
+            // (with prepareRegistry's the original if it left the name alone)
+            Symbol name = scopeManager.resolveFunctionGlobally(original);
+            recordName(scopePath, original, name);
+            return name;
+        }
+        Symbol name = generateName(scopePath, original);
+        scopeManager.registerFunctionRename(original, name); // Register globally, for obj.method
+        return name;
+    }
+
+    // check if this is self.attribute by looking at children
+    private boolean isSelfAttribute(Node node) {
+        for (Node child : node.getChildren()) {
+            if (child.is(NodeType.NAME)) {
+                Object idField = child.getField("id");
+                if (idField != null && symbolOf(idField) == selfSymbol) {
+                    return true;
                 }
             }
-        } else if ("ClassDef".equals(node.getType())) {
-            // same with classes
-            Object nameField = node.getFields().get("name");
-            if (nameField != null) {
-                String className = nameField.toString();
-                if (config.isRenameClasses() && variableTracker.shouldRenameVariable(className)) {
-                    String newName = nameGenerator.generate();
-                    scopeManager.bindLocal(className, newName);
-                    node.addField("name", newName);
-                } else {
-                    scopeManager.bindLocal(className, className);
+        }
+        return false;
+    }
+
+    // ParallelRenamePass, before anything else: names every function (with --rename-functions) and self.attribute of the file
+    // sequentially the registry fills up as the walk goes, so a use only renames if the def came first;
+    // with the defs renamed in parallel there is no such order, so all of them are named here, in file order
+    void prepareRegistry(Node rootNode) {
+        sharedRegistry = true;
+        if (project != null) return; // the project's registry has them all
+        VariableTracker imports = new VariableTracker(config); // the imports as far as the walk got, like the walk itself sees them
+        moduleImports = imports;
+        Deque<String> paths = new ArrayDeque<>();
+        paths.push("");
+        new ASTVisitor() {
+            @Override
+            public void visitImport(Node node) {
+                trackImports(node, imports);
+            }
+
+            @Override
+            public void visitImportFrom(Node node) {
+                trackImports(node, imports);
+            }
+
+            @Override
+            public void visitFunctionDef(Node node) {
+                registerFunction(node);
+            }
+
+            @Override
+            public void visitAsyncFunctionDef(Node node) {
+                registerFunction(node);
+            }
+
+            @Override
+            public void visitClassDef(Node node) {
+                enterPath(node);
+            }
+
+            @Override
+            public void visitLambda(Node node) {
+                enterPath(node);
+            }
+
+            @Override
+            public void visitAttribute(Node node) {
+                Object attributeField = node.getField("attr");
+                if (attributeField == null) return;
+                Symbol attributeName = symbolOf(attributeField);
+                if (variableTracker.isSpecialMethod(attributeName.name()) || variableTracker.isSpecialAttribute(attributeName.name())) {
+                    return;
+                }
+                if (isSelfAttribute(node) && imports.shouldRenameVariable(attributeName)
+                        && !scopeManager.isFunctionRegistered(attributeName)) {
+                    scopeManager.registerFunctionRename(attributeName, generateName(ATTRIBUTE_SCOPE, attributeName));
                 }
             }
+
+            @Override
+            public void leaveFunctionDef(Node node) {
+                paths.pop();
+            }
+
+            @Override
+            public void leaveAsyncFunctionDef(Node node) {
+                paths.pop();
+            }
+
+            @Override
+            public void leaveClassDef(Node node) {
+                paths.pop();
+            }
+
+            @Override
+            public void leaveLambda(Node node) {
+                paths.pop();
+            }
+
+            private void registerFunction(Node node) {
+                Object nameField = node.getField("name");
+                if (nameField != null && config.isRenameFunctions()) {
+                    Symbol funcName = symbolOf(nameField);
+                    if (imports.shouldRenameVariable(funcName) && !scopeManager.isFunctionRegistered(funcName)) {
+                        scopeManager.registerFunctionRename(funcName, generateName(paths.peek(), funcName));
+                    }
+                }
+                enterPath(node);
+            }
+
+            private void enterPath(Node node) {
+                String parent = paths.peek();
+                String name = scopeNameOf(node);
+                paths.push(parent.isEmpty() ? name : parent + "." + name);
+            }
+        }.walk(rootNode);
+    }
+
+    // ParallelRenamePass: names the bindings of the module scope, in the order they are bound, before any fork runs
+    // the forks only ever name bindings of their own def/class, so they never write the same entry
+    // a name imported anywhere in the file keeps it, like pickName's check once the sequential walk got past the import
+    void nameModuleBindings() {
+        for (int binding : analysis.bindingsOf(ScopeAnalysis.MODULE)) {
+            Symbol original = analysis.bindingName(binding);
+            if (moduleImports != null && !moduleImports.shouldRenameVariable(original)) {
+                bindingNames()[binding] = original;
+            } else {
+                nameOf(binding);
+            }
         }
+    }
 
-        // enter a new scope for functions slash classes slash lambdas
-        if (isScopeCreatingNode(node)) {
-            scopeManager.enterScope();
-            bindFunctionParameters(node);
+    // ParallelRenamePass: the name of a top-level def/class, the body is left for a fork (applyToBody)
+    void bindDefinitionName(Node definition) {
+        renameField(definition, "name");
+    }
+
+    VariableRenamePass forkSubtree(int stream) {
+        return new VariableRenamePass(this, stream);
+    }
+
+    // ParallelRenamePass, on a fork: everything under a top-level def/class
+    void applyToBody(Node definition) {
+        TraversalHooks hooks = new TraversalHooks();
+        register(hooks);
+        for (Node child : definition.getChildren()) {
+            if (child != null) {
+                hooks.walk(child); // the children look up their scope from the def (depth 0 is the module)
+            }
         }
+    }
 
-        // process the identifier and the parameter nodes
-        if ("Name".equals(node.getType())) {
-            processNameNode(node);
-        } else if ("arg".equals(node.getType())) {
-            processArgNode(node);
-        } else if ("Attribute".equals(node.getType())) {
-            processAttributeNode(node);
+    // ParallelRenamePass, once the forks are done (in file order)
+    void mergeNames(VariableRenamePass fork) {
+        generatedNames.addAll(fork.generatedNames);
+        if (previousNames != null) {
+            previousNames.merge(fork.previousNames);
         }
     }
 
     private void processAttributeNode(Node node) {
-        Object attributeField = node.getFields().get("attr");
+        Object attributeField = node.getField("attr");
         if (attributeField == null) return;
 
-        String attributeName = attributeField.toString();
+        Symbol attributeName = symbolOf(attributeField);
 
         // skip special methods and attributes
-        if (variableTracker.isSpecialMethod(attributeName) || variableTracker.isSpecialAttribute(attributeName)) {
+        if (variableTracker.isSpecialMethod(attributeName.name()) || variableTracker.isSpecialAttribute(attributeName.name())) {
             return;
         }
 
-        // check if this is self.attribute by looking at children
-        boolean isSelfAttribute = false;
-        for (Node child : node.getChildren()) {
-            if ("Name".equals(child.getType())) {
-                Object idField = child.getFields().get("id");
-                if ("self".equals(idField)) {
-                    isSelfAttribute = true;
-                    break;
-                }
-            }
+        if (project != null && renameModuleAttribute(node)) {
+            return;
         }
 
+        boolean isSelfAttribute = isSelfAttribute(node);
+
         if (!variableTracker.shouldRenameVariable(attributeName)) {
             return;
         }
@@ -138,8 +522,8 @@ public class VariableRenamePass extends TransformationPass {
         if (isSelfAttribute) {
             if (scopeManager.isFunctionRegistered(attributeName)) {
                 node.addField("attr", scopeManager.resolveFunctionGlobally(attributeName));
-            } else {
-                String newName = nameGenerator.generate();
+            } else if (!sharedRegistry) { // prepareRegistry already named the ones it renames
+                Symbol newName = generateName(ATTRIBUTE_SCOPE, attributeName);
                 scopeManager.registerFunctionRename(attributeName, newName);
                 node.addField("attr", newName);
             }
@@ -152,128 +536,95 @@ public class VariableRenamePass extends TransformationPass {
         }
     }
 
-    // exit node or pop if its a creating node (function/class/lambda)
-    private void processExitNode(Node node) {
-
-        // new if statement to update global and nonlocal nodes/statements on exit
-        if ("Global".equals(node.getType()) || "Nonlocal".equals(node.getType())) {
-            updateStatementNames(node);
-        }
-        if (isScopeCreatingNode(node)) {
-            scopeManager.exitScope();
-        }
-    }
-
-    private void updateStatementNames(Node node) {
-        // if turned into seperate method this would be start
-        Object namesField = node.getFields().get("names"); // names not name
-        if (namesField instanceof List) {
-            List<Object> namesList = (List<Object>) namesField;
-            List<String> renamedNames = new ArrayList<>();
-
-            for (Object nameObject : namesList) {
-                String varName = nameObject.toString();
-                String renamedVar = scopeManager.resolve(varName); // resolve new name
-                renamedNames.add(renamedVar);
+    // --project: `from pkg.mod import helper` imports what helper is called in pkg.mod now (`as` names stay as they are)
+    private void renameImportedNames(Node node) {
+        String module = project.importedModule(node);
+        if (module == null) return;
+        for (Node child : node.getChildren()) {
+            if (child == null || !child.is(NodeType.ALIAS)) continue;
+            Object nameField = child.getField("name");
+            Symbol name = nameField != null ? project.exportedBy(module, symbolOf(nameField)) : null;
+            if (name != null) {
+                child.addField("name", name);
             }
-
-            node.addField("names", renamedNames);
         }
     }
-    // end of method
 
-
-    private void processNameNode(Node node) {
-        Object idField = node.getFields().get("id");
-        if (idField == null) return;
-
-        String varName = idField.toString();
-
-        if (variableTracker.shouldRenameVariable(varName)) {
-            String currentBinding = scopeManager.resolve(varName);
-            boolean hasBinding = scopeManager.isBound(varName);
-
-            if (!hasBinding) {
-                // first time seeing this variable so then generate a new name and bind it
-                String newName = nameGenerator.generate();
-                scopeManager.bindLocal(varName, newName);
-                node.addField("id", newName);
-            } else {
-                // otherwise use the new name which was already generated
-                node.addField("id", currentBinding);
+    // --project: mod.helper, where mod is a module of the project, is whatever helper is called in mod now
+    // returns false for attributes of anything else; pkg.mod itself (a submodule) is left alone
+    private boolean renameModuleAttribute(Node node) {
+        Node value = childIn(node, "value");
+        String module = value != null ? project.moduleOf(value) : null;
+        if (module == null) return false;
+        Object attributeField = node.getField("attr");
+        if (attributeField != null && project.moduleOf(node) == null) {
+            Symbol name = project.exportedBy(module, symbolOf(attributeField));
+            if (name != null) {
+                node.addField("attr", name);
             }
         }
+        return true;
     }
 
-    private void processArgNode(Node node) { // processes argument node
-        Object argField = node.getFields().get("arg");
-        if (argField == null) return;
-
-        String paramName = argField.toString();
-        if ("self".equals(paramName) || "cls".equals(paramName)) return;
-
-        if (variableTracker.shouldRenameVariable(paramName)) {
-            String currentBinding = scopeManager.resolve(paramName);
-            node.addField("arg", currentBinding);
-        }
-    }
-
-    // bind parameters within a function or lambda expression
-    private void bindFunctionParameters(Node functionNode) {
-        String nodeType = functionNode.getType();
-        if (!("FunctionDef".equals(nodeType) || "AsyncFunctionDef".equals(nodeType) || "Lambda".equals(nodeType))) {
-            return;
+    // --project: `__all__ = [...]` (or +=) at module level lists the exported names as strings, for `from mod import *`
+    private void renameExportList(Node node) {
+        if (currentScope() != ScopeAnalysis.MODULE) return;
+        boolean exportList = false;
+        for (Node child : node.getChildren()) {
+            if (child != null && child.is(NodeType.NAME) && !"value".equals(child.getParentField())) {
+                exportList |= "__all__".equals(String.valueOf(child.getField("id")));
+            }
         }
-
-        for (Node child : functionNode.getChildren()) {
-            if ("arguments".equals(child.getType())) {
-                for (Node argNode : child.getChildren()) {
-                    if ("arg".equals(argNode.getType())) {
-                        Object argField = argNode.getFields().get("arg");
-                        if (argField != null) {
-                            String paramName = argField.toString();
-                            if ("self".equals(paramName) || "cls".equals(paramName)) continue;
-
-                            if (variableTracker.shouldRenameVariable(paramName)) {
-                                String newName = nameGenerator.generate();
-                                scopeManager.bindLocal(paramName, newName);
-                            }
-                        }
-                    }
+        Node value = childIn(node, "value");
+        if (!exportList || value == null || !(value.is(NodeType.LIST) || value.is(NodeType.TUPLE))) return;
+        for (Node element : value.getChildren()) {
+            if (element != null && element.is(NodeType.CONSTANT) && element.getField("value") instanceof String string) {
+                Symbol name = project.exportName(symbols.intern(string));
+                if (name != null) {
+                    element.addField("value", name.name());
                 }
-                break;
             }
         }
     }
 
-    private boolean isScopeCreatingNode(Node node) {
-        String type = node.getType();
-        return "FunctionDef".equals(type) || "AsyncFunctionDef".equals(type) ||
-                "ClassDef".equals(type) || "Lambda".equals(type);
+    private static Node childIn(Node node, String field) {
+        for (Node child : node.getChildren()) {
+            if (child != null && field.equals(child.getParentField())) return child;
+        }
+        return null;
     }
 
-    private void processGlobalNode(Node node) {
-        Object namesField = node.getFields().get("names");
-        if (namesField instanceof List) {
-            List<Object> namesList = (List<Object>) namesField; // cast to object list
+    // identifier fields come out of the loader as Symbols, anything else (a hand built node) gets interned here
+    private Symbol symbolOf(Object field) {
+        return field instanceof Symbol symbol ? symbol : symbols.intern(field.toString());
+    }
 
-            for (Object nameObject : namesList) {
-                String varName = nameObject.toString();
-                scopeManager.markGlobal(varName); // mark global
-            }
+    // the new name of original in a scope: last run's if the name map has one, a fresh one otherwise
+    private Symbol generateName(String scopePath, Symbol original) {
+        renamed++;
+        if (previousNames == null) {
+            Symbol name = symbols.intern(nameGenerator.generate());
+            generatedNames.add(name);
+            return name;
+        }
+        String name = previousNames.lookup(scopePath, original.name());
+        if (name == null) {
+            name = nameGenerator.generate();
         }
+        previousNames.record(scopePath, original.name(), name);
+        return symbols.intern(name);
     }
 
-    // copy paste of processGlobalNode
-    private void processNonlocalNode(Node node) {
-        Object namesField = node.getFields().get("names");
-        if (namesField instanceof List) {
-            List<Object> namesList = (List<Object>) namesField; // cast to object list
-
-            for (Object nameObject : namesList) {
-                String varName = nameObject.toString();
-                scopeManager.markNonlocal(varName); // mark global
-            }
+    // a name handed out up front (prepareRegistry), noted under this scope path too
+    private void recordName(String scopePath, Symbol original, Symbol obfuscated) {
+        if (previousNames != null && original != obfuscated) {
+            previousNames.record(scopePath, original.name(), obfuscated.name());
         }
     }
+
+    // functions and classes add their (original) name to the path
+    private String scopeNameOf(Node node) {
+        Object nameField = node.getField("name");
+        return nameField != null ? nameField.toString() : "<lambda>";
+    }
 }
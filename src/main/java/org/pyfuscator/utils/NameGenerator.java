@@ -1,29 +1,67 @@
 package org.pyfuscator.utils;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 
-//random name generator
+// name generator: the n-th name is the n-th counter value through a seeded permutation of all names of the length
+// the permutation is a small feistel network over the next even power of two, values past the name space are
+// walked on (cycle walking), so each name costs a few rounds and there is no set of names handed out so far
+// names of the input (exclude) and python keywords are skipped, and it throws once every name is gone
 public class NameGenerator {
 
 	private static final String ALPHANUMERIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890";
 	private static final String FIRST_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_";
+	// names the permutation covers, 53 * 62^9 is the last one that fits a long, longer names get filler chars after them
+	private static final int MAX_PERMUTED_CHARS = 10;
+	private static final int ROUNDS = 4;
+	private static final Set<String> KEYWORDS = Set.of(
+			"False", "None", "True", "and", "as", "assert", "async", "await", "break", "class", "continue", "def", "del",
+			"elif", "else", "except", "finally", "for", "from", "global", "if", "import", "in", "is", "lambda", "nonlocal",
+			"not", "or", "pass", "raise", "return", "try", "while", "with", "yield");
 
+	private final Long seed;
 	private final String prefix;
 	private final int length;
-	private final Set<String> used = new HashSet<>();
-	private final Random rng;
+	private final long space; // names the permutation covers
+	private final int halfBits;
+	private final long[] keys = new long[ROUNDS];
+	// identifiers of the input and names kept from an earlier run, never handed out
+	private final Set<String> excluded;
+	// on a fork: the generator it was forked from, the names that one gave out are taken too
+	private final NameGenerator parent;
+	private long counter;
+	private int collisions; // names skipped because they were taken, for --stats
 
 	// constructor with parameters
 	public NameGenerator(Long seed, String prefix, int length) {
-		if (seed != null) {
-			this.rng = new Random(seed);
-		} else {
-			this.rng = new Random();
+		this(seed, prefix, length, new HashSet<>(), null);
+	}
+
+	private NameGenerator(Long seed, String prefix, int length, Set<String> excluded, NameGenerator parent) {
+		if (length < 1) {
+			throw new IllegalArgumentException("name length has to be at least 1, got " + length);
 		}
+		this.seed = seed;
 		this.prefix = prefix == null ? "" : prefix;
 		this.length = length;
+		this.excluded = excluded;
+		this.parent = parent;
+
+		long names = FIRST_CHARS.length();
+		for (int i = 1; i < Math.min(length, MAX_PERMUTED_CHARS); i++) {
+			names *= ALPHANUMERIC.length();
+		}
+		this.space = names;
+		int bits = 64 - Long.numberOfLeadingZeros(names - 1);
+		this.halfBits = Math.max(1, (bits + 1) / 2);
+
+		long key = seed != null ? seed : new Random().nextLong();
+		for (int i = 0; i < ROUNDS; i++) {
+			key = mix(key + 0x9E3779B97F4A7C15L);
+			keys[i] = key;
+		}
 	}
 
 	// constructor from config
@@ -36,40 +74,151 @@ public class NameGenerator {
 		this(null, "v", 8);
 	}
 
+	// a generator of its own for one part of the work (stream), for handing out names in parallel
+	// it never gives out a name this one has, and with a seed its names depend only on the seed and the stream
+	// this one must not hand out names while the fork is in use
+	public NameGenerator fork(int stream) {
+		Long forkSeed = seed != null ? seed ^ (0x9E3779B97F4A7C15L * (stream + 1L)) : null;
+		return new NameGenerator(forkSeed, prefix, length, excluded, this);
+	}
+
 	public void reset() {
-		used.clear();
+		counter = 0;
 	}
 
-	public String generate() {
-		return generate(this.length);
+	// a name that is already taken elsewhere (kept from an earlier run), generate() won't hand it out
+	public void reserve(String name) {
+		excluded.add(name);
+	}
+
+	// the identifiers of the input, so a new name never shadows one that stays
+	public void exclude(Collection<String> names) {
+		excluded.addAll(names);
 	}
 
-	public String generate(int length) {
-		while (true) {
-			String candidate = buildCandidate(length);
-			if (used.add(candidate)) {
+	public String generate() {
+		while (counter < space) {
+			long index = permute(counter++);
+			String candidate = buildName(index);
+			if (!isTaken(candidate)) {
 				return candidate;
 			}
+			collisions++;
 		}
+		throw new IllegalStateException("out of names: all " + space + " names of length " + length
+				+ " are taken, use a longer --var-length");
+	}
+
+	private boolean isTaken(String name) {
+		return excluded.contains(name) || KEYWORDS.contains(name) || (parent != null && parent.handedOut(name));
+	}
+
+	// whether generate() returned this name (before now), by running the permutation backwards
+	// a fork of a fork asks all the way up
+	private boolean handedOut(String name) {
+		long index = indexOf(name);
+		if (index >= 0 && unpermute(index) < counter) return true;
+		return parent != null && parent.handedOut(name);
 	}
 
-	// builds a potential variable name
-	private String buildCandidate(int bodyLength) {
-		StringBuilder sb = new StringBuilder();
+	// the counter through the feistel network, again and again until it lands inside the name space
+	// the network permutes [0, 4^halfBits) and the space covers more than a quarter of that, so it's a few tries at most on average
+	private long permute(long value) {
+		do {
+			value = encrypt(value);
+		} while (value >= space);
+		return value;
+	}
+
+	private long unpermute(long value) {
+		do {
+			value = decrypt(value);
+		} while (value >= space);
+		return value;
+	}
+
+	private long encrypt(long value) {
+		long mask = (1L << halfBits) - 1;
+		long left = value >>> halfBits;
+		long right = value & mask;
+		for (int i = 0; i < ROUNDS; i++) {
+			long next = left ^ (mix(right ^ keys[i]) & mask);
+			left = right;
+			right = next;
+		}
+		return (left << halfBits) | right;
+	}
+
+	private long decrypt(long value) {
+		long mask = (1L << halfBits) - 1;
+		long left = value >>> halfBits;
+		long right = value & mask;
+		for (int i = ROUNDS - 1; i >= 0; i--) {
+			long previous = right ^ (mix(left ^ keys[i]) & mask);
+			right = left;
+			left = previous;
+		}
+		return (left << halfBits) | right;
+	}
+
+	// splitmix64's finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	// the index as a name: first char, then base 62 digits; past MAX_PERMUTED_CHARS the chars come from a hash of the index
+	private String buildName(long index) {
+		StringBuilder sb = new StringBuilder(prefix.length() + 1 + length);
+		appendPrefix(sb);
+
+		sb.append(FIRST_CHARS.charAt((int) (index % FIRST_CHARS.length())));
+		long rest = index / FIRST_CHARS.length();
+		long filler = mix(index ^ keys[0]);
+		for (int i = 1; i < length; i++) {
+			if (i < MAX_PERMUTED_CHARS) {
+				sb.append(ALPHANUMERIC.charAt((int) (rest % ALPHANUMERIC.length())));
+				rest /= ALPHANUMERIC.length();
+			} else {
+				sb.append(ALPHANUMERIC.charAt((int) Long.remainderUnsigned(filler, ALPHANUMERIC.length())));
+				filler = mix(filler);
+			}
+		}
+		return sb.toString();
+	}
+
+	// buildName backwards, -1 for a name it can't have built
+	private long indexOf(String name) {
+		int start = prefix.isEmpty() ? 0 : prefix.length() + (prefix.endsWith("_") ? 0 : 1);
+		if (name.length() != start + length || !name.startsWith(prefix)) {
+			return -1;
+		}
+		long index = 0;
+		for (int i = Math.min(length, MAX_PERMUTED_CHARS) - 1; i >= 1; i--) {
+			int digit = ALPHANUMERIC.indexOf(name.charAt(start + i));
+			if (digit < 0) return -1;
+			index = index * ALPHANUMERIC.length() + digit;
+		}
+		int first = FIRST_CHARS.indexOf(name.charAt(start));
+		if (first < 0) return -1;
+		index = index * FIRST_CHARS.length() + first;
+		return name.equals(buildName(index)) ? index : -1; // the prefix separator and the filler chars have to match too
+	}
+
+	private void appendPrefix(StringBuilder sb) {
 		if (!prefix.isEmpty()) {
 			sb.append(prefix);
 			if (!prefix.endsWith("_")) sb.append("_");
 		}
+	}
 
-		sb.append(FIRST_CHARS.charAt(rng.nextInt(FIRST_CHARS.length())));
-		for (int i = 1; i < bodyLength; i++) {
-			sb.append(ALPHANUMERIC.charAt(rng.nextInt(ALPHANUMERIC.length())));
-		}
-		return sb.toString();
+	public long usedCount() {
+		return counter;
 	}
 
-	public int usedCount() {
-		return used.size();
+	public int getCollisions() {
+		return collisions;
 	}
 
-}
\ No newline at end of file
+}
@@ -1,5 +1,10 @@
 package org.pyfuscator.utils;
 
+import org.pyfuscator.ast.ASTFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class ObfuscationConfig {
 	private int varLength = 8;
 	private String varPrefix = "v";
@@ -8,8 +13,25 @@ public class ObfuscationConfig {
 	private boolean preserveImports = true;
 	private String inputFile;
 	private String outputFile;
+	private String inputDir;
+	private String outputDir;
+	private final List<String> includes = new ArrayList<>();
+	private final List<String> excludes = new ArrayList<>();
+	private int jobs = Runtime.getRuntime().availableProcessors();
+	private boolean pipeline = false;
+	private int queueDepth = 4;
 	private boolean keepTemp = false;
+	private ASTFormat astFormat = ASTFormat.BINARY;
 	private boolean verbose = false;
+	private String cacheDir;
+	private long cacheMaxMb = 512;
+	private String nameMapFile;
+	private boolean watch = false;
+	private boolean stats = false;
+	private String statsJsonFile;
+	private boolean parallelRename = false;
+	private boolean shortNames = false;
+	private boolean project = false;
 
 	private boolean renameFunctions = false;
 	private boolean renameClasses = false;
@@ -18,6 +40,9 @@ public class ObfuscationConfig {
 	private boolean obfuscateStrings = false;
     private boolean removeDocs = false;
 
+	private boolean useWorkers = true;
+	private int workerCount = 0; // 0 = pick based on the mode, see resolveWorkerCount
+
 	public static ObfuscationConfig createDefault() {
 		return new ObfuscationConfig();
 	}
@@ -78,6 +103,68 @@ public class ObfuscationConfig {
 		this.outputFile = outputFile;
 	}
 
+	public String getInputDir() {
+		return inputDir;
+	}
+
+	public void setInputDir(String inputDir) {
+		this.inputDir = inputDir;
+	}
+
+	public String getOutputDir() {
+		return outputDir;
+	}
+
+	public void setOutputDir(String outputDir) {
+		this.outputDir = outputDir;
+	}
+
+	public boolean isDirectoryMode() {
+		return inputDir != null;
+	}
+
+	// globs are matched against the path relative to the input dir
+	public List<String> getIncludes() {
+		return includes;
+	}
+
+	public void addInclude(String glob) {
+		includes.add(glob);
+	}
+
+	public List<String> getExcludes() {
+		return excludes;
+	}
+
+	public void addExclude(String glob) {
+		excludes.add(glob);
+	}
+
+	public int getJobs() {
+		return jobs;
+	}
+
+	public void setJobs(int jobs) {
+		this.jobs = jobs;
+	}
+
+	public boolean isPipeline() {
+		return pipeline;
+	}
+
+	public void setPipeline(boolean pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	// capacity of each queue between pipeline stages
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public void setQueueDepth(int queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
 	public boolean isKeepTemp() {
 		return keepTemp;
 	}
@@ -86,6 +173,15 @@ public class ObfuscationConfig {
 		this.keepTemp = keepTemp;
 	}
 
+	// format of the in memory hand off, --keep-temp files are always json so they stay readable
+	public ASTFormat getAstFormat() {
+		return astFormat;
+	}
+
+	public void setAstFormat(ASTFormat astFormat) {
+		this.astFormat = astFormat;
+	}
+
 	public boolean isVerbose() {
 		return verbose;
 	}
@@ -94,6 +190,89 @@ public class ObfuscationConfig {
 		this.verbose = verbose;
 	}
 
+	// null = no result cache
+	public String getCacheDir() {
+		return cacheDir;
+	}
+
+	public void setCacheDir(String cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	public long getCacheMaxMb() {
+		return cacheMaxMb;
+	}
+
+	public void setCacheMaxMb(long cacheMaxMb) {
+		this.cacheMaxMb = cacheMaxMb;
+	}
+
+	// null = fresh names every run
+	public String getNameMapFile() {
+		return nameMapFile;
+	}
+
+	public void setNameMapFile(String nameMapFile) {
+		this.nameMapFile = nameMapFile;
+	}
+
+	// keep running and redo files as they change
+	public boolean isWatch() {
+		return watch;
+	}
+
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	// time and allocation per stage, printed at the end (--stats) and/or written as json (--stats-json)
+	public boolean isStats() {
+		return stats || statsJsonFile != null;
+	}
+
+	public void setStats(boolean stats) {
+		this.stats = stats;
+	}
+
+	public boolean isPrintStats() {
+		return stats;
+	}
+
+	public String getStatsJsonFile() {
+		return statsJsonFile;
+	}
+
+	public void setStatsJsonFile(String statsJsonFile) {
+		this.statsJsonFile = statsJsonFile;
+	}
+
+	// rename the top-level defs/classes of a file on the common ForkJoinPool (ParallelRenamePass)
+	public boolean isParallelRename() {
+		return parallelRename;
+	}
+
+	public void setParallelRename(boolean parallelRename) {
+		this.parallelRename = parallelRename;
+	}
+
+	// shortest free names for the most used symbols instead of --var-prefix/--var-length ones (ShortNamePass)
+	public boolean isShortNames() {
+		return shortNames;
+	}
+
+	public void setShortNames(boolean shortNames) {
+		this.shortNames = shortNames;
+	}
+
+	// one rename table for the whole --input-dir, so imports between its files keep working (ProjectIndex)
+	public boolean isProject() {
+		return project;
+	}
+
+	public void setProject(boolean project) {
+		this.project = project;
+	}
+
 	public boolean isRenameFunctions() {
 		return renameFunctions;
 	}
@@ -137,13 +316,91 @@ public class ObfuscationConfig {
     public boolean isRemoveDocs() { return removeDocs; }
 
     public void setRemoveDocs(boolean removeDocs) { this.removeDocs = removeDocs; }
+
+	public boolean isUseWorkers() {
+		return useWorkers;
+	}
+
+	public void setUseWorkers(boolean useWorkers) {
+		this.useWorkers = useWorkers;
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
+	// one worker for a single file, otherwise one per job so the threads don't queue up on python
+	public int resolveWorkerCount() {
+		if (workerCount > 0) return workerCount;
+		return isDirectoryMode() ? jobs : 1;
+	}
+
+	// every option that changes the output of a file, in a fixed order, for the result cache key
+	// paths, thread counts, the ast format and such only change how the output gets made, so they stay out
+	public String cacheKey() {
+		return "varLength=" + varLength +
+				"\nvarPrefix=" + varPrefix +
+				"\nseed=" + seed +
+				"\npreserveBuiltins=" + preserveBuiltins +
+				"\npreserveImports=" + preserveImports +
+				"\nrenameFunctions=" + renameFunctions +
+				"\nrenameClasses=" + renameClasses +
+				"\nfoldConstants=" + foldConstants +
+				"\nremoveDeadCode=" + removeDeadCode +
+				"\nobfuscateStrings=" + obfuscateStrings +
+				"\nremoveDocs=" + removeDocs +
+				"\nparallelRename=" + parallelRename + // different names than the sequential pass
+				"\nshortNames=" + shortNames +
+				"\nproject=" + project;
+	}
+
 	// validation method
 	public void validate() {
-		if (inputFile == null || inputFile.isEmpty()) {
-			throw new IllegalArgumentException("Input file must be specified");
+		if (inputFile != null && inputDir != null) {
+			throw new IllegalArgumentException("Use either --input or --input-dir, not both");
+		}
+		if (isDirectoryMode()) {
+			if (outputDir == null || outputDir.isEmpty()) {
+				throw new IllegalArgumentException("Output directory must be specified");
+			}
+		} else {
+			if (inputFile == null || inputFile.isEmpty()) {
+				throw new IllegalArgumentException("Input file must be specified");
+			}
+			if (outputFile == null || outputFile.isEmpty()) {
+				throw new IllegalArgumentException("Output file must be specified");
+			}
+		}
+		if (shortNames && nameMapFile != null) {
+			throw new IllegalArgumentException("--short-names hands out names by how often they are used, it can't keep the names of a --name-map");
+		}
+		if (project && !isDirectoryMode()) {
+			throw new IllegalArgumentException("--project needs --input-dir, a single file has nothing to share names with");
+		}
+		if (project && nameMapFile != null) {
+			throw new IllegalArgumentException("--project can't keep the names of a --name-map yet");
+		}
+		if (project && shortNames) {
+			throw new IllegalArgumentException("--short-names picks names per file, it can't be combined with --project");
+		}
+		if (varLength < 1) {
+			throw new IllegalArgumentException("Variable name length must be at least 1");
+		}
+		if (workerCount < 0) {
+			throw new IllegalArgumentException("Worker count can't be negative");
+		}
+		if (jobs < 1) {
+			throw new IllegalArgumentException("Jobs must be at least 1");
+		}
+		if (queueDepth < 1) {
+			throw new IllegalArgumentException("Queue depth must be at least 1");
 		}
-		if (outputFile == null || outputFile.isEmpty()) {
-			throw new IllegalArgumentException("Output file must be specified");
+		if (cacheMaxMb < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1 MB");
 		}
 	}
 
@@ -153,6 +410,8 @@ public class ObfuscationConfig {
 		return "ObfuscationConfig{varLength=" + varLength +
 				", varPrefix='" + varPrefix + '\'' +
 				", inputFile='" + inputFile + '\'' +
-				", outputFile='" + outputFile + '\'' + '}';
+				", outputFile='" + outputFile + '\'' +
+				", inputDir='" + inputDir + '\'' +
+				", outputDir='" + outputDir + '\'' + '}';
 	}
 }
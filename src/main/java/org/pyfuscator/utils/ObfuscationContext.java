@@ -0,0 +1,122 @@
+package org.pyfuscator.utils;
+
+import org.pyfuscator.scope.NameMap;
+import org.pyfuscator.scope.ProjectIndex;
+import org.pyfuscator.scope.SymbolTable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// everything a run shares between its files: the python workers, the identifier table, the result cache and the name map
+// per file state (scopes, name generators, passes) is never in here, that is created fresh for every file
+public class ObfuscationContext {
+	private final ObfuscationConfig config;
+	private final PythonWorkerPool pool;
+	private volatile SymbolTable symbols = new SymbolTable(); // one per run, --watch starts a new one for every rebuild
+	private final ResultCache cache;
+	private final NameMap nameMap;
+	private final RunStats stats = new RunStats();
+	private final StageStats stageStats;
+	private volatile ProjectIndex project; // --project, set by DirectoryObfuscator before the files run
+
+	public ObfuscationContext(ObfuscationConfig config, PythonWorkerPool pool) throws IOException {
+		this.config = config;
+		this.pool = pool;
+		this.cache = ResultCache.forConfig(config, pool);
+		this.nameMap = config.getNameMapFile() != null ? NameMap.load(Path.of(config.getNameMapFile())) : null;
+		this.stageStats = new StageStats(config.isStats());
+	}
+
+	public ObfuscationConfig getConfig() {
+		return config;
+	}
+
+	// null with --no-workers
+	public PythonWorkerPool getPool() {
+		return pool;
+	}
+
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	// --watch, before a rebuild: a fresh table, so the identifiers and generated names of earlier rebuilds don't pile up
+	// (nothing keeps Symbols between runs, the trees, passes and project index are all made per run)
+	public void newSymbolTable() {
+		symbols = new SymbolTable();
+	}
+
+	// null without --cache-dir
+	public ResultCache getCache() {
+		return cache;
+	}
+
+	// null without --name-map
+	public NameMap getNameMap() {
+		return nameMap;
+	}
+
+	public RunStats getStats() {
+		return stats;
+	}
+
+	// always there, it only records with --stats or --stats-json
+	public StageStats getStageStats() {
+		return stageStats;
+	}
+
+	// the names a file starts from, null without --name-map
+	public NameMap.ModuleNames moduleNames(String module) {
+		return nameMap != null ? nameMap.module(module) : null;
+	}
+
+	public void setProject(ProjectIndex project) {
+		this.project = project;
+	}
+
+	// the view of the project index for a file, null without --project
+	public ProjectIndex.Module project(String module) {
+		ProjectIndex index = project;
+		return index != null ? index.module(module) : null;
+	}
+
+	// the cache key of a file, null without a cache
+	// with a name map the file's previous names are part of it, they decide the output as much as the seed does
+	// with --project so does the index of the other files
+	public String cacheKey(Path input, NameMap.ModuleNames names, ProjectIndex.Module project) throws IOException {
+		if (cache == null) return null;
+		return cache.keyFor(input, (names != null ? names.fingerprint() : "") + (project != null ? "\0" + project.fingerprint() : ""));
+	}
+
+	// whether a cached output may stand in for running the file
+	// a hit commits no names (the map keeps what it has for the file), so a file the map doesn't have yet has to run:
+	// an entry stored under another map (or before this one was deleted) would leave its names out of this map for good
+	public boolean mayUseCache(NameMap.ModuleNames names) {
+		return names == null || names.isKnown();
+	}
+
+	// a file made it through, its names go into the map that gets saved
+	public void commit(NameMap.ModuleNames names) {
+		if (names != null) {
+			nameMap.commit(names);
+		}
+	}
+
+	// the --stats report of the run so far, and a fresh start for the next one (--watch reports every rebuild)
+	public void reportStats() throws IOException {
+		if (!stageStats.isEnabled()) return;
+		if (config.isPrintStats()) {
+			stageStats.print(System.out);
+		}
+		if (config.getStatsJsonFile() != null) {
+			stageStats.writeJson(Path.of(config.getStatsJsonFile()));
+		}
+		stageStats.reset();
+	}
+
+	public void saveNameMap() throws IOException {
+		if (nameMap != null) {
+			nameMap.save();
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package org.pyfuscator.utils;
+
+import org.pyfuscator.ast.ASTFormat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// one long lived python process running worker.py
+// parser.py and compiler.py are loaded once and then requests go over stdin/stdout (see worker.py for the framing)
+// every request has a deadline: past it the process is killed, which ends the blocked read with an EOF
+// a worker whose pipe broke (or that got killed) is broken until restart(), errors of the input leave it usable
+public class PythonWorker implements AutoCloseable {
+	private static final byte OP_PING = 'h';
+	private static final byte OP_VERSION = 'v';
+	private static final byte OP_PARSE = 'p';
+	private static final byte OP_UNPARSE = 'u';
+	private static final byte OP_PARSE_STREAM = 'P';
+	private static final byte OP_PARSE_BINARY = 'B';
+	private static final byte OP_UNPARSE_STREAM = 'U';
+	private static final byte OP_QUIT = 'q';
+
+	private static final byte STATUS_OK = 'o';
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	// a ping (and quit) is answered right away by a worker that is alive
+	private static final long PING_TIMEOUT_MS = 5_000;
+	// parse/unparse of one file, generous, it's there so a hung interpreter can't hold a thread forever
+	private static final long REQUEST_TIMEOUT_MS = 300_000;
+
+	// kills workers that are past their deadline
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "python-worker-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String pythonCommand;
+	private Process process;
+	private DataOutputStream requests;
+	private DataInputStream responses;
+	private long lastUsed;
+	private volatile boolean broken; // the pipe failed or the deadline killed the process, the framing is lost
+
+	public PythonWorker(String pythonCommand) throws IOException {
+		this.pythonCommand = pythonCommand;
+		start();
+	}
+
+	private void start() throws IOException {
+		ProcessBuilder pb = new ProcessBuilder(pythonCommand, RunPython.getAbsoluteWorkerPath(),
+				RunPython.getAbsoluteParserPath(), RunPython.getAbsoluteCompilerPath());
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT); // crash output goes straight to the console
+		process = pb.start();
+		requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+		responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		lastUsed = System.currentTimeMillis();
+		broken = false;
+	}
+
+	// kills the process (if it's still around) and starts a fresh one
+	public void restart() throws IOException {
+		process.destroyForcibly();
+		start();
+	}
+
+	public boolean isAlive() {
+		return process.isAlive();
+	}
+
+	// the last request failed on the pipe rather than on its input, only a restart makes the worker usable again
+	public boolean isBroken() {
+		return broken;
+	}
+
+	// round trip a ping so a hung or half dead worker is caught before it gets real work
+	// a worker that doesn't answer within PING_TIMEOUT_MS is killed
+	public boolean isHealthy() {
+		if (!process.isAlive()) return false;
+		try {
+			Response response = call(OP_PING, new byte[0], PING_TIMEOUT_MS);
+			return response.ok() && "pong".equals(response.payload());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// sys.version of the interpreter
+	public String version() throws IOException {
+		Response response = call(OP_VERSION, new byte[0], PING_TIMEOUT_MS);
+		if (!response.ok()) {
+			throw new IOException("python worker has no version: " + response.payload());
+		}
+		return response.payload();
+	}
+
+	public long idleMillis() {
+		return System.currentTimeMillis() - lastUsed;
+	}
+
+	public void parse(String inputPath, String outputPath) throws IOException {
+		callChecked(OP_PARSE, inputPath + "\0" + outputPath, "parser failed: ");
+	}
+
+	public void unparse(String inputPath, String outputPath) throws IOException {
+		callChecked(OP_UNPARSE, inputPath + "\0" + outputPath, "compiler failed: ");
+	}
+
+	// the AST comes back as the response payload and goes straight into the reader, no temp file
+	// whatever the reader leaves unread is skipped so the next response starts at a frame boundary
+	public synchronized <T> T parse(String inputPath, ASTFormat format, RunPython.StreamReader<T> reader) throws IOException {
+		byte op = format == ASTFormat.BINARY ? OP_PARSE_BINARY : OP_PARSE_STREAM;
+		return withDeadline(REQUEST_TIMEOUT_MS, () -> {
+			sendRequest(op, inputPath.getBytes(StandardCharsets.UTF_8));
+			int length = readHeader(); // status ok, or the parser's error
+			FrameInputStream payload = new FrameInputStream(length);
+			try {
+				return reader.read(payload);
+			} finally {
+				payload.skipRemaining();
+				lastUsed = System.currentTimeMillis();
+			}
+		});
+	}
+
+	// the writer streams the AST straight into python's stdin in chunks, no temp file
+	public synchronized void unparse(String outputPath, RunPython.StreamWriter writer) throws IOException {
+		Response response = withDeadline(REQUEST_TIMEOUT_MS, () -> {
+			sendRequest(OP_UNPARSE_STREAM, outputPath.getBytes(StandardCharsets.UTF_8));
+			try (ChunkedOutputStream body = new ChunkedOutputStream()) {
+				writer.write(body);
+			} catch (IOException | RuntimeException e) {
+				// closing the body already sent its end marker, so python got a whole (cut off) body and answers it with an error
+				// reading that answer keeps the next request on a frame boundary and the worker usable
+				// a failed write broke the pipe instead, then the worker is broken and the pool restarts it
+				if (!broken) {
+					try {
+						readResponse();
+					} catch (IOException pipe) {
+						e.addSuppressed(pipe);
+					}
+				}
+				throw e;
+			}
+			return readResponse();
+		});
+		if (!response.ok()) {
+			throw new RuntimeException("compiler failed: " + response.payload());
+		}
+	}
+
+	// python side errors become RuntimeExceptions (same as the one shot path), broken pipes stay IOExceptions so the pool can restart us
+	private void callChecked(byte op, String payload, String errorPrefix) throws IOException {
+		Response response = call(op, payload.getBytes(StandardCharsets.UTF_8), REQUEST_TIMEOUT_MS);
+		if (!response.ok()) {
+			throw new RuntimeException(errorPrefix + response.payload());
+		}
+	}
+
+	private synchronized Response call(byte op, byte[] payload, long timeoutMillis) throws IOException {
+		return withDeadline(timeoutMillis, () -> {
+			sendRequest(op, payload);
+			return readResponse();
+		});
+	}
+
+	// runs one request with the process killed if it takes longer than timeoutMillis
+	// killing it closes its stdout, so the blocked read ends in an IOException instead of waiting forever
+	private <T> T withDeadline(long timeoutMillis, Request<T> request) throws IOException {
+		Process watched = process;
+		AtomicBoolean expired = new AtomicBoolean();
+		ScheduledFuture<?> deadline = WATCHDOG.schedule(() -> {
+			expired.set(true);
+			broken = true;
+			watched.destroyForcibly();
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		try {
+			return request.run();
+		} catch (IOException e) {
+			if (expired.get()) {
+				throw new IOException("python worker didn't answer within " + timeoutMillis + " ms, killed it", e);
+			}
+			throw e;
+		} finally {
+			deadline.cancel(false);
+		}
+	}
+
+	private void sendRequest(byte op, byte[] payload) throws IOException {
+		try {
+			requests.writeByte(op);
+			requests.writeInt(payload.length);
+			requests.write(payload);
+			requests.flush();
+		} catch (IOException e) {
+			broken = true;
+			throw e;
+		}
+	}
+
+	// status and length of a response, a failed status is thrown with its message
+	private int readHeader() throws IOException {
+		byte status;
+		int length;
+		try {
+			status = responses.readByte(); // EOFException here means the process died
+			length = responses.readInt();
+		} catch (IOException e) {
+			broken = true;
+			throw e;
+		}
+		if (status != STATUS_OK) {
+			throw new RuntimeException("parser failed: " + readPayload(length));
+		}
+		return length;
+	}
+
+	private Response readResponse() throws IOException {
+		try {
+			byte status = responses.readByte(); // EOFException here means the process died
+			int length = responses.readInt();
+			String payload = readPayload(length);
+			lastUsed = System.currentTimeMillis();
+			return new Response(status == STATUS_OK, payload);
+		} catch (IOException e) {
+			broken = true;
+			throw e;
+		}
+	}
+
+	private String readPayload(int length) throws IOException {
+		byte[] body = responses.readNBytes(length);
+		if (body.length != length) {
+			broken = true;
+			throw new IOException("python worker closed the pipe mid response");
+		}
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (process.isAlive()) {
+				call(OP_QUIT, new byte[0], PING_TIMEOUT_MS);
+				process.waitFor(1, TimeUnit.SECONDS);
+			}
+		} catch (Exception ignored) {
+			// we are shutting down anyway
+		} finally {
+			process.destroyForcibly();
+		}
+	}
+
+	private record Response(boolean ok, String payload) {
+	}
+
+	@FunctionalInterface
+	private interface Request<T> {
+		T run() throws IOException;
+	}
+
+	// the payload of one response frame, reads stop at the frame boundary
+	// a failing read is the pipe's, it breaks the worker; what the reader makes of the bytes is not
+	private class FrameInputStream extends InputStream {
+		private long remaining;
+
+		FrameInputStream(long length) {
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) return -1;
+			int b = pipe(responses.read());
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) return -1;
+			int n = pipe(responses.read(buffer, offset, (int) Math.min(length, remaining)));
+			remaining -= n;
+			return n;
+		}
+
+		void skipRemaining() throws IOException {
+			while (remaining > 0) {
+				long skipped = responses.skip(remaining);
+				if (skipped <= 0) {
+					pipe(responses.read());
+					skipped = 1;
+				}
+				remaining -= skipped;
+			}
+		}
+
+		private int pipe(int result) throws IOException {
+			if (result < 0) {
+				broken = true;
+				throw new IOException("python worker closed the pipe mid response");
+			}
+			return result;
+		}
+
+		@Override
+		public void close() {
+			// the pipe belongs to the worker
+		}
+	}
+
+	// buffers writes into length prefixed chunks, close() sends the zero length end marker but leaves the pipe open
+	// a failing write is the pipe's, it breaks the worker
+	private class ChunkedOutputStream extends OutputStream {
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+		private int count;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length) writeChunk();
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (count == buffer.length) writeChunk();
+				int n = Math.min(length, buffer.length - count);
+				System.arraycopy(data, offset, buffer, count, n);
+				count += n;
+				offset += n;
+				length -= n;
+			}
+		}
+
+		private void writeChunk() throws IOException {
+			if (count == 0) return;
+			try {
+				requests.writeInt(count);
+				requests.write(buffer, 0, count);
+			} catch (IOException e) {
+				broken = true;
+				throw e;
+			}
+			count = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			writeChunk();
+			try {
+				requests.writeInt(0);
+				requests.flush();
+			} catch (IOException e) {
+				broken = true;
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package org.pyfuscator.utils;
+
+import org.pyfuscator.ast.ASTFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// fixed size pool of python workers that get reused across files
+// a worker that died (or stopped answering pings) gets restarted when it's borrowed
+// a request that fails on the worker (it died, the pipe broke, it ran past its deadline) restarts it and is tried again once,
+// one that fails on its input (a syntax error, a reader that can't make sense of the AST) is thrown as is, the worker stays warm
+public class PythonWorkerPool implements AutoCloseable {
+	// workers that sat idle longer than this get pinged before being handed out
+	private static final long HEALTH_CHECK_AFTER_MS = 5000;
+
+	private final List<PythonWorker> workers = new ArrayList<>();
+	private final BlockingQueue<PythonWorker> idle;
+	private String pythonVersion;
+
+	public PythonWorkerPool(String pythonCommand, int size) throws IOException {
+		if (size < 1) {
+			throw new IllegalArgumentException("worker pool size must be at least 1");
+		}
+		this.idle = new ArrayBlockingQueue<>(size);
+		try {
+			for (int i = 0; i < size; i++) {
+				PythonWorker worker = new PythonWorker(pythonCommand);
+				workers.add(worker);
+				idle.add(worker);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public void parse(String inputPath, String outputPath) throws Exception {
+		execute(worker -> worker.parse(inputPath, outputPath));
+	}
+
+	public void unparse(String inputPath, String outputPath) throws Exception {
+		execute(worker -> worker.unparse(inputPath, outputPath));
+	}
+
+	public <T> T parse(String inputPath, ASTFormat format, RunPython.StreamReader<T> reader) throws Exception {
+		return call(worker -> worker.parse(inputPath, format, reader));
+	}
+
+	public void unparse(String outputPath, RunPython.StreamWriter writer) throws Exception {
+		execute(worker -> worker.unparse(outputPath, writer));
+	}
+
+	public int size() {
+		return workers.size();
+	}
+
+	// sys.version of the workers' interpreter, asked once
+	public synchronized String pythonVersion() throws Exception {
+		if (pythonVersion == null) {
+			pythonVersion = call(PythonWorker::version);
+		}
+		return pythonVersion;
+	}
+
+	// borrow a worker, run the task and give it back
+	private void execute(WorkerTask task) throws Exception {
+		call(worker -> {
+			task.run(worker);
+			return null;
+		});
+	}
+
+	private <T> T call(WorkerCall<T> task) throws Exception {
+		PythonWorker worker = idle.take();
+		try {
+			if (!isHealthy(worker)) {
+				worker.restart();
+			}
+			try {
+				return task.run(worker);
+			} catch (IOException e) {
+				if (worker.isAlive() && !worker.isBroken()) {
+					throw e;
+				}
+				worker.restart();
+				return task.run(worker);
+			}
+		} finally {
+			idle.add(worker);
+		}
+	}
+
+	private boolean isHealthy(PythonWorker worker) {
+		return worker.isAlive() && (worker.idleMillis() < HEALTH_CHECK_AFTER_MS || worker.isHealthy());
+	}
+
+	@Override
+	public void close() {
+		for (PythonWorker worker : workers) {
+			worker.close();
+		}
+	}
+
+	@FunctionalInterface
+	private interface WorkerTask {
+		void run(PythonWorker worker) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface WorkerCall<T> {
+		T run(PythonWorker worker) throws IOException;
+	}
+}
@@ -0,0 +1,242 @@
+package org.pyfuscator.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// obfuscated outputs on disk, keyed by sha-256 of (tool version, python version, parser.py and compiler.py, config cache key, input bytes)
+// the python version is in there because ast.unparse output differs between versions, a cache shared by runs on
+// different interpreters would hand out another python's output; the scripts for snapshots built without a version bump
+// a hit copies the stored output and skips python and the passes completely
+// an entry doesn't record the names its output used, so with --name-map only files the map already has take hits
+// (ObfuscationContext.mayUseCache), the others run and put their names in the map
+// entries are written to a temp file and moved into place, so readers never see half an entry
+// eviction (least recently used first, a hit touches the mtime) runs under a lock file, so several processes can share a dir
+public class ResultCache {
+	private static final String ENTRY_SUFFIX = ".py";
+	private static final String LOCK_FILE = ".lock";
+	private static final String VERSION = loadVersion();
+
+	private final Path dir;
+	private final long maxBytes;
+	private final byte[] toolKey; // tool version, python version and scripts
+	private final byte[] configKey;
+	private final AtomicLong approximateSize;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	public ResultCache(Path dir, long maxBytes, String configKey, String pythonVersion, List<Path> scripts) throws IOException {
+		this.dir = dir.toAbsolutePath().normalize();
+		this.maxBytes = maxBytes;
+		this.toolKey = toolKey(pythonVersion, scripts);
+		this.configKey = configKey.getBytes(StandardCharsets.UTF_8);
+		Files.createDirectories(this.dir);
+		this.approximateSize = new AtomicLong(entries().stream().mapToLong(Entry::size).sum());
+	}
+
+	// pool is where the python version comes from, null with --no-workers (then python is asked directly)
+	public static ResultCache forConfig(ObfuscationConfig config, PythonWorkerPool pool) throws IOException {
+		if (config.getCacheDir() == null) return null;
+		String pythonVersion;
+		try {
+			pythonVersion = RunPython.pythonVersion(pool);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("can't get the python version for the cache key", e);
+		}
+		List<Path> scripts = List.of(Path.of(RunPython.getAbsoluteParserPath()), Path.of(RunPython.getAbsoluteCompilerPath()));
+		return new ResultCache(Path.of(config.getCacheDir()), config.getCacheMaxMb() * 1024 * 1024, config.cacheKey(), pythonVersion, scripts);
+	}
+
+	// the key of an input file under this cache's config
+	public String keyFor(Path input) throws IOException {
+		return keyFor(input, "");
+	}
+
+	// extra is anything else the output depends on (the file's entries in the name map)
+	public String keyFor(Path input, String extra) throws IOException {
+		MessageDigest digest = sha256();
+		digest.update(toolKey);
+		digest.update((byte) 0);
+		digest.update(configKey);
+		digest.update((byte) 0);
+		digest.update(extra.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		try (InputStream in = Files.newInputStream(input)) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	// copies the cached output to the given path, false on a miss
+	// the output's directory is only created on a hit, a miss may still fail and shouldn't leave one behind
+	public boolean copyTo(String key, Path output) throws IOException {
+		Path entry = entryPath(key);
+		if (Files.notExists(entry)) {
+			misses.incrementAndGet();
+			return false;
+		}
+		try {
+			Files.createDirectories(output.toAbsolutePath().getParent());
+			Files.copy(entry, output, StandardCopyOption.REPLACE_EXISTING);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (NoSuchFileException e) {
+			misses.incrementAndGet(); // not there, or evicted by someone else while we were copying
+			return false;
+		}
+		hits.incrementAndGet();
+		return true;
+	}
+
+	// stores a finished output, a failing store only costs the next run a miss
+	public void put(String key, Path output) {
+		try {
+			Path entry = entryPath(key);
+			Files.createDirectories(entry.getParent());
+			// not createTempFile, that one is owner only and the cache may be shared between users
+			Path temp = entry.resolveSibling(entry.getFileName() + "." + UUID.randomUUID() + ".tmp");
+			try {
+				Files.copy(output, temp);
+				moveIntoPlace(temp, entry);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			if (approximateSize.addAndGet(Files.size(entry)) > maxBytes) {
+				evict();
+			}
+		} catch (IOException e) {
+			System.err.println("warning: couldn't store " + output + " in the cache: " + e.getMessage());
+		}
+	}
+
+	// drops the least recently used entries until the cache fits again
+	// synchronized because a FileLock is per process, two threads of one jvm would throw on it instead of waiting
+	public synchronized void evict() throws IOException {
+		try (FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			FileLock lock = channel.lock();
+			try {
+				List<Entry> entries = entries();
+				long size = entries.stream().mapToLong(Entry::size).sum();
+				entries.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+				for (Entry entry : entries) {
+					if (size <= maxBytes) break;
+					if (Files.deleteIfExists(entry.path)) {
+						size -= entry.size;
+					}
+				}
+				approximateSize.set(size);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	public int getHits() {
+		return hits.get();
+	}
+
+	public int getMisses() {
+		return misses.get();
+	}
+
+	public static String version() {
+		return VERSION;
+	}
+
+	// two level layout (ab/abcdef...py) so no single directory gets huge
+	private Path entryPath(String key) {
+		return dir.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+	}
+
+	private List<Entry> entries() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		try (Stream<Path> walk = Files.walk(dir, 2)) {
+			for (Path path : (Iterable<Path>) walk::iterator) {
+				if (!path.getFileName().toString().endsWith(ENTRY_SUFFIX)) continue;
+				try {
+					BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					if (attributes.isRegularFile()) {
+						entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+					}
+				} catch (NoSuchFileException e) {
+					// evicted by another process mid walk
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return entries;
+	}
+
+	private static void moveIntoPlace(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// the part of every key that only changes with the tool or the interpreter
+	// (the version is collapsed to one line, how python and the pipe hand it over shouldn't matter)
+	private static byte[] toolKey(String pythonVersion, List<Path> scripts) throws IOException {
+		MessageDigest digest = sha256();
+		digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(pythonVersion.strip().replaceAll("\\s+", " ").getBytes(StandardCharsets.UTF_8));
+		for (Path script : scripts) {
+			digest.update((byte) 0);
+			digest.update(Files.readAllBytes(script));
+		}
+		return digest.digest();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every jvm has sha-256
+		}
+	}
+
+	// maven fills in the version (see the resources section of the pom), a plain ide build just says dev
+	private static String loadVersion() {
+		try (InputStream in = ResultCache.class.getResourceAsStream("/pyfuscator.properties")) {
+			if (in == null) return "dev";
+			Properties properties = new Properties();
+			properties.load(in);
+			String version = properties.getProperty("version", "dev");
+			return version.startsWith("${") ? "dev" : version;
+		} catch (IOException e) {
+			return "dev";
+		}
+	}
+
+	private record Entry(Path path, long size, long lastUsed) {
+	}
+}
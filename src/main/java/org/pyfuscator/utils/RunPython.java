@@ -1,14 +1,23 @@
 package org.pyfuscator.utils;
 
+import org.pyfuscator.ast.ASTFormat;
+
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RunPython {
+	// extracted script paths, so the scripts are only copied out of the jar once per jvm
+	private static final Map<String, String> extractedPaths = new ConcurrentHashMap<>();
+
 	private final String pythonCommand;
 
 	public RunPython() {
@@ -20,11 +29,96 @@ public class RunPython {
 	}
 
 	public static String getAbsoluteParserPath() {
-		return extractResourceToTemp("python/parser.py");
+		return extractedPaths.computeIfAbsent("python/parser.py", RunPython::extractResourceToTemp);
 	}
 
 	public static String getAbsoluteCompilerPath() {
-		return extractResourceToTemp("python/compiler.py");
+		return extractedPaths.computeIfAbsent("python/compiler.py", RunPython::extractResourceToTemp);
+	}
+
+	public static String getAbsoluteWorkerPath() {
+		return extractedPaths.computeIfAbsent("python/worker.py", RunPython::extractResourceToTemp);
+	}
+
+	// sys.version of the interpreter that parses and unparses, from a worker when there is a pool
+	public static String pythonVersion(PythonWorkerPool pool) throws Exception {
+		if (pool != null) {
+			return pool.pythonVersion();
+		}
+		Result result = new RunPython().run("-c", "import sys; sys.stdout.write(sys.version)");
+		if (result.exitCode() != 0) {
+			throw new RuntimeException("python version failed: " + result.stderr());
+		}
+		return result.stdout();
+	}
+
+	// parses with a pooled worker when there is a pool, otherwise spawns parser.py
+	public static void parse(PythonWorkerPool pool, String inputPath, String outputPath) throws Exception {
+		if (pool != null) {
+			pool.parse(inputPath, outputPath);
+			return;
+		}
+		Result result = new RunPython().run(getAbsoluteParserPath(), inputPath, outputPath);
+		if (result.exitCode() != 0) {
+			throw new RuntimeException("parser failed: " + result.stderr());
+		}
+	}
+
+	// same thing but for compiler
+	public static void unparse(PythonWorkerPool pool, String inputPath, String outputPath) throws Exception {
+		if (pool != null) {
+			pool.unparse(inputPath, outputPath);
+			return;
+		}
+		Result result = new RunPython().run(getAbsoluteCompilerPath(), inputPath, outputPath);
+		if (result.exitCode() != 0) {
+			throw new RuntimeException("compiler failed: " + result.stderr());
+		}
+	}
+
+	// parses straight into the reader, python's output never touches the disk
+	public static <T> T parse(PythonWorkerPool pool, String inputPath, ASTFormat format, StreamReader<T> reader) throws Exception {
+		if (pool != null) {
+			return pool.parse(inputPath, format, reader);
+		}
+		Process p = new RunPython().start(getAbsoluteParserPath(), inputPath, "-", format.scriptName());
+		p.getOutputStream().close();
+		T result;
+		try (InputStream stdout = p.getInputStream()) {
+			result = reader.read(stdout);
+			stdout.transferTo(OutputStream.nullOutputStream()); // let python finish writing whatever the reader didn't need
+		} catch (IOException e) {
+			// garbage on stdout usually means the parser blew up, its stderr says why
+			if (p.waitFor() != 0) {
+				throw new RuntimeException("parser failed: " + readAll(p.getErrorStream()));
+			}
+			throw e;
+		}
+		if (p.waitFor() != 0) {
+			throw new RuntimeException("parser failed: " + readAll(p.getErrorStream()));
+		}
+		return result;
+	}
+
+	// same thing but the writer streams into the compiler's stdin (the compiler tells json and binary apart itself)
+	public static void unparse(PythonWorkerPool pool, String outputPath, StreamWriter writer) throws Exception {
+		if (pool != null) {
+			pool.unparse(outputPath, writer);
+			return;
+		}
+		Process p = new RunPython().start(getAbsoluteCompilerPath(), "-", outputPath);
+		try (OutputStream stdin = p.getOutputStream()) {
+			writer.write(stdin);
+		} catch (IOException e) {
+			// a broken pipe means the compiler died early, its stderr says why
+			if (p.waitFor() != 0) {
+				throw new RuntimeException("compiler failed: " + readAll(p.getErrorStream()));
+			}
+			throw e;
+		}
+		if (p.waitFor() != 0) {
+			throw new RuntimeException("compiler failed: " + readAll(p.getErrorStream()));
+		}
 	}
 
 	// extracts resource (a resource is the file inside the jar) to a temporary file and returns the absolute path instead of relative
@@ -62,12 +156,7 @@ public class RunPython {
 
 	// runs the python command with the given arguments using processbuilder
 	public Result run(String... args) throws Exception {
-		List<String> command = new ArrayList<>();
-		command.add(pythonCommand);
-		command.addAll(Arrays.asList(args));
-
-		ProcessBuilder pb = new ProcessBuilder(command);
-		Process p = pb.start();
+		Process p = start(args);
 
 		p.waitFor();
 
@@ -77,6 +166,18 @@ public class RunPython {
 		return new Result(p.exitValue(), stdout, stderr);
 	}
 
+	// starts the python command without waiting for it, the streaming paths talk to its stdin/stdout themselves
+	public Process start(String... args) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(pythonCommand);
+		command.addAll(Arrays.asList(args));
+		return new ProcessBuilder(command).start();
+	}
+
+	private static String readAll(InputStream stream) throws IOException {
+		return new String(stream.readAllBytes());
+	}
+
 	private String readStream(InputStream stream) throws Exception {
 		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
 		StringBuilder sb = new StringBuilder();
@@ -91,4 +192,16 @@ public class RunPython {
 	public record Result(int exitCode, String stdout, String stderr) {
 	}
 
+	// reads what python printed, used to hand the parser's AST straight to the loader
+	@FunctionalInterface
+	public interface StreamReader<T> {
+		T read(InputStream in) throws IOException;
+	}
+
+	// writes what python should read, used to hand the writer's AST straight to the compiler
+	@FunctionalInterface
+	public interface StreamWriter {
+		void write(OutputStream out) throws IOException;
+	}
+
 }
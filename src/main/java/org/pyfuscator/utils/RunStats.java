@@ -0,0 +1,38 @@
+package org.pyfuscator.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// per file timings of a run, for the corpus benchmark (and anyone else who asks the context)
+// java time is the cpu time of the threads that worked on the file, the rest of the wall time is mostly waiting on python
+public class RunStats {
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final ConcurrentLinkedQueue<FileStats> files = new ConcurrentLinkedQueue<>();
+
+	public record FileStats(String module, long wallNanos, long javaCpuNanos, boolean failed) {
+		public long pythonNanos() {
+			return Math.max(0, wallNanos - javaCpuNanos);
+		}
+	}
+
+	public void record(String module, long wallNanos, long javaCpuNanos, boolean failed) {
+		files.add(new FileStats(module, wallNanos, javaCpuNanos, failed));
+	}
+
+	public List<FileStats> getFiles() {
+		return new ArrayList<>(files);
+	}
+
+	public void reset() {
+		files.clear();
+	}
+
+	// cpu time of the calling thread, 0 where the jvm can't tell
+	public static long threadCpuNanos() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+}
@@ -0,0 +1,61 @@
+package org.pyfuscator.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// flight recorder events for the stages of a file, so a recording of a long lived build daemon shows python stalls and slow passes
+// they are on in any recording (-XX:StartFlightRecording or jcmd JFR.start) and show up under Pyfuscator in JMC
+// StageStats emits them from the same hooks that do --stats, with no recording running they cost an allocation and a flag check
+final class StageEvents {
+	private StageEvents() {
+	}
+
+	@Name("org.pyfuscator.PythonCall")
+	@Label("Python Call")
+	@Category({"Pyfuscator", "Python"})
+	@Description("A parse or unparse on python. When the AST streams through the pipe the load/write runs inside it, Python Time is python's share")
+	@StackTrace(false)
+	static final class PythonCall extends Event {
+		@Label("Operation")
+		String operation;
+
+		@Label("File")
+		String file;
+
+		@Label("Bytes")
+		@Description("AST bytes that went through the pipe, 0 when they go through --keep-temp files")
+		@DataAmount
+		long bytes;
+
+		@Label("Python Time")
+		@Timespan
+		long pythonTime;
+	}
+
+	@Name("org.pyfuscator.Stage")
+	@Label("Obfuscator Stage")
+	@Category({"Pyfuscator", "Java"})
+	@Description("Loading, writing or one transformation pass of a file")
+	@StackTrace(false)
+	static final class Stage extends Event {
+		@Label("Stage")
+		String stage;
+
+		@Label("File")
+		String file;
+
+		@Label("Nodes")
+		long nodes;
+
+		@Label("Bytes")
+		@Description("AST bytes read or written, 0 for passes and --keep-temp files")
+		@DataAmount
+		long bytes;
+	}
+}
@@ -0,0 +1,373 @@
+package org.pyfuscator.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.pyfuscator.ast.Node;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+// --stats: wall time and allocated bytes per stage, summed over every file (and every thread) of a run
+// parse and unparse are the time java waits on python, their allocation is only java's end of the pipe
+// when python streams straight into the loader (or the writer into python) the two run interleaved,
+// then the time spent blocked on the pipe counts as python's and the rest as the loader's/writer's
+// a stage counts once it finishes, so a file that fails later still shows up in the stages before (and in files/nodes)
+// the same hooks emit the flight recorder events in StageEvents, those work without --stats
+public class StageStats {
+	public static final String PARSE = "parse";
+	public static final String LOAD = "load";
+	public static final String WRITE = "write";
+	public static final String UNPARSE = "unparse";
+	public static final String INDEX = "index"; // --project, parsing and indexing every file before the first one is renamed
+
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+	private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+	public enum Counter {
+		FILES("files"),
+		NODES("nodes"),
+		SCOPES("scopes"),
+		RENAMED("names renamed"),
+		COLLISIONS("name collisions");
+
+		private final String label;
+
+		Counter(String label) {
+			this.label = label;
+		}
+	}
+
+	private final boolean enabled;
+	// report order is the order stages first show up in, parse and load always come first
+	private final Map<String, Totals> stages = Collections.synchronizedMap(new LinkedHashMap<>());
+	private final Map<Counter, LongAdder> counters = new LinkedHashMap<>();
+
+	public StageStats(boolean enabled) {
+		this.enabled = enabled;
+		for (Counter counter : Counter.values()) {
+			counters.put(counter, new LongAdder());
+		}
+		reset();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void reset() {
+		stages.clear();
+		stages.put(PARSE, new Totals());
+		stages.put(LOAD, new Totals());
+		counters.values().forEach(LongAdder::reset);
+	}
+
+	// runs work as one stage of file, tree is what it works on (null if it makes the tree, like load)
+	public <T> T time(String stage, String file, Node tree, Callable<T> work) throws Exception {
+		if (stage.equals(PARSE) || stage.equals(UNPARSE)) {
+			StageEvents.PythonCall event = new StageEvents.PythonCall();
+			if (!enabled && !event.isEnabled()) return work.call();
+			event.begin();
+			Span span = new Span();
+			T result = work.call();
+			event.end();
+			span.stop();
+			commit(event, stage, file, 0, span.nanos);
+			add(stage, span.nanos, span.bytes);
+			return result;
+		}
+		StageEvents.Stage event = new StageEvents.Stage();
+		if (!enabled && !event.isEnabled()) return work.call();
+		event.begin();
+		Span span = new Span();
+		T result = work.call();
+		event.end();
+		span.stop();
+		commit(event, stage, file, result instanceof Node node ? node : tree, 0);
+		add(stage, span.nanos, span.bytes);
+		return result;
+	}
+
+	// a parse that streams python's output into reader: parse until the reader starts, load from then on minus the waits for python
+	public <T> T parse(String file, RunPython.StreamReader<T> reader, PythonCall<RunPython.StreamReader<T>, T> call) throws Exception {
+		StageEvents.PythonCall pythonEvent = new StageEvents.PythonCall();
+		if (!enabled && !pythonEvent.isEnabled()) return call.call(reader);
+		StageEvents.Stage loadEvent = new StageEvents.Stage();
+		pythonEvent.begin();
+		Span total = new Span();
+		Span[] load = new Span[1];
+		long[] bytes = new long[1];
+		T result = call.call(in -> {
+			WaitTimingInputStream timed = new WaitTimingInputStream(in);
+			loadEvent.begin();
+			Span span = new Span();
+			try {
+				return reader.read(timed);
+			} finally {
+				loadEvent.end();
+				load[0] = span.stop().minus(timed.waitNanos);
+				bytes[0] = timed.bytes;
+			}
+		});
+		pythonEvent.end();
+		total.stop();
+		commit(pythonEvent, PARSE, file, bytes[0], total.nanos - load[0].nanos);
+		commit(loadEvent, LOAD, file, result instanceof Node node ? node : null, bytes[0]);
+		add(PARSE, total.nanos - load[0].nanos, total.bytes - load[0].bytes);
+		add(LOAD, load[0].nanos, load[0].bytes);
+		return result;
+	}
+
+	// an unparse that streams writer's output (tree) into python: write minus the waits on a full pipe, the rest is python's
+	public void unparse(String file, Node tree, RunPython.StreamWriter writer, PythonCall<RunPython.StreamWriter, Void> call) throws Exception {
+		StageEvents.PythonCall pythonEvent = new StageEvents.PythonCall();
+		if (!enabled && !pythonEvent.isEnabled()) {
+			call.call(writer);
+			return;
+		}
+		StageEvents.Stage writeEvent = new StageEvents.Stage();
+		pythonEvent.begin();
+		Span total = new Span();
+		Span[] write = new Span[1];
+		long[] bytes = new long[1];
+		call.call(out -> {
+			WaitTimingOutputStream timed = new WaitTimingOutputStream(out);
+			writeEvent.begin();
+			Span span = new Span();
+			try {
+				writer.write(timed);
+			} finally {
+				writeEvent.end();
+				write[0] = span.stop().minus(timed.waitNanos);
+				bytes[0] = timed.bytes;
+			}
+		});
+		pythonEvent.end();
+		total.stop();
+		commit(writeEvent, WRITE, file, tree, bytes[0]);
+		commit(pythonEvent, UNPARSE, file, bytes[0], total.nanos - write[0].nanos);
+		add(WRITE, write[0].nanos, write[0].bytes);
+		add(UNPARSE, total.nanos - write[0].nanos, total.bytes - write[0].bytes);
+	}
+
+	public void count(Counter counter, long amount) {
+		if (enabled) counters.get(counter).add(amount);
+	}
+
+	// a freshly loaded tree, counts the file and its nodes
+	public void countTree(Node root) {
+		if (!enabled) return;
+		count(Counter.FILES, 1);
+		count(Counter.NODES, countNodes(root));
+	}
+
+	// the human readable report, one line per stage
+	public void print(PrintStream out) {
+		List<Map.Entry<String, Totals>> rows = rows();
+		long totalNanos = rows.stream().mapToLong(row -> row.getValue().nanos.sum()).sum();
+		StringBuilder summary = new StringBuilder("stats:");
+		counters.forEach((counter, value) -> summary.append(counter == Counter.FILES ? " " : ", ").append(value.sum()).append(' ').append(counter.label));
+		out.println(summary);
+		out.printf("  %-28s %11s %7s %12s%n", "stage (summed over threads)", "time", "share", "allocated");
+		for (Map.Entry<String, Totals> row : rows) {
+			long nanos = row.getValue().nanos.sum();
+			String allocated = THREADS != null ? String.format("%.1f MB", row.getValue().bytes.sum() / 1048576.0) : "n/a";
+			out.printf("  %-28s %8.1f ms %6.1f%% %12s%n", row.getKey(), nanos / 1e6, 100.0 * nanos / Math.max(1, totalNanos), allocated);
+		}
+	}
+
+	// the same numbers as json, for charting across builds
+	public void writeJson(Path file) throws IOException {
+		Map<String, Object> json = new LinkedHashMap<>();
+		counters.forEach((counter, value) -> json.put(counter.name().toLowerCase(), value.sum()));
+		List<Map<String, Object>> stageList = new ArrayList<>();
+		for (Map.Entry<String, Totals> row : rows()) {
+			Map<String, Object> stage = new LinkedHashMap<>();
+			stage.put("name", row.getKey());
+			stage.put("calls", row.getValue().calls.sum());
+			stage.put("nanos", row.getValue().nanos.sum());
+			stage.put("allocatedBytes", THREADS == null ? null : row.getValue().bytes.sum());
+			stageList.add(stage);
+		}
+		json.put("stages", stageList);
+		MAPPER.writeValue(file.toFile(), json);
+	}
+
+	// stages that never ran (load and parse of a run that was all cache hits) stay out
+	private List<Map.Entry<String, Totals>> rows() {
+		synchronized (stages) {
+			return stages.entrySet().stream().filter(row -> row.getValue().calls.sum() > 0).toList();
+		}
+	}
+
+	private void add(String stage, long nanos, long bytes) {
+		if (!enabled) return; // the hooks ran for a flight recording, not for --stats
+		Totals totals = stages.computeIfAbsent(stage, name -> new Totals());
+		totals.calls.increment();
+		totals.nanos.add(Math.max(0, nanos));
+		totals.bytes.add(Math.max(0, bytes));
+	}
+
+	private static void commit(StageEvents.PythonCall event, String operation, String file, long bytes, long pythonNanos) {
+		if (!event.shouldCommit()) return;
+		event.operation = operation;
+		event.file = file;
+		event.bytes = bytes;
+		event.pythonTime = Math.max(0, pythonNanos);
+		event.commit();
+	}
+
+	// the node count walks the tree, only done when the event is actually recorded
+	private static void commit(StageEvents.Stage event, String stage, String file, Node tree, long bytes) {
+		if (!event.shouldCommit()) return;
+		event.stage = stage;
+		event.file = file;
+		event.nodes = tree != null ? countNodes(tree) : 0;
+		event.bytes = bytes;
+		event.commit();
+	}
+
+	private static long countNodes(Node root) {
+		long[] nodes = {0};
+		root.walk(node -> nodes[0]++, node -> {});
+		return nodes[0];
+	}
+
+	private static long allocatedBytes() {
+		return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	// hotspot (and most other jvms) count allocations per thread, null where that isn't there
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+				&& threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+			return threads;
+		}
+		return null;
+	}
+
+	// a python call that takes the reader/writer it should stream through
+	@FunctionalInterface
+	public interface PythonCall<S, T> {
+		T call(S stream) throws Exception;
+	}
+
+	private static final class Totals {
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+	}
+
+	// wall time and allocation of the calling thread from construction to stop()
+	private static final class Span {
+		private final long startNanos = System.nanoTime();
+		private final long startBytes = allocatedBytes();
+		private long nanos;
+		private long bytes;
+
+		Span stop() {
+			nanos = System.nanoTime() - startNanos;
+			bytes = allocatedBytes() - startBytes;
+			return this;
+		}
+
+		Span minus(long waitNanos) {
+			nanos -= waitNanos;
+			return this;
+		}
+	}
+
+	// time spent inside read(), which on a pipe is mostly waiting for python to write more
+	private static final class WaitTimingInputStream extends FilterInputStream {
+		private long waitNanos;
+		private long bytes;
+
+		WaitTimingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			try {
+				int b = in.read();
+				if (b >= 0) bytes++;
+				return b;
+			} finally {
+				waitNanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			long start = System.nanoTime();
+			try {
+				int n = in.read(buffer, offset, length);
+				if (n > 0) bytes += n;
+				return n;
+			} finally {
+				waitNanos += System.nanoTime() - start;
+			}
+		}
+	}
+
+	// time spent inside write()/flush(), which on a pipe is mostly waiting for python to read
+	private static final class WaitTimingOutputStream extends FilterOutputStream {
+		private long waitNanos;
+		private long bytes;
+
+		WaitTimingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			long start = System.nanoTime();
+			try {
+				out.write(b);
+				bytes++;
+			} finally {
+				waitNanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			long start = System.nanoTime();
+			try {
+				out.write(data, offset, length);
+				bytes += length;
+			} finally {
+				waitNanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			long start = System.nanoTime();
+			try {
+				out.flush();
+			} finally {
+				waitNanos += System.nanoTime() - start;
+			}
+		}
+
+		// the caller owns the stream, closing it is python's business
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
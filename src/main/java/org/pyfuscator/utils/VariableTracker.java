@@ -1,5 +1,8 @@
 package org.pyfuscator.utils;
 
+import org.pyfuscator.scope.Symbol;
+
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -43,6 +46,10 @@ public class VariableTracker {
 	);
 	private final ObfuscationConfig config;
 	private final Set<String> importedModules = new HashSet<>();
+	private final Set<Symbol> importedSymbols = new HashSet<>();
+	// shouldRenameVariable(Symbol) minus the import check, by symbol id, so each name is checked once per file
+	private final BitSet checkedSymbols = new BitSet();
+	private final BitSet renamableSymbols = new BitSet();
 
 	public VariableTracker(ObfuscationConfig config) {
 		this.config = config != null ? config : ObfuscationConfig.createDefault();
@@ -52,6 +59,14 @@ public class VariableTracker {
 		this.config = ObfuscationConfig.createDefault();
 	}
 
+	// same config and imports, for a part of the file that is renamed on another thread (the caches aren't shared)
+	public VariableTracker copy() {
+		VariableTracker copy = new VariableTracker(config);
+		copy.importedModules.addAll(importedModules);
+		copy.importedSymbols.addAll(importedSymbols);
+		return copy;
+	}
+
 	public boolean isCommonModule(String varName) {
 		return COMMON_MODULES.contains(varName);
 	}
@@ -62,23 +77,46 @@ public class VariableTracker {
 		}
 	}
 
+	public void trackImport(Symbol moduleName) {
+		if (moduleName != null) {
+			importedSymbols.add(moduleName);
+			importedModules.add(moduleName.name());
+		}
+	}
+
 	public boolean isImported(String varName) {
 		return importedModules.contains(varName);
 	}
 
 	// checks for nulls, builtins, keywords, special attributes, imports, and __ prefix
 	public boolean shouldRenameVariable(String varName) {
-		if (varName == null || varName.isEmpty()) return false;
+		if (varName == null || !isRenamableName(varName)) return false;
+		return !config.isPreserveImports() || !isImported(varName);
+	}
+
+	// same answer as the String version, the name checks are cached per symbol and imports are a set lookup
+	public boolean shouldRenameVariable(Symbol symbol) {
+		if (symbol == null) return false;
+		int id = symbol.id();
+		if (!checkedSymbols.get(id)) {
+			checkedSymbols.set(id);
+			if (isRenamableName(symbol.name())) renamableSymbols.set(id);
+		}
+		if (!renamableSymbols.get(id)) return false;
+		return !config.isPreserveImports() || !importedSymbols.contains(symbol);
+	}
+
+	// everything shouldRenameVariable checks except the imports seen so far
+	private boolean isRenamableName(String varName) {
+		if (varName.isEmpty()) return false;
 		if (varName.startsWith("__") || isSpecialAttribute(varName)) return false;
 		if (SPECIAL_IDENTIFIERS.contains(varName)) return false;
 		if (isPythonKeyword(varName)) return false;
 		if (varName.equals("_")) return false;
 		if (config.isPreserveBuiltins() && isBuiltinFunction(varName)) return false;
-		if (config.isPreserveImports() && isImported(varName)) return false;
 		return !config.isPreserveImports() || !isCommonModule(varName);
 	}
 
-
 	public boolean isBuiltinFunction(String varName) {
 		return BUILT_IN_FUNCTIONS.contains(varName);
 	}
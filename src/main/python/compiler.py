@@ -2,72 +2,192 @@ import sys
 import dis
 import ast
 import json
+import struct
+
+# force single AST nodes into lists for common list fields
+# Lambda.body and arguments.args should NOT be converted
+LIST_FIELDS = {'body', 'orelse', 'finalbody', 'decorator_list', 'handlers',
+               'targets', 'keywords', 'elts', 'names'}
+
+# fields that should NOT be lists for certain node types
+SINGLE_VALUE_FIELDS = {
+    'Lambda': {'body'},  # Lambda.body is a single expression
+    'IfExp': {'body', 'orelse'},  # a if b else c, both branches are expressions
+    'arguments': {'args'}  # arguments.args is going to be handled separately
+}
+
+# fields that should ALWAYS be lists (even if they are single elements in the JSON object)
+ALWAYS_LIST_FIELDS = {
+    'Dict': {'keys', 'values'},  # Dict.keys and Dict.values must be lists
+    'Tuple': {'elts'},  # Tuple.elts must be a list
+    'List': {'elts'},   # List.elts must be a list
+    'Set': {'elts'}      # Set.elts must be a list
+}
+
+# builds one node from already converted field values (shared by the json and binary paths)
+def build_node(node_type_name, fields):
+    node_type = getattr(ast, node_type_name)
+
+    for k in list(fields.keys()):
+        should_always_be_list = (node_type_name in ALWAYS_LIST_FIELDS and
+                                 k in ALWAYS_LIST_FIELDS[node_type_name])
+
+        # check if the field is in list_fields or shuold always be a listlist
+        if (k in LIST_FIELDS or should_always_be_list) and not isinstance(fields[k], list):
+            #  skip if it is an exception (unless it should always be a list)
+            if not should_always_be_list and node_type_name in SINGLE_VALUE_FIELDS and k in SINGLE_VALUE_FIELDS[node_type_name]:
+                continue
+
+            # if value is None it shuold be replaced with an empty list
+            if fields[k] is None:
+                fields[k] = []
+            else:
+                fields[k] = [fields[k]]
+
+    return node_type(**fields)
 
 def dict_to_ast(node):
     if isinstance(node, dict) and 'type' in node:
-        node_type_name = node['type']
-        node_type = getattr(ast, node_type_name)
         fields = {}
         for k, v in node.get('fields', {}).items():
             fields[k] = dict_to_ast(v)
-
-        # force single AST nodes into lists for common list fields
-        # Lambda.body and arguments.args should NOT be converted
-        LIST_FIELDS = {'body', 'orelse', 'finalbody', 'decorator_list', 'handlers',
-                       'targets', 'keywords', 'elts', 'names'}
-
-        # fields that should NOT be lists for certain node types
-        SINGLE_VALUE_FIELDS = {
-            'Lambda': {'body'},  # Lambda.body is a single expression
-            'arguments': {'args'}  # arguments.args is going to be handled separately
-        }
-
-        # fields that should ALWAYS be lists (even if they are single elements in the JSON object)
-        ALWAYS_LIST_FIELDS = {
-            'Dict': {'keys', 'values'},  # Dict.keys and Dict.values must be lists
-            'Tuple': {'elts'},  # Tuple.elts must be a list
-            'List': {'elts'},   # List.elts must be a list
-            'Set': {'elts'}      # Set.elts must be a list
-        }
-
-        for k in list(fields.keys()):
-            should_always_be_list = (node_type_name in ALWAYS_LIST_FIELDS and
-                                     k in ALWAYS_LIST_FIELDS[node_type_name])
-
-            # check if the field is in list_fields or shuold always be a listlist
-            if (k in LIST_FIELDS or should_always_be_list) and not isinstance(fields[k], list):
-                #  skip if it is an exception (unless it should always be a list)
-                if not should_always_be_list and node_type_name in SINGLE_VALUE_FIELDS and k in SINGLE_VALUE_FIELDS[node_type_name]:
-                    continue
-
-                # if value is None it shuold be replaced with an empty list
-                if fields[k] is None:
-                    fields[k] = []
-                else:
-                    fields[k] = [fields[k]]
-
-        return node_type(**fields)
+        return build_node(node['type'], fields)
     elif isinstance(node, list):
         return [dict_to_ast(n) for n in node]
     else:
         return node
 
-if __name__ == "__main__": # compiler.py input.json output.py
-    if len(sys.argv) != 3:
-        print("Usage: python compiler.py <input_file.json> <output_file.py>")
-        sys.exit(1)
+# binary format written by parser.py / BinaryAST.java
+# decoded straight into ast nodes, what json.load + dict_to_ast would give without the dicts in between
+BINARY_MAGIC = b"PYFB"
+BINARY_VERSION = 1
+TAG_END, TAG_NULL, TAG_FALSE, TAG_TRUE, TAG_INT, TAG_BIGINT, TAG_FLOAT, TAG_STRING, TAG_LIST, TAG_NODE, TAG_OBJECT = range(11)
+DOUBLE = struct.Struct(">d")
+
+# one function with everything in locals, attribute lookups are most of the cost in a loop like this
+def decode_binary_ast(data):
+    if data[:4] != BINARY_MAGIC or len(data) < 5 or data[4] != BINARY_VERSION:
+        raise ValueError("not a binary AST (or an unsupported version)")
+    types = []
+    field_names = []
+    strings = []
+    pos = 5
+    unpack_double = DOUBLE.unpack_from
+
+    def varint():
+        nonlocal pos
+        b = data[pos]
+        pos += 1
+        if b < 0x80:
+            return b
+        result = b & 0x7F
+        shift = 7
+        while True:
+            b = data[pos]
+            pos += 1
+            result |= (b & 0x7F) << shift
+            if b < 0x80:
+                return result
+            shift += 7
+
+    # ref == first_index brings a new table entry, anything else points at an earlier one
+    def ref(table, index, first_index):
+        nonlocal pos
+        if index != first_index:
+            return table[index - first_index - 1]
+        length = varint()
+        text = data[pos:pos + length].decode("utf-8", "surrogatepass")
+        pos += length
+        table.append(text)
+        return text
 
-    with open(sys.argv[1], "r") as f:
-        ast_dict = json.load(f)
+    def entries():
+        fields = {}
+        while True:
+            index = varint()
+            if index == 0:
+                return fields
+            name = field_names[index - 2] if index != 1 else ref(field_names, 1, 1)
+            fields[name] = value()
+
+    def value():
+        nonlocal pos
+        tag = data[pos]
+        pos += 1
+        if tag == TAG_NODE:
+            node_type = ref(types, varint(), 0)
+            return build_node(node_type, entries())
+        if tag == TAG_STRING:
+            index = varint()
+            return strings[index - 1] if index else ref(strings, 0, 0)
+        if tag == TAG_LIST:
+            items = []
+            while data[pos] != TAG_END:
+                items.append(value())
+            pos += 1
+            return items
+        if tag == TAG_NULL:
+            return None
+        if tag == TAG_INT:
+            zigzag = varint()
+            return (zigzag >> 1) ^ -(zigzag & 1)
+        if tag == TAG_TRUE:
+            return True
+        if tag == TAG_FALSE:
+            return False
+        if tag == TAG_FLOAT:
+            (number,) = unpack_double(data, pos)
+            pos += DOUBLE.size
+            return number
+        if tag == TAG_BIGINT:
+            return int(ref(strings, varint(), 0))
+        if tag == TAG_OBJECT:
+            return dict_to_ast(entries())  # same as json, a dict with a "type" key still becomes a node
+        raise ValueError("bad tag %d at offset %d" % (tag, pos - 1))
+
+    return value()
+
+# takes either format and returns the ast tree, binary starts with the magic and json never does
+def load_tree(data: bytes):
+    if data.startswith(BINARY_MAGIC):
+        return decode_binary_ast(data)
+    return dict_to_ast(json.loads(data))
 
-    tree = dict_to_ast(ast_dict)
+def tree_to_source(tree):
     ast.fix_missing_locations(tree)
-    compiled_code = ast.unparse(tree)
+    return ast.unparse(tree)
+
+def json_to_source(ast_dict):
+    return tree_to_source(dict_to_ast(ast_dict))
+
+def write_tree(tree, output_path):
+    compiled_code = tree_to_source(tree)
     #compiled_code = compile(tree, filename="ast", mode="exec")
     #dis.dis(compiled_code)
 
-    with open(sys.argv[2], "w") as f:
+    with open(output_path, "w") as f:
         f.write(compiled_code)
 
+def write_source(ast_dict, output_path):
+    write_tree(dict_to_ast(ast_dict), output_path)
+
+# reads a json (or binary) ast and writes the unparsed source (also used by worker.py)
+# an input path of "-" means stdin, so the jvm can pipe the ast in without a temp file
+def compile_file(input_path, output_path):
+    if input_path == "-":
+        tree = load_tree(sys.stdin.buffer.read())
+    else:
+        with open(input_path, "rb") as f:
+            tree = load_tree(f.read())
+
+    write_tree(tree, output_path)
+
+if __name__ == "__main__": # compiler.py input.json output.py
+    if len(sys.argv) != 3:
+        print("Usage: python compiler.py <input_file.json> <output_file.py>")
+        sys.exit(1)
+
+    compile_file(sys.argv[1], sys.argv[2])
+
     print("Python code written to", sys.argv[2])
     sys.exit(0)
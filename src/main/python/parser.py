@@ -1,5 +1,6 @@
 import ast
 import json
+import struct
 import sys
 
 class ASTEncoder(ast.NodeVisitor):
@@ -17,25 +18,136 @@ class ASTEncoder(ast.NodeVisitor):
         else:
             return node
 
-def ast_to_json(source_code: str) -> str:
+# binary format, same value model as the json above but without the text (the jvm side is BinaryAST.java)
+# header: b"PYFB" + version byte, then one value
+# value:  tag byte, END closes a LIST or NODE/OBJECT entries
+#         INT is a zigzag varint, BIGINT is a string ref with the decimal text, FLOAT is a big endian double
+#         NODE is a type ref followed by entries, OBJECT (dicts that aren't nodes) is just entries
+#         entry: field ref and value, a field ref of 0 ends the entries
+# refs:   node types, field names and strings have a table each, filled in as they show up
+#         ref 0 (1 for field refs) = new entry, varint length + utf-8 follows; n = table[n - 1] (table[n - 2] for fields)
+BINARY_MAGIC = b"PYFB"
+BINARY_VERSION = 1
+TAG_END, TAG_NULL, TAG_FALSE, TAG_TRUE, TAG_INT, TAG_BIGINT, TAG_FLOAT, TAG_STRING, TAG_LIST, TAG_NODE, TAG_OBJECT = range(11)
+DOUBLE = struct.Struct(">d")
+
+class BinaryASTEncoder:
+    def __init__(self):
+        self.out = bytearray(BINARY_MAGIC)
+        self.out.append(BINARY_VERSION)
+        self.types = {}
+        self.field_names = {}
+        self.strings = {}
+
+    def varint(self, value):
+        while value > 0x7F:
+            self.out.append((value & 0x7F) | 0x80)
+            value >>= 7
+        self.out.append(value)
+
+    def ref(self, table, text, first_index):
+        index = table.get(text)
+        if index is not None:
+            self.varint(index + first_index + 1)
+            return
+        table[text] = len(table)
+        self.varint(first_index)
+        data = text.encode("utf-8", "surrogatepass")  # lone surrogates are legal in python strings
+        self.varint(len(data))
+        self.out.extend(data)
+
+    def visit(self, node):
+        out = self.out
+        if isinstance(node, ast.AST):
+            out.append(TAG_NODE)
+            self.ref(self.types, node.__class__.__name__, 0)
+            for field in node._fields or []:
+                self.ref(self.field_names, field, 1)
+                self.visit(getattr(node, field))
+            out.append(0)  # field ref 0 = end of entries
+        elif isinstance(node, list):
+            out.append(TAG_LIST)
+            for n in node:
+                self.visit(n)
+            out.append(TAG_END)
+        elif node is None:
+            out.append(TAG_NULL)
+        elif node is True:
+            out.append(TAG_TRUE)
+        elif node is False:
+            out.append(TAG_FALSE)
+        elif isinstance(node, int):
+            if -(1 << 63) <= node < (1 << 63):
+                out.append(TAG_INT)
+                self.varint(((node << 1) ^ (node >> 63)) & 0xFFFFFFFFFFFFFFFF)
+            else:
+                out.append(TAG_BIGINT)
+                self.ref(self.strings, str(node), 0)
+        elif isinstance(node, float):
+            out.append(TAG_FLOAT)
+            out.extend(DOUBLE.pack(node))
+        elif isinstance(node, str):
+            out.append(TAG_STRING)
+            self.ref(self.strings, node, 0)
+        else:
+            # same values json can't take (bytes, Ellipsis, complex)
+            raise TypeError("Object of type %s is not serializable" % node.__class__.__name__)
+
+def ast_to_binary(source_code: str) -> bytes:
+    encoder = BinaryASTEncoder()
+    encoder.visit(ast.parse(source_code))
+    return bytes(encoder.out)
+
+def ast_to_json(source_code: str, indent=2) -> str:
     tree = ast.parse(source_code)
     encoder = ASTEncoder()
     ast_dict = encoder.visit(tree)
-    return json.dumps(ast_dict, indent=2)
+    if indent is None:
+        return json.dumps(ast_dict, separators=(",", ":"))  # compact, nobody reads it
+    return json.dumps(ast_dict, indent=indent)
 
-if __name__ == "__main__": # parser.py input.py output.json
-    if len(sys.argv) != 3:
-        print("Usage: python parser.py <input_file.py> <output_file.json>")
-        sys.exit(-1)
+def parse_source_file(input_path, indent=2) -> str:
+    with open(input_path, "r") as f:
+        source = f.read()
+    return ast_to_json(source, indent)
 
-    with open(sys.argv[1], "r") as f:
+def parse_source_file_binary(input_path) -> bytes:
+    with open(input_path, "r") as f:
         source = f.read()
+    return ast_to_binary(source)
+
+# parses a source file and writes the json ast next to it (also used by worker.py)
+# an output path of "-" means stdout, so the jvm can read it without a temp file
+# ast_format "binary" writes the binary format instead (see BinaryASTEncoder)
+def parse_file(input_path, output_path, ast_format="json"):
+    if ast_format == "binary":
+        data = parse_source_file_binary(input_path)
+        if output_path == "-":
+            sys.stdout.buffer.write(data)
+            sys.stdout.buffer.flush()
+        else:
+            with open(output_path, "wb") as f:
+                f.write(data)
+        return
 
-    ast_json = ast_to_json(source)
+    if output_path == "-":
+        sys.stdout.write(parse_source_file(input_path, None))
+        sys.stdout.flush()
+        return
 
-    with open(sys.argv[2], "w") as f:
+    ast_json = parse_source_file(input_path)
+
+    with open(output_path, "w") as f:
         f.write(ast_json)
 
-    print("AST JSON written to ", sys.argv[2])
+if __name__ == "__main__": # parser.py input.py output.json [json|binary]
+    if len(sys.argv) not in (3, 4):
+        print("Usage: python parser.py <input_file.py> <output_file.json> [json|binary]")
+        sys.exit(-1)
+
+    parse_file(sys.argv[1], sys.argv[2], sys.argv[3] if len(sys.argv) == 4 else "json")
+
+    if sys.argv[2] != "-":
+        print("AST written to ", sys.argv[2])
     
     sys.exit(0)
@@ -0,0 +1,135 @@
+import importlib.util
+import struct
+import sys
+import traceback
+
+# long lived helper so the jvm doesn't pay for interpreter startup on every file
+# worker.py <parser.py> <compiler.py>
+#
+# framing (both directions): 1 byte op/status, 4 byte big endian length, payload
+# requests:  h = health check, p = parse, u = unparse, q = quit
+#            v = sys.version of the interpreter (ast.unparse output differs between versions, it goes in the cache key)
+#            p/u payload is "<input path>\0<output path>" in utf-8 (file to file, used with --keep-temp)
+#            P = parse to memory, payload is the input path, the ok response payload is the compact json ast
+#            B = same as P but the response payload is the binary ast (see BinaryASTEncoder in parser.py)
+#            U = unparse from memory, payload is the output path, followed by the json or binary ast as chunks
+#                (4 byte big endian length + bytes each, a zero length chunk ends it)
+# responses: o = ok, e = error (payload is the traceback)
+
+OP_PING = b"h"
+OP_VERSION = b"v"
+OP_PARSE = b"p"
+OP_UNPARSE = b"u"
+OP_PARSE_STREAM = b"P"
+OP_PARSE_BINARY = b"B"
+OP_UNPARSE_STREAM = b"U"
+OP_QUIT = b"q"
+
+STATUS_OK = b"o"
+STATUS_ERROR = b"e"
+
+HEADER = struct.Struct(">cI")
+CHUNK_LENGTH = struct.Struct(">I")
+
+
+# the scripts get extracted to temp files with random names so they can't be imported by module name
+def load_module(name, path):
+    spec = importlib.util.spec_from_file_location(name, path)
+    module = importlib.util.module_from_spec(spec)
+    spec.loader.exec_module(module)
+    return module
+
+
+def read_exact(stream, size):
+    data = bytearray()
+    while len(data) < size:
+        chunk = stream.read(size - len(data))
+        if not chunk:
+            return None
+        data.extend(chunk)
+    return bytes(data)
+
+
+# reads the chunked body of an U request, returns None if the pipe closed half way
+def read_chunks(stream):
+    data = bytearray()
+    while True:
+        header = read_exact(stream, CHUNK_LENGTH.size)
+        if header is None:
+            return None
+        (length,) = CHUNK_LENGTH.unpack(header)
+        if length == 0:
+            return bytes(data)
+        chunk = read_exact(stream, length)
+        if chunk is None:
+            return None
+        data.extend(chunk)
+
+
+def write_frame(stream, status, payload):
+    stream.write(HEADER.pack(status, len(payload)))
+    stream.write(payload)
+    stream.flush()
+
+
+def main():
+    if len(sys.argv) != 3:
+        print("Usage: python worker.py <parser.py> <compiler.py>", file=sys.stderr)
+        sys.exit(1)
+
+    parser = load_module("pyfuscator_parser", sys.argv[1])
+    compiler = load_module("pyfuscator_compiler", sys.argv[2])
+
+    requests = sys.stdin.buffer
+    responses = sys.stdout.buffer
+    sys.stdout = sys.stderr  # stray prints must never end up inside a frame
+
+    while True:
+        header = read_exact(requests, HEADER.size)
+        if header is None:
+            break  # jvm closed the pipe
+        op, length = HEADER.unpack(header)
+        payload = read_exact(requests, length)
+        if payload is None:
+            break
+
+        if op == OP_QUIT:
+            write_frame(responses, STATUS_OK, b"")
+            break
+
+        # the body has to be read off the pipe before anything can go wrong, or the next request would be garbage
+        body = None
+        if op == OP_UNPARSE_STREAM:
+            body = read_chunks(requests)
+            if body is None:
+                break
+
+        try:
+            if op == OP_PING:
+                write_frame(responses, STATUS_OK, b"pong")
+            elif op == OP_VERSION:
+                write_frame(responses, STATUS_OK, sys.version.encode("utf-8"))
+            elif op == OP_PARSE:
+                input_path, output_path = payload.decode("utf-8").split("\0")
+                parser.parse_file(input_path, output_path)
+                write_frame(responses, STATUS_OK, b"")
+            elif op == OP_UNPARSE:
+                input_path, output_path = payload.decode("utf-8").split("\0")
+                compiler.compile_file(input_path, output_path)
+                write_frame(responses, STATUS_OK, b"")
+            elif op == OP_PARSE_STREAM:
+                ast_json = parser.parse_source_file(payload.decode("utf-8"), None)
+                write_frame(responses, STATUS_OK, ast_json.encode("utf-8"))
+            elif op == OP_PARSE_BINARY:
+                write_frame(responses, STATUS_OK, parser.parse_source_file_binary(payload.decode("utf-8")))
+            elif op == OP_UNPARSE_STREAM:
+                compiler.write_tree(compiler.load_tree(body), payload.decode("utf-8"))
+                write_frame(responses, STATUS_OK, b"")
+            else:
+                write_frame(responses, STATUS_ERROR, ("unknown op: %r" % op).encode("utf-8"))
+        except Exception:
+            write_frame(responses, STATUS_ERROR, traceback.format_exc().encode("utf-8"))
+
+
+if __name__ == "__main__":
+    main()
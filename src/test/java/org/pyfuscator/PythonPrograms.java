@@ -0,0 +1,156 @@
+package org.pyfuscator;
+
+import org.pyfuscator.ast.ASTFormat;
+import org.pyfuscator.ast.JsonASTLoader;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.SymbolTable;
+import org.pyfuscator.utils.ObfuscationConfig;
+import org.pyfuscator.utils.ObfuscationContext;
+import org.pyfuscator.utils.PythonWorkerPool;
+import org.pyfuscator.utils.RunPython;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// what the tests need from python: parse a source into our AST, obfuscate it the way Main does, and run it
+// the obfuscator can't do anything without python, so without one on the path the tests are skipped, not failed
+// behaviour is stdout plus the type of an uncaught exception (its message may name a renamed variable)
+public final class PythonPrograms {
+	private static final String PYTHON = "python";
+	private static PythonWorkerPool pool;
+	private static Boolean available;
+
+	private PythonPrograms() {
+	}
+
+	public static synchronized void assumePython() {
+		if (available == null) {
+			try {
+				available = new RunPython(PYTHON).run("--version").exitCode() == 0;
+			} catch (Exception e) {
+				available = false;
+			}
+		}
+		assumeTrue(available, "no " + PYTHON + " on the path");
+	}
+
+	public static Node parse(String source, SymbolTable symbols) throws Exception {
+		return parse(source, new JsonASTLoader(symbols));
+	}
+
+	// the loader keeps what it saw (the identifiers of the file)
+	public static Node parse(String source, JsonASTLoader loader) throws Exception {
+		Path dir = Files.createTempDirectory("pyfuscator-test-");
+		try {
+			Path file = dir.resolve("module.py");
+			Files.writeString(file, source);
+			return RunPython.parse(pool(), file.toString(), ASTFormat.BINARY, loader::load);
+		} finally {
+			deleteTree(dir);
+		}
+	}
+
+	// one file through parser -> passes -> compiler, seed 1 plus whatever options sets
+	public static String obfuscate(String source, Consumer<ObfuscationConfig> options) throws Exception {
+		Path dir = Files.createTempDirectory("pyfuscator-test-");
+		try {
+			Path input = dir.resolve("module.py");
+			Path output = dir.resolve("out.py");
+			Files.writeString(input, source);
+			ObfuscationConfig config = ObfuscationConfig.createDefault();
+			config.setSeed(1);
+			config.setInputFile(input.toString());
+			config.setOutputFile(output.toString());
+			options.accept(config);
+			config.validate();
+			Main.obfuscateFile(new ObfuscationContext(config, pool()), "module.py", input.toFile(), output.toFile());
+			return Files.readString(output);
+		} finally {
+			deleteTree(dir);
+		}
+	}
+
+	// a whole directory (relative path -> source) with --input-dir, the outputs by the same paths
+	public static Map<String, String> obfuscateDirectory(Map<String, String> files, Consumer<ObfuscationConfig> options) throws Exception {
+		Path dir = Files.createTempDirectory("pyfuscator-test-");
+		try {
+			Path input = dir.resolve("input");
+			Path output = dir.resolve("output");
+			write(input, files);
+			ObfuscationConfig config = ObfuscationConfig.createDefault();
+			config.setSeed(1);
+			config.setJobs(2);
+			config.setInputDir(input.toString());
+			config.setOutputDir(output.toString());
+			options.accept(config);
+			config.validate();
+			new DirectoryObfuscator(new ObfuscationContext(config, pool())).run();
+			Map<String, String> result = new LinkedHashMap<>();
+			for (String file : files.keySet()) {
+				result.put(file, Files.readString(output.resolve(file)));
+			}
+			return result;
+		} finally {
+			deleteTree(dir);
+		}
+	}
+
+	public static String run(String source) throws Exception {
+		return run(Map.of("main.py", source), "main.py");
+	}
+
+	// runs main of a directory of files (so imports between them work)
+	public static String run(Map<String, String> files, String main) throws Exception {
+		Path dir = Files.createTempDirectory("pyfuscator-test-");
+		try {
+			write(dir, files);
+			RunPython.Result result = new RunPython(PYTHON).run("-B", dir.resolve(main).toString());
+			String stderr = result.stderr().strip();
+			String error = stderr.isEmpty() ? "" : stderr.substring(stderr.lastIndexOf('\n') + 1);
+			int colon = error.indexOf(':');
+			return result.stdout() + (error.isEmpty() ? "" : "raised " + (colon >= 0 ? error.substring(0, colon) : error));
+		} finally {
+			deleteTree(dir);
+		}
+	}
+
+	// obfuscates source and checks the result prints the same (and raises the same) as the original, returns the output
+	public static String assertSameBehaviour(String source, Consumer<ObfuscationConfig> options) throws Exception {
+		String obfuscated = obfuscate(source, options);
+		assertEquals(run(source), run(obfuscated), () -> "obfuscated:\n" + obfuscated);
+		return obfuscated;
+	}
+
+	private static synchronized PythonWorkerPool pool() throws IOException {
+		assumePython();
+		if (pool == null) {
+			pool = new PythonWorkerPool(PYTHON, 1);
+			Runtime.getRuntime().addShutdownHook(new Thread(pool::close));
+		}
+		return pool;
+	}
+
+	private static void write(Path root, Map<String, String> files) throws IOException {
+		for (Map.Entry<String, String> file : files.entrySet()) {
+			Path path = root.resolve(file.getKey());
+			Files.createDirectories(path.getParent());
+			Files.writeString(path, file.getValue());
+		}
+	}
+
+	private static void deleteTree(Path root) throws IOException {
+		try (Stream<Path> walk = Files.walk(root)) {
+			walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+}
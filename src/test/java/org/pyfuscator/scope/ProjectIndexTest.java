@@ -0,0 +1,99 @@
+package org.pyfuscator.scope;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.PythonPrograms;
+import org.pyfuscator.utils.ObfuscationConfig;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectIndexTest {
+	private static final Consumer<ObfuscationConfig> PROJECT = config -> {
+		config.setProject(true);
+		config.setRenameFunctions(true);
+		config.setRenameClasses(true);
+	};
+
+	private static Map<String, String> files(String... pathsAndSources) {
+		Map<String, String> files = new LinkedHashMap<>();
+		for (int i = 0; i < pathsAndSources.length; i += 2) {
+			files.put(pathsAndSources[i], pathsAndSources[i + 1]);
+		}
+		return files;
+	}
+
+	@Test
+	void namesImportedFromOtherFilesAreRenamedTheSame() throws Exception {
+		Map<String, String> project = files(
+				"pkg/__init__.py", "from .shapes import Square\n",
+				"pkg/shapes.py", """
+						class Square:
+						    def __init__(self, side):
+						        self.side = side
+						    def area(self):
+						        return self.side * self.side
+						def unit_square():
+						    return Square(1)
+						""",
+				"pkg/util.py", """
+						from pkg import shapes
+						from .shapes import unit_square as unit
+						def total_area(squares):
+						    return sum(s.area() for s in squares)
+						def sample():
+						    return [shapes.Square(2), unit()]
+						""",
+				"main.py", """
+						from pkg import Square
+						from pkg.util import *
+						import pkg.util as u
+						print(total_area(sample()), u.total_area([Square(3)]))
+						""");
+		Map<String, String> obfuscated = PythonPrograms.obfuscateDirectory(project, PROJECT);
+		assertEquals(PythonPrograms.run(project, "main.py"), PythonPrograms.run(obfuscated, "main.py"));
+		assertEquals("5 9\n", PythonPrograms.run(project, "main.py"));
+		// renamed across files, not just kept
+		assertFalse(obfuscated.get("pkg/util.py").contains("def total_area"), obfuscated.get("pkg/util.py"));
+		assertFalse(obfuscated.get("main.py").contains("total_area"), obfuscated.get("main.py"));
+	}
+
+	@Test
+	void starImportCycleFinishes() throws Exception {
+		// every module star-imports the next one and the last one the first, re-exports go round in circles
+		Map<String, String> project = new LinkedHashMap<>();
+		int modules = 12;
+		for (int i = 0; i < modules; i++) {
+			project.put("cycle/m" + i + ".py", "def f" + i + "():\n    return " + i + "\nfrom cycle.m" + (i + 1) % modules + " import *\n");
+		}
+		project.put("cycle/__init__.py", "");
+		project.put("main.py", "from cycle.m0 import *\nprint(f0() + f5() + f11())\n");
+		Map<String, String> obfuscated = assertTimeoutPreemptively(Duration.ofSeconds(60),
+				() -> PythonPrograms.obfuscateDirectory(project, PROJECT));
+		assertEquals(PythonPrograms.run(project, "main.py"), PythonPrograms.run(obfuscated, "main.py"));
+	}
+
+	@Test
+	void namesOutsideTheProjectAreKept() throws Exception {
+		Map<String, String> project = files(
+				"app.py", """
+						import json
+						from collections import OrderedDict as OD
+						def dump(data):
+						    return json.dumps(OD(sorted(data.items())))
+						""",
+				"main.py", """
+						from app import dump
+						print(dump({'b': 1, 'a': 2}))
+						""");
+		Map<String, String> obfuscated = PythonPrograms.obfuscateDirectory(project, PROJECT);
+		assertEquals(PythonPrograms.run(project, "main.py"), PythonPrograms.run(obfuscated, "main.py"));
+		assertTrue(obfuscated.get("app.py").contains("json.dumps"), obfuscated.get("app.py"));
+	}
+}
@@ -0,0 +1,144 @@
+package org.pyfuscator.scope;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.PythonPrograms;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.ast.NodeType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScopeAnalysisTest {
+
+	// every Name of the source, by name in walk order, as the scope path of the binding it resolves to ("?" for unresolved)
+	private static Map<String, List<String>> resolutions(String source) throws Exception {
+		SymbolTable symbols = new SymbolTable();
+		Node root = PythonPrograms.parse(source, symbols);
+		ScopeAnalysis analysis = new ScopeAnalysis(symbols).analyze(root);
+		Map<String, List<String>> result = new LinkedHashMap<>();
+		Deque<Integer> scopes = new ArrayDeque<>();
+		root.walk(node -> {
+			int scope = analysis.scopeFor(node, scopes.isEmpty() ? ScopeAnalysis.MODULE : scopes.peek());
+			scopes.push(scope);
+			if (node.is(NodeType.NAME) && node.getField("id") instanceof Symbol name) {
+				int binding = analysis.resolve(scope, name);
+				String path = binding == ScopeAnalysis.UNRESOLVED ? "?" : analysis.scopePath(analysis.bindingScope(binding));
+				result.computeIfAbsent(name.name(), k -> new ArrayList<>()).add(path);
+			}
+		}, node -> scopes.pop());
+		return result;
+	}
+
+	@Test
+	void comprehensionVariableDoesNotLeak() throws Exception {
+		Map<String, List<String>> names = resolutions("""
+				n = 5
+				def f():
+				    a = [n for n in range(3)]
+				    return n, a
+				""");
+		assertEquals(List.of("", "f.<listcomp>", "f.<listcomp>", ""), names.get("n"));
+		assertEquals(List.of("?"), names.get("range"));
+	}
+
+	@Test
+	void firstIterableIsEvaluatedInTheEnclosingScope() throws Exception {
+		// the class body's xs is only visible to the first iterable, the element and the second one don't see it
+		Map<String, List<String>> names = resolutions("""
+				xs = [0]
+				class C:
+				    xs = [1, 2]
+				    ys = [x + len(xs) for x in xs for y in xs]
+				""");
+		assertEquals(List.of("", "C", "", "C", ""), names.get("xs"));
+	}
+
+	@Test
+	void nestedComprehensionsEachGetAScope() throws Exception {
+		Map<String, List<String>> names = resolutions("""
+				def f(rows):
+				    return {r: sum(v for v in r) for r in rows}
+				""");
+		assertEquals(List.of("f.<dictcomp>", "f.<dictcomp>", "f.<dictcomp>"), names.get("r"));
+		assertEquals(List.of("f.<dictcomp>.<genexpr>", "f.<dictcomp>.<genexpr>"), names.get("v"));
+		assertEquals(List.of("f"), names.get("rows"));
+	}
+
+	@Test
+	void walrusInAComprehensionBindsInTheFunction() throws Exception {
+		Map<String, List<String>> names = resolutions("""
+				def f(xs):
+				    if any((last := x) > 1 for x in xs):
+				        return last
+				""");
+		assertEquals(List.of("f", "f"), names.get("last"));
+		assertEquals(List.of("f.<genexpr>", "f.<genexpr>"), names.get("x"));
+	}
+
+	@Test
+	void classBodyIsNotVisibleToMethods() throws Exception {
+		Map<String, List<String>> names = resolutions("""
+				x = 1
+				class C:
+				    x = 2
+				    y = x
+				    def m(self):
+				        return x
+				""");
+		assertEquals(List.of("", "C", "C", ""), names.get("x"));
+	}
+
+	@Test
+	void globalBindsTheModulesName() throws Exception {
+		Map<String, List<String>> names = resolutions("""
+				def f():
+				    global y
+				    y = 1
+				def g():
+				    y = 2
+				    return y
+				f()
+				print(y)
+				""");
+		assertEquals(List.of("", "g", "g", ""), names.get("y"));
+	}
+
+	@Test
+	void nonlocalBindsTheEnclosingFunctionsName() throws Exception {
+		Map<String, List<String>> names = resolutions("""
+				x = 0
+				def f():
+				    x = 1
+				    def g():
+				        nonlocal x
+				        x = 2
+				    g()
+				    return x
+				""");
+		assertEquals(List.of("", "f", "f", "f"), names.get("x"));
+	}
+
+	@Test
+	void comprehensionRenamesKeepBehaviour() throws Exception {
+		PythonPrograms.assertSameBehaviour("""
+				n = 5
+				def f():
+				    a = [n for n in range(3)]
+				    return n, a
+				class C:
+				    xs = [1, 2]
+				    print([x * 2 for x in xs])
+				def g(xs):
+				    if any((last := x) > 1 for x in xs):
+				        return last
+				print(f(), g([0, 3, 4]))
+				""", config -> {
+		});
+	}
+}
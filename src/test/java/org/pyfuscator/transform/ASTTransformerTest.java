@@ -0,0 +1,126 @@
+package org.pyfuscator.transform;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.PythonPrograms;
+import org.pyfuscator.ast.ASTFormat;
+import org.pyfuscator.ast.JsonASTLoader;
+import org.pyfuscator.ast.JsonASTWriter;
+import org.pyfuscator.ast.Node;
+import org.pyfuscator.scope.SymbolTable;
+import org.pyfuscator.transform.passes.ConstantFoldingPass;
+import org.pyfuscator.utils.ObfuscationConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ASTTransformerTest {
+	private static final String SOURCE = """
+			import os as system
+			LIMIT = 60 * 60
+			def _unused():
+			    return 1
+			def scale(values, factor=2 ** 3):
+			    total = 0
+			    for value in values:
+			        if False:
+			            total = -1
+			        total += value * factor
+			    return total
+			    print('never')
+			class Counter:
+			    def __init__(self):
+			        self.count = 0
+			    def bump(self, by=1 + 1):
+			        self.count += by
+			        return self.count
+			print(scale([1, 2, 3]), Counter().bump(), LIMIT, system.sep)
+			""";
+
+	private static ObfuscationConfig config() {
+		ObfuscationConfig config = ObfuscationConfig.createDefault();
+		config.setSeed(1);
+		config.setFoldConstants(true);
+		config.setRemoveDeadCode(true);
+		config.setRenameFunctions(true);
+		return config;
+	}
+
+	private static ASTTransformer transformer(JsonASTLoader loader, SymbolTable symbols) {
+		return ASTTransformer.forConfig(config(), symbols, null, loader.getIdentifiers(), null);
+	}
+
+	private static List<String> walkNames(ASTTransformer transformer) {
+		List<String> names = new ArrayList<>();
+		for (List<TransformationPass> walk : transformer.planWalks()) {
+			List<String> walkNames = new ArrayList<>();
+			for (TransformationPass pass : walk) {
+				walkNames.add(pass.getClass().getSimpleName());
+			}
+			names.add(String.join("+", walkNames));
+		}
+		return names;
+	}
+
+	private static byte[] written(Node tree) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new JsonASTWriter(ASTFormat.JSON, false).write(tree, out);
+		return out.toByteArray();
+	}
+
+	@Test
+	void fusesUpToADependency() throws Exception {
+		SymbolTable symbols = new SymbolTable();
+		JsonASTLoader loader = new JsonASTLoader(symbols);
+		PythonPrograms.parse(SOURCE, loader);
+		assertEquals(List.of("ConstantFoldingPass+DeadCodePass+ScopeAnalysisPass", "VariableRenamePass"),
+				walkNames(transformer(loader, symbols)));
+	}
+
+	@Test
+	void dependencyAfterItsUserIsRejected() {
+		ASTTransformer transformer = new ASTTransformer();
+		transformer.addPass(new FusablePass() {
+			@Override
+			public void register(TraversalHooks hooks) {
+			}
+
+			@Override
+			public Set<Class<? extends TransformationPass>> dependsOn() {
+				return Set.of(ConstantFoldingPass.class);
+			}
+		});
+		transformer.addPass(new ConstantFoldingPass());
+		assertThrows(IllegalStateException.class, transformer::planWalks);
+	}
+
+	@Test
+	void fusedWalkGivesTheSameTreeAsOneWalkPerPass() throws Exception {
+		SymbolTable fusedSymbols = new SymbolTable();
+		JsonASTLoader fusedLoader = new JsonASTLoader(fusedSymbols);
+		Node fused = PythonPrograms.parse(SOURCE, fusedLoader);
+		fused = transformer(fusedLoader, fusedSymbols).transform(fused);
+
+		SymbolTable symbols = new SymbolTable();
+		JsonASTLoader loader = new JsonASTLoader(symbols);
+		Node separate = PythonPrograms.parse(SOURCE, loader);
+		for (TransformationPass pass : transformer(loader, symbols).getPasses()) {
+			separate = pass.apply(separate);
+		}
+
+		assertEquals(new String(written(separate)), new String(written(fused)));
+	}
+
+	@Test
+	void fusedPassesKeepBehaviour() throws Exception {
+		PythonPrograms.assertSameBehaviour(SOURCE, config -> {
+			config.setFoldConstants(true);
+			config.setRemoveDeadCode(true);
+			config.setRenameFunctions(true);
+		});
+	}
+}
@@ -0,0 +1,73 @@
+package org.pyfuscator.transform.passes;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.PythonPrograms;
+import org.pyfuscator.utils.ObfuscationConfig;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConstantFoldingPassTest {
+	private static final Consumer<ObfuscationConfig> FOLD = config -> config.setFoldConstants(true);
+
+	// the right hand side of `x = <expression>` after --fold-constants
+	private static String fold(String expression) throws Exception {
+		String output = PythonPrograms.obfuscate("x = " + expression + "\nprint(x)\n", FOLD);
+		String assignment = output.lines().findFirst().orElseThrow();
+		return assignment.substring(assignment.indexOf(" = ") + 3);
+	}
+
+	@Test
+	void foldsArithmetic() throws Exception {
+		assertEquals("3600", fold("60 * 60"));
+		assertEquals("-4", fold("-7 // 2"));
+		assertEquals("2", fold("-7 % 3"));
+		assertEquals("'ababab'", fold("'ab' * 3"));
+		assertEquals("(1, 2, 1, 2)", fold("(1, 2) * 2"));
+		assertEquals("True", fold("1 < 2 < 3"));
+	}
+
+	@Test
+	void refusesNegativePowers() throws Exception {
+		// a float in python, java's BigInteger would throw
+		assertEquals("2 ** (-1)", fold("2 ** -1"));
+	}
+
+	@Test
+	void refusesWhatPythonRaisesOn() throws Exception {
+		assertEquals("1 / 0", fold("1 / 0"));
+		assertEquals("'a' + 1", fold("'a' + 1"));
+		assertEquals("1 < 'a'", fold("1 < 'a'"));
+	}
+
+	@Test
+	void refusesHugeResults() throws Exception {
+		assertEquals("'a' * 10000", fold("'a' * 10000"));
+		assertEquals("(0,) * 1000", fold("(0,) * 1000"));
+		assertEquals("2 ** 1000", fold("2 ** 1000"));
+		// not a Py_ssize_t, python raises OverflowError even for an empty string
+		assertEquals("'' * 18446744073709551616", fold("'' * 2 ** 64"));
+	}
+
+	@Test
+	void foldedProgramBehavesTheSame() throws Exception {
+		PythonPrograms.assertSameBehaviour("""
+				def f():
+				    print('called')
+				    return 7
+				print(60 * 60, 2 ** -1, -7 // 2, -7 % 3, 7.5 % -2, -7.5 // 2, ~5, 1 << 70, 2 ** 100)
+				print('ab' * 3, (1, 2) * 2, 'a' < 'b', 1 < 2 < 3, 1 == 1.0, not 0)
+				print(0 and f(), 1 and f(), 0 or f(), None or 'x', 1 if 2 > 1 else 0)
+				print(len('a' * 10000), 'x' * -1, 2 ** 63 - 1, -2 ** 63)
+				try:
+				    print('' * 2 ** 64)
+				except OverflowError as e:
+				    print('overflow')
+				try:
+				    print(1 / 0)
+				except ZeroDivisionError:
+				    print('zero')
+				""", FOLD);
+	}
+}
@@ -0,0 +1,88 @@
+package org.pyfuscator.transform.passes;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.PythonPrograms;
+import org.pyfuscator.utils.ObfuscationConfig;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadCodePassTest {
+	private static final Consumer<ObfuscationConfig> REMOVE = config -> config.setRemoveDeadCode(true);
+
+	@Test
+	void keepsADeadBindingThatMakesANameLocal() throws Exception {
+		// without the dead x = 111 the print would find the module's x instead of raising
+		String output = PythonPrograms.assertSameBehaviour("""
+				x = 0
+				def f():
+				    print(x)
+				    return
+				    x = 111
+				try:
+				    f()
+				except UnboundLocalError:
+				    print('unbound')
+				""", REMOVE);
+		assertTrue(output.contains("111"), output);
+	}
+
+	@Test
+	void keepsADeadBranchThatMakesANameLocal() throws Exception {
+		String output = PythonPrograms.assertSameBehaviour("""
+				v = 0
+				def f():
+				    if False:
+				        v = 222
+				    return v
+				try:
+				    f()
+				except UnboundLocalError:
+				    print('unbound')
+				""", REMOVE);
+		assertTrue(output.contains("222"), output);
+	}
+
+	@Test
+	void dropsADeadBindingTheFunctionDoesntNotice() throws Exception {
+		String output = PythonPrograms.assertSameBehaviour("""
+				def f():
+				    y = 1
+				    return y
+				    y = 333
+				def g():
+				    return 2
+				    z = 444
+				print(f(), g())
+				""", REMOVE);
+		assertFalse(output.contains("333"), output);
+		assertFalse(output.contains("444"), output);
+	}
+
+	@Test
+	void keepsADeadYield() throws Exception {
+		// the yield still makes f a generator
+		String output = PythonPrograms.assertSameBehaviour("""
+				def f():
+				    return 1
+				    yield 555
+				print(type(f()).__name__)
+				""", REMOVE);
+		assertTrue(output.contains("555"), output);
+	}
+
+	@Test
+	void dropsEverythingDeadAtModuleLevel() throws Exception {
+		String output = PythonPrograms.assertSameBehaviour("""
+				if False:
+				    w = 666
+				while 0:
+				    print(777)
+				print('w' in globals())
+				""", REMOVE);
+		assertFalse(output.contains("666"), output);
+		assertFalse(output.contains("777"), output);
+	}
+}
@@ -0,0 +1,71 @@
+package org.pyfuscator.transform.passes;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.PythonPrograms;
+import org.pyfuscator.utils.ObfuscationConfig;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParallelRenamePassTest {
+	private static final Consumer<ObfuscationConfig> PARALLEL = config -> {
+		config.setParallelRename(true);
+		config.setRenameFunctions(true);
+	};
+
+	// enough top level defs and classes that every fork has something to do, and names shared across them
+	private static String module() {
+		StringBuilder source = new StringBuilder("""
+				import os.path
+				import collections as c
+				from functools import reduce as fold
+				counter = 0
+				def bump():
+				    global counter
+				    counter += 1
+				    return counter
+				""");
+		for (int i = 0; i < 40; i++) {
+			source.append("def f").append(i).append("(x, y=").append(i).append("):\n")
+					.append("    total = x + y + bump()\n")
+					.append("    def inner(z):\n")
+					.append("        nonlocal total\n")
+					.append("        total += z\n")
+					.append("        return total\n")
+					.append("    return inner(len([v for v in range(x)]))\n")
+					.append("class K").append(i).append(":\n")
+					.append("    base = ").append(i).append("\n")
+					.append("    def get(self, n):\n")
+					.append("        return f").append(i).append("(n) + fold(lambda a, b: a + b, [1, 2])\n");
+		}
+		source.append("print(sum(K").append(0).append("().get(i) for i in range(3)), counter)\n");
+		for (int i = 1; i < 40; i++) {
+			source.append("print(K").append(i).append("().get(").append(i).append("), f").append(i).append("(2))\n");
+		}
+		source.append("print(counter, os.path.sep, c.Counter('abca')['a'])\n");
+		return source.toString();
+	}
+
+	@Test
+	void parallelRenameKeepsBehaviour() throws Exception {
+		PythonPrograms.assertSameBehaviour(module(), PARALLEL);
+	}
+
+	@Test
+	void outputDependsOnTheSeedOnly() throws Exception {
+		String source = module();
+		String first = PythonPrograms.obfuscate(source, PARALLEL);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(first, PythonPrograms.obfuscate(source, PARALLEL));
+		}
+	}
+
+	@Test
+	void sameBehaviourAsTheSequentialRename() throws Exception {
+		String source = module();
+		String sequential = PythonPrograms.obfuscate(source, config -> config.setRenameFunctions(true));
+		String parallel = PythonPrograms.obfuscate(source, PARALLEL);
+		assertEquals(PythonPrograms.run(sequential), PythonPrograms.run(parallel));
+	}
+}
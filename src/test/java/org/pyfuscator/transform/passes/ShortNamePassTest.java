@@ -0,0 +1,63 @@
+package org.pyfuscator.transform.passes;
+
+import org.junit.jupiter.api.Test;
+import org.pyfuscator.PythonPrograms;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShortNamePassTest {
+	// 53 characters can start a name, 63 can follow
+	private static final int FIRST = 53;
+	private static final int REST = 63;
+
+	@Test
+	void shortestNamesFirst() {
+		assertEquals("a", ShortNamePass.shortName(0));
+		assertEquals("z", ShortNamePass.shortName(25));
+		assertEquals("A", ShortNamePass.shortName(26));
+		assertEquals("_", ShortNamePass.shortName(FIRST - 1));
+		assertEquals("aa", ShortNamePass.shortName(FIRST));
+		assertEquals("a0", ShortNamePass.shortName(FIRST + 52));
+		assertEquals("a_", ShortNamePass.shortName(FIRST + REST - 1));
+		assertEquals("ba", ShortNamePass.shortName(FIRST + REST));
+		assertEquals("__", ShortNamePass.shortName(FIRST + FIRST * REST - 1));
+		assertEquals("aaa", ShortNamePass.shortName(FIRST + FIRST * REST));
+	}
+
+	@Test
+	void everyIndexGetsItsOwnIdentifier() {
+		int count = FIRST + FIRST * REST + 1000;
+		Set<String> names = new HashSet<>();
+		for (int i = 0; i < count; i++) {
+			String name = ShortNamePass.shortName(i);
+			assertTrue(name.matches("[A-Za-z_][A-Za-z0-9_]*"), name);
+			assertTrue(names.add(name), name);
+		}
+	}
+
+	@Test
+	void largeIndexesDontOverflow() {
+		String name = ShortNamePass.shortName(Long.MAX_VALUE);
+		assertTrue(name.matches("[A-Za-z_][A-Za-z0-9_]*"), name);
+		assertFalse(name.equals(ShortNamePass.shortName(Long.MAX_VALUE - 1)));
+	}
+
+	@Test
+	void shortNamesKeepBehaviour() throws Exception {
+		// a, b, ... must skip what the file still uses under its own name
+		PythonPrograms.assertSameBehaviour("""
+				import os as a
+				def total(values):
+				    b = 0
+				    for value in values:
+				        b += value
+				    return b
+				print(total([1, 2, 3]), a.sep, len('x'), [i * i for i in range(4)])
+				""", config -> config.setShortNames(true));
+	}
+}
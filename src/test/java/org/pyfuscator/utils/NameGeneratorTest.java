@@ -0,0 +1,86 @@
+package org.pyfuscator.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NameGeneratorTest {
+
+	private static List<String> names(NameGenerator generator, int count) {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			names.add(generator.generate());
+		}
+		return names;
+	}
+
+	@Test
+	void sameSeedSameNames() {
+		assertEquals(names(new NameGenerator(7L, "v", 8), 1000), names(new NameGenerator(7L, "v", 8), 1000));
+		assertNotEquals(names(new NameGenerator(7L, "v", 8), 1000), names(new NameGenerator(8L, "v", 8), 1000));
+	}
+
+	@Test
+	void prefixAndLength() {
+		for (String name : names(new NameGenerator(1L, "v", 8), 1000)) {
+			assertTrue(name.matches("v_[A-Za-z_][A-Za-z0-9]{7}"), name);
+		}
+		for (String name : names(new NameGenerator(1L, "", 12), 1000)) {
+			assertTrue(name.matches("[A-Za-z_][A-Za-z0-9]{11}"), name);
+		}
+	}
+
+	@Test
+	void handsOutEveryNameOnceThenThrows() {
+		// 53 * 62 two char names, less the keywords as, if, in, is and or
+		NameGenerator generator = new NameGenerator(3L, "", 2);
+		Set<String> names = new HashSet<>(names(generator, 53 * 62 - 5));
+		assertEquals(53 * 62 - 5, names.size());
+		assertFalse(names.contains("if"));
+		assertThrows(IllegalStateException.class, generator::generate);
+	}
+
+	@Test
+	void namesPastThePermutedLengthDontRepeat() {
+		Set<String> names = new HashSet<>(names(new NameGenerator(5L, "", 14), 50000));
+		assertEquals(50000, names.size());
+	}
+
+	@Test
+	void skipsExcludedNames() {
+		List<String> first = names(new NameGenerator(9L, "", 1), 10);
+		NameGenerator generator = new NameGenerator(9L, "", 1);
+		generator.exclude(first.subList(0, 5));
+		generator.reserve(first.get(7));
+		List<String> names = names(generator, 53 - 6);
+		for (String name : names) {
+			assertFalse(first.subList(0, 5).contains(name) || name.equals(first.get(7)), name);
+		}
+		assertEquals(6, generator.getCollisions());
+		assertThrows(IllegalStateException.class, generator::generate);
+	}
+
+	@Test
+	void forksDontReuseTheParentsNames() {
+		NameGenerator parent = new NameGenerator(11L, "", 2);
+		Set<String> taken = new HashSet<>(names(parent, 2000));
+		List<String> forked = names(parent.fork(0), 1000);
+		for (String name : forked) {
+			assertFalse(taken.contains(name), name);
+		}
+
+		// the same again gives the same fork names, whatever thread it runs on
+		NameGenerator again = new NameGenerator(11L, "", 2);
+		names(again, 2000);
+		assertEquals(forked, names(again.fork(0), 1000));
+	}
+}